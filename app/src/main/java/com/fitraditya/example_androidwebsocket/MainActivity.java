@@ -15,7 +15,7 @@ public class MainActivity extends AppCompatActivity implements PushService.PushL
     }
 
     @Override
-    public void newMessage(String message) {
+    public void newMessage(Response message) {
         //
     }
 }
@@ -12,30 +12,53 @@ import android.os.PowerManager;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
+import com.fitraditya.androidwebsocket.Checkpoints;
+import com.fitraditya.androidwebsocket.CodecListener;
+import com.fitraditya.androidwebsocket.MessageCodec;
+import com.fitraditya.androidwebsocket.ReconnectManager;
+import com.fitraditya.androidwebsocket.TopicMultiplexer;
 import com.fitraditya.androidwebsocket.WebsocketClient;
+import com.fitraditya.androidwebsocket.platform.HandlerScheduler;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by fitra on 07/06/17.
  */
 
-public class PushService extends Service implements WebsocketClient.WebsocketListener {
+public class PushService extends Service implements MessageCodec.Listener<Response> {
     private static final String ACTION_PING = "WS_SVC.ACTION_PING";
     private static final String ACTION_CONNECT = "WS_SVC.ACTION_CONNECT";
     private static final String ACTION_SHUT_DOWN = "WS_SVC.ACTION_SHUT_DOWN";
     private static final String WS_SERVER = "wss://qiscusrtc-hub.herokuapp.com/mobile";
+    private static final int HEARTBEAT_MIN_INTERVAL = 30000;
+    private static final int HEARTBEAT_MAX_INTERVAL = 270000;
+    private static final int DISPATCH_QUEUE_SIZE = 64;
+    private static final String CHECKPOINT_FILE = "ws_checkpoints";
 
     private final IBinder iBinder = new ServiceBinder();
     private WebsocketClient websocketClient;
-    private HashSet<String> list = new HashSet<>();
+    private ReconnectManager reconnectManager;
+    private HandlerScheduler scheduler;
+    private TopicMultiplexer<Response> topics;
+    private Checkpoints checkpoints;
+    private final Map<String, Set<String>> appliedAtCheckpoint = new HashMap<>();
+    private ExecutorService decoder;
     private Handler handler;
     private PushListener pushListener;
     private boolean isShutdown = false;
 
     public interface PushListener{
-        void newMessage(String message);
+        void newMessage(Response message);
     }
 
     public class ServiceBinder extends Binder{
@@ -80,9 +103,29 @@ public class PushService extends Service implements WebsocketClient.WebsocketLis
         super.onDestroy();
         Log.i("WS_SVC", "Destroying service: " + this.toString());
 
+        if (reconnectManager != null) {
+            reconnectManager.stop();
+        }
+
         if (websocketClient != null && websocketClient.isConnected()) {
             websocketClient.disconnect();
         }
+
+        if (decoder != null) {
+            decoder.shutdown();
+        }
+
+        if (checkpoints != null) {
+            try {
+                checkpoints.save();
+            } catch (IOException e) {
+                Log.e("WS_SVC", "Saving checkpoints failed:", e);
+            }
+        }
+
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
     }
 
     @Override
@@ -98,20 +141,38 @@ public class PushService extends Service implements WebsocketClient.WebsocketLis
 
         if (websocketClient == null) {
             PowerManager.WakeLock clientlock = ((PowerManager)getSystemService(POWER_SERVICE)).newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "WS_SVC.WS_SVC");
-            websocketClient = new WebsocketClient(URI.create(WS_SERVER), this, null, clientlock);
+            websocketClient = new WebsocketClient(URI.create(WS_SERVER), new CodecListener<>(Response.COMPACT_CODEC, this), null, clientlock);
+            // Servers that know the binary format pick it; the rest answer in JSON, which still decodes.
+            websocketClient.setProtocols(ResponseCodec.PROTOCOL, ResponseCodec.PROTOCOL_JSON);
+            // Messages are decoded off the socket thread; only the finished Response reaches the main thread.
+            decoder = Executors.newSingleThreadExecutor();
+            websocketClient.setDispatchExecutor(decoder, DISPATCH_QUEUE_SIZE);
+            // Protocol pings find a dead connection within minutes; the alarm below is the backstop.
+            websocketClient.getHeartbeat().setInterval(HEARTBEAT_MIN_INTERVAL, HEARTBEAT_MAX_INTERVAL);
+            scheduler = new HandlerScheduler("WS_SVC.RECONNECT");
+            reconnectManager = new ReconnectManager(websocketClient, scheduler);
+            topics = new TopicMultiplexer<>(new ResponseTopics(), scheduler);
+            // Each name is a stream and lastUpdate its position; reconnects ask for what changed since.
+            checkpoints = new Checkpoints(new File(getFilesDir(), CHECKPOINT_FILE), scheduler);
+            websocketClient.setCheckpoints(checkpoints);
         }
 
-        if (!websocketClient.isConnected()) {
-            websocketClient.connect();
+        if (intent == null || !ACTION_SHUT_DOWN.equals(intent.getAction())) {
+            // Every start command lands here; a connect already pending, running or open is kept.
+            reconnectManager.start();
         }
 
         if (intent != null) {
             if (ACTION_PING.equals(intent.getAction())) {
                 if (websocketClient.isConnected()) {
-                    websocketClient.send("{\"action\":\"ping\"}");
+                    Response ping = new Response();
+                    ping.setAction("ping");
+                    websocketClient.send(getCodec(), ping);
+                    Log.d("WS_SVC", "RTT: " + websocketClient.getHeartbeat().getSmoothedRttMillis() + " ms, heartbeat every " + websocketClient.getHeartbeat().getIntervalMillis() + " ms");
                 }
             } else if (ACTION_SHUT_DOWN.equals(intent.getAction())) {
                 isShutdown = true;
+                reconnectManager.stop();
 
                 if (websocketClient.isConnected()) {
                     websocketClient.disconnect();
@@ -143,42 +204,110 @@ public class PushService extends Service implements WebsocketClient.WebsocketLis
         return websocketClient != null && websocketClient.isConnected();
     }
 
+    /**
+     * Delivers messages named {@code topic} to {@code listener} on the decoder thread, across
+     * reconnects, until unsubscribed. Only valid once the service has started.
+     */
+    public void subscribe(String topic, TopicMultiplexer.Listener<Response> listener) {
+        topics.subscribe(topic, listener);
+    }
+
+    public void unsubscribe(String topic, TopicMultiplexer.Listener<Response> listener) {
+        topics.unsubscribe(topic, listener);
+    }
+
+    private MessageCodec<Response> getCodec() {
+        return ResponseCodec.PROTOCOL.equals(websocketClient.getProtocol()) ? Response.COMPACT_CODEC : Response.CODEC;
+    }
+
     @Override
     public void onConnect() {
         Log.d("WS_SVC", "Connected to websocket");
-
+        reconnectManager.onConnect();
+        topics.onConnect();
     }
 
     @Override
-    public void onMessage(final String message) {
-        PowerManager.WakeLock wakelock = ((PowerManager)getSystemService(POWER_SERVICE)).newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "EECS780 Service");
-        wakelock.acquire();
-
+    public void onMessage(final Response message) {
+        // Delivered while the client's wake lock is held, and it stays held for the grace period
+        // after, which covers the hop to the main thread.
         Log.d("WS_SVC", "Message: " + message);
 
+        if (isApplied(message)) {
+            // The server resumed from a position saved before this update was.
+            return;
+        }
+
+        if (topics.route(message)) {
+            advance(message);
+            return;
+        }
+
         handler.post(new Runnable() {
             @Override
             public void run() {
                 if (pushListener != null) {
                     pushListener.newMessage(message);
+                    advance(message);
                 }
             }
         });
+    }
 
-        wakelock.release();
+    /**
+     * Responses carry only a timestamp, which distinct updates may share, so one at the checkpoint
+     * itself counts as applied only if this process applied the same response. After a restart
+     * those are applied again, which is safe.
+     */
+    private boolean isApplied(Response message) {
+        if (message.getName() == null || message.getLastUpdate() <= 0) {
+            return false;
+        }
+
+        long checkpoint = checkpoints.get(message.getName());
+
+        if (message.getLastUpdate() != checkpoint) {
+            return message.getLastUpdate() < checkpoint;
+        }
+
+        synchronized (appliedAtCheckpoint) {
+            Set<String> applied = appliedAtCheckpoint.get(message.getName());
+
+            return applied != null && applied.contains(message.toString());
+        }
     }
 
-    @Override
-    public void onMessage(byte[] data) {
-        //
+    private void advance(Response message) {
+        if (message.getName() == null || message.getLastUpdate() <= 0) {
+            return;
+        }
+
+        synchronized (appliedAtCheckpoint) {
+            long checkpoint = checkpoints.get(message.getName());
+
+            if (message.getLastUpdate() < checkpoint) {
+                return;
+            }
+
+            Set<String> applied = appliedAtCheckpoint.get(message.getName());
+
+            if (applied == null || message.getLastUpdate() > checkpoint) {
+                applied = new HashSet<>();
+                appliedAtCheckpoint.put(message.getName(), applied);
+            }
+
+            applied.add(message.toString());
+            checkpoints.advance(message.getName(), message.getLastUpdate());
+        }
     }
 
     @Override
     public void onDisconnect(int code, String reason) {
         Log.d("WS_SVC", String.format("Disconnected from server. Code: %d, reason: %s", code, reason));
+        topics.onDisconnect();
 
         if (!isShutdown) {
-            startService(startIntent(this));
+            reconnectManager.onDisconnect();
         } else {
             stopSelf();
         }
@@ -187,6 +316,36 @@ public class PushService extends Service implements WebsocketClient.WebsocketLis
     @Override
     public void onError(Exception error) {
         Log.e("WS_SVC", "Error:", error);
-        startService(startIntent(this));
+        reconnectManager.onError(error);
+    }
+
+    /**
+     * The server routes by name: a message belongs to the topic in its name field, and
+     * subscriptions change with "subscribe" and "unsubscribe" actions listing the topics.
+     */
+    private class ResponseTopics implements TopicMultiplexer.Protocol<Response> {
+        @Override
+        public String topicOf(Response message) {
+            return message.getName();
+        }
+
+        @Override
+        public void send(Set<String> subscribe, Set<String> unsubscribe) {
+            if (!subscribe.isEmpty()) {
+                websocketClient.send(getCodec(), newSubscription("subscribe", subscribe));
+            }
+
+            if (!unsubscribe.isEmpty()) {
+                websocketClient.send(getCodec(), newSubscription("unsubscribe", unsubscribe));
+            }
+        }
+
+        private Response newSubscription(String action, Set<String> topics) {
+            Response message = new Response();
+            message.setAction(action);
+            message.setList(new ArrayList<>(topics));
+
+            return message;
+        }
     }
 }
@@ -1,5 +1,6 @@
 package com.fitraditya.example_androidwebsocket;
 
+import com.fitraditya.androidwebsocket.util.GsonCodec;
 import com.google.gson.Gson;
 
 import java.util.ArrayList;
@@ -9,6 +10,19 @@ import java.util.ArrayList;
  */
 
 public class Response {
+    private static final Gson GSON = new Gson();
+
+    /**
+     * Decodes messages from the frame bytes with an adapter looked up once.
+     */
+    public static final GsonCodec<Response> CODEC = new GsonCodec<>(GSON, Response.class);
+
+    /**
+     * The binary format, for servers that agree to {@link ResponseCodec#PROTOCOL}. Reads JSON
+     * text messages too.
+     */
+    public static final ResponseCodec COMPACT_CODEC = new ResponseCodec(CODEC);
+
     private String action;
     private ArrayList<String> list;
     private String name;
@@ -51,11 +65,11 @@ public class Response {
     }
 
     public static Response deserializeList(String json){
-        return new Gson().fromJson(json, Response.class);
+        return GSON.fromJson(json, Response.class);
     }
 
     @Override
     public String toString() {
-        return new Gson().toJson(this);
+        return GSON.toJson(this);
     }
 }
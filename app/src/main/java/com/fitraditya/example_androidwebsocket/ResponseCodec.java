@@ -0,0 +1,78 @@
+package com.fitraditya.example_androidwebsocket;
+
+import com.fitraditya.androidwebsocket.MessageCodec;
+import com.fitraditya.androidwebsocket.util.CompactCodec;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Binary form of {@link Response}, offered as {@link #PROTOCOL}. Tags are part of the wire
+ * format: never reuse or renumber one, add new fields under new tags. An empty list is sent as no
+ * entries and reads back as null.
+ */
+
+public class ResponseCodec extends CompactCodec<Response> {
+    public static final String PROTOCOL = "response.compact.v1";
+    public static final String PROTOCOL_JSON = "response.json";
+
+    private static final int TAG_ACTION = 1;
+    private static final int TAG_NAME = 2;
+    private static final int TAG_LIST = 3;
+    private static final int TAG_LAST_UPDATE = 4;
+
+    public ResponseCodec(MessageCodec<Response> textCodec) {
+        super(textCodec);
+    }
+
+    @Override
+    protected void write(Response message, Output output) {
+        output.writeString(TAG_ACTION, message.getAction());
+        output.writeString(TAG_NAME, message.getName());
+
+        if (message.getList() != null) {
+            for (String item : message.getList()) {
+                output.writeString(TAG_LIST, item);
+            }
+        }
+
+        if (message.getLastUpdate() != 0) {
+            output.writeLong(TAG_LAST_UPDATE, message.getLastUpdate());
+        }
+    }
+
+    @Override
+    protected Response read(Input input) throws IOException {
+        Response message = new Response();
+        ArrayList<String> list = null;
+        int tag;
+
+        while ((tag = input.nextField()) != -1) {
+            switch (tag) {
+                case TAG_ACTION:
+                    message.setAction(input.readString());
+                    break;
+                case TAG_NAME:
+                    message.setName(input.readString());
+                    break;
+                case TAG_LIST:
+                    if (list == null) {
+                        list = new ArrayList<>();
+                    }
+
+                    list.add(input.readString());
+                    break;
+                case TAG_LAST_UPDATE:
+                    message.setLastUpdate(input.readLong());
+                    break;
+                default:
+                    input.skip();
+                    break;
+            }
+        }
+
+        message.setList(list);
+
+        return message;
+    }
+}
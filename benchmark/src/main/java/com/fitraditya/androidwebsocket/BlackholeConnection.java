@@ -0,0 +1,88 @@
+package com.fitraditya.androidwebsocket;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Connection that goes nowhere. Outbound frames and decoded messages are consumed by a JMH
+ * {@link Blackhole}, so the work that produced them cannot be optimised away.
+ */
+
+class BlackholeConnection implements WebsocketConnection, BaseWebsocketClient.WebsocketListener {
+    private final Blackhole blackhole;
+    private final BaseWebsocketClient.WebsocketListener listener;
+
+    BlackholeConnection(Blackhole blackhole) {
+        this(blackhole, null);
+    }
+
+    /**
+     * Hands decoded messages to {@code listener} instead, for benchmarks that measure what a
+     * listener does with them.
+     */
+    BlackholeConnection(Blackhole blackhole, BaseWebsocketClient.WebsocketListener listener) {
+        this.blackhole = blackhole;
+        this.listener = listener;
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public void send(String data) {
+        blackhole.consume(data);
+    }
+
+    @Override
+    public void send(byte[] data) {
+        blackhole.consume(data);
+    }
+
+    @Override
+    public void sendFrame(byte[] frame) {
+        blackhole.consume(frame);
+    }
+
+    @Override
+    public boolean awaitWritable() {
+        return true;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public BaseWebsocketClient.WebsocketListener getListener() {
+        return (listener != null) ? listener : this;
+    }
+
+    @Override
+    public void onConnect() {
+    }
+
+    @Override
+    public void onMessage(String message) {
+        blackhole.consume(message);
+    }
+
+    @Override
+    public void onMessage(byte[] data) {
+        blackhole.consume(data);
+    }
+
+    @Override
+    public void onDisconnect(int code, String reason) {
+        blackhole.consume(code);
+    }
+
+    @Override
+    public void onError(Exception error) {
+        throw new IllegalStateException(error);
+    }
+}
@@ -0,0 +1,182 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.util.GsonCodec;
+import com.fitraditya.androidwebsocket.util.HybiParser;
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link #FRAMES} JSON text frames parsed and decoded into objects shaped like the example app's
+ * Response. {@code fromJson} is the app's old path: the parser builds a String and a new Gson
+ * parses it. {@code cachedFromJson} keeps the String but reuses one Gson. {@code codec} hands the
+ * frame bytes to a {@link GsonCodec} through {@link CodecListener}, with no String in between.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CodecBenchmark {
+    private static final int FRAMES = 16;
+
+    @Param({"4", "64", "1024"})
+    public int items;
+
+    private HybiParser fromJsonParser;
+    private HybiParser cachedParser;
+    private HybiParser codecParser;
+    private ByteBuffer frames;
+
+    public static class Message {
+        String action;
+        ArrayList<String> list;
+        String name;
+        long lastUpdate;
+
+        static Message sample(int items) {
+            Message message = new Message();
+            message.action = "list";
+            message.name = "Süßwaren 東京";
+            message.lastUpdate = 1497000000000L;
+            message.list = new ArrayList<>();
+
+            for (int i = 0; i < items; i++) {
+                message.list.add("member-" + i + "@example.com");
+            }
+
+            return message;
+        }
+    }
+
+    @Setup
+    public void setup(final Blackhole blackhole) throws IOException {
+        fromJsonParser = new HybiParser(new BlackholeConnection(blackhole, new StringListener(blackhole) {
+            @Override
+            public void onMessage(String message) {
+                blackhole.consume(new Gson().fromJson(message, Message.class));
+            }
+        }));
+
+        final Gson gson = new Gson();
+        cachedParser = new HybiParser(new BlackholeConnection(blackhole, new StringListener(blackhole) {
+            @Override
+            public void onMessage(String message) {
+                blackhole.consume(gson.fromJson(message, Message.class));
+            }
+        }));
+
+        codecParser = new HybiParser(new BlackholeConnection(blackhole, new CodecListener<>(new GsonCodec<>(gson, Message.class), new MessageCodec.Listener<Message>() {
+            @Override
+            public void onConnect() {
+            }
+
+            @Override
+            public void onMessage(Message message) {
+                blackhole.consume(message);
+            }
+
+            @Override
+            public void onDisconnect(int code, String reason) {
+            }
+
+            @Override
+            public void onError(Exception error) {
+                throw new IllegalStateException(error);
+            }
+        })));
+        codecParser.setRawMessages(true);
+
+        byte[] payload = gson.toJson(Message.sample(items)).getBytes("UTF-8");
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        for (int i = 0; i < FRAMES; i++) {
+            writeFrame(stream, payload);
+        }
+
+        frames = ByteBuffer.wrap(stream.toByteArray());
+    }
+
+    @Benchmark
+    public void fromJson() throws IOException {
+        frames.clear();
+        fromJsonParser.consume(frames);
+    }
+
+    @Benchmark
+    public void cachedFromJson() throws IOException {
+        frames.clear();
+        cachedParser.consume(frames);
+    }
+
+    @Benchmark
+    public void codec() throws IOException {
+        frames.clear();
+        codecParser.consume(frames);
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, byte[] payload) {
+        out.write(0x81);
+
+        if (payload.length <= 125) {
+            out.write(payload.length);
+        } else if (payload.length <= 65535) {
+            out.write(126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        } else {
+            out.write(127);
+
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >>> shift));
+            }
+        }
+
+        out.write(payload, 0, payload.length);
+    }
+
+    private abstract static class StringListener implements BaseWebsocketClient.WebsocketListener {
+        private final Blackhole blackhole;
+
+        StringListener(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void onConnect() {
+        }
+
+        @Override
+        public void onMessage(byte[] data) {
+            blackhole.consume(data);
+        }
+
+        @Override
+        public void onDisconnect(int code, String reason) {
+        }
+
+        @Override
+        public void onError(Exception error) {
+            throw new IllegalStateException(error);
+        }
+    }
+}
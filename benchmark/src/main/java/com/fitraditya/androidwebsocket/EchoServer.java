@@ -0,0 +1,249 @@
+package com.fitraditya.androidwebsocket;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local stand-in for a push server, to try the client against without one: echoes every data
+ * frame back as it came, answers pings and closes. It selects the first subprotocol the client
+ * offers that is in its own list, so a client can be tried with and without its preferred wire
+ * format. No extensions and no TLS. Subclasses can send their own messages when a connection
+ * opens, before echoing starts.
+ *
+ * <pre>java EchoServer [port] [subprotocol...]</pre>
+ */
+
+public class EchoServer {
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final int OP_CLOSE = 8;
+    private static final int OP_PING = 9;
+    private static final int OP_PONG = 10;
+
+    private final ServerSocket serverSocket;
+    private final List<String> protocols;
+
+    public EchoServer(int port, List<String> protocols) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+        this.protocols = protocols;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 8080;
+        List<String> protocols = Arrays.asList(args).subList(Math.min(1, args.length), args.length);
+        EchoServer server = new EchoServer(port, protocols);
+
+        System.out.println("Echoing on ws://localhost:" + server.getPort() + "/, subprotocols " + protocols);
+        server.run();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting; run() then throws. Open connections are left to end on their own.
+     */
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    public void run() throws IOException {
+        while (true) {
+            final Socket socket = serverSocket.accept();
+
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (EOFException e) {
+                        log(socket.getRemoteSocketAddress() + ": disconnected");
+                    } catch (IOException e) {
+                        log(socket.getRemoteSocketAddress() + ": " + e);
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // Already gone.
+                        }
+                    }
+                }
+            }, "EchoServer-" + socket.getPort()).start();
+        }
+    }
+
+    /**
+     * Called on the connection's thread once the upgrade is answered, with the request headers
+     * keyed by lower-case name. Frames written to {@code out} reach the client before any echo.
+     */
+    protected void onOpen(Map<String, String> headers, OutputStream out) throws IOException {
+        // Only echoes.
+    }
+
+    /**
+     * Reports a connection opening or closing.
+     */
+    protected void log(String line) {
+        System.out.println(line);
+    }
+
+    private void serve(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        OutputStream out = socket.getOutputStream();
+        Map<String, String> headers = new HashMap<>();
+        String key = null;
+        String selected = null;
+        String line;
+
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+
+            if (colon < 0) {
+                continue;
+            }
+
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            headers.put(name.toLowerCase(), value);
+
+            if (name.equalsIgnoreCase("Sec-WebSocket-Key")) {
+                key = value;
+            } else if (name.equalsIgnoreCase("Sec-WebSocket-Protocol") && selected == null) {
+                for (String offered : value.split(",")) {
+                    if (protocols.contains(offered.trim())) {
+                        selected = offered.trim();
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (key == null) {
+            out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n".getBytes("UTF-8"));
+            return;
+        }
+
+        StringBuilder response = new StringBuilder()
+                .append("HTTP/1.1 101 Switching Protocols\r\n")
+                .append("Upgrade: websocket\r\n")
+                .append("Connection: Upgrade\r\n")
+                .append("Sec-WebSocket-Accept: ").append(accept(key)).append("\r\n");
+
+        if (selected != null) {
+            response.append("Sec-WebSocket-Protocol: ").append(selected).append("\r\n");
+        }
+
+        out.write(response.append("\r\n").toString().getBytes("UTF-8"));
+        log(socket.getRemoteSocketAddress() + ": connected, subprotocol " + selected);
+        onOpen(headers, out);
+
+        while (true) {
+            int head = in.readUnsignedByte();
+            int opcode = head & 0x0F;
+            byte[] payload = readPayload(in);
+
+            if (opcode == OP_PING) {
+                writeFrame(out, 0x80 | OP_PONG, payload);
+            } else if (opcode == OP_CLOSE) {
+                writeFrame(out, 0x80 | OP_CLOSE, payload);
+                return;
+            } else if (opcode != OP_PONG) {
+                // FIN and opcode go back unchanged, so fragmented messages echo fragment by fragment.
+                writeFrame(out, head, payload);
+            }
+        }
+    }
+
+    private static byte[] readPayload(DataInputStream in) throws IOException {
+        int second = in.readUnsignedByte();
+        long length = second & 0x7F;
+
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        } else if (length == 127) {
+            length = in.readLong();
+        }
+
+        if (length < 0 || length > Integer.MAX_VALUE - 8) {
+            throw new IOException("Frame too large: " + length);
+        }
+
+        byte[] mask = new byte[4];
+
+        if ((second & 0x80) != 0) {
+            in.readFully(mask);
+        }
+
+        byte[] payload = new byte[(int) length];
+        in.readFully(payload);
+
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] ^= mask[i & 3];
+        }
+
+        return payload;
+    }
+
+    protected static void writeFrame(OutputStream out, int head, byte[] payload) throws IOException {
+        byte[] header;
+
+        if (payload.length <= 125) {
+            header = new byte[] { (byte) head, (byte) payload.length };
+        } else if (payload.length <= 65535) {
+            header = new byte[] { (byte) head, 126, (byte) (payload.length >>> 8), (byte) payload.length };
+        } else {
+            header = new byte[10];
+            header[0] = (byte) head;
+            header[1] = 127;
+
+            for (int i = 0; i < 8; i++) {
+                header[9 - i] = (byte) ((long) payload.length >>> (8 * i));
+            }
+        }
+
+        out.write(header);
+        out.write(payload);
+        out.flush();
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+
+        while ((c = in.read()) != '\n') {
+            if (c == -1) {
+                throw new EOFException("Connection closed during the handshake.");
+            }
+
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+
+        return line.toString();
+    }
+
+    private static String accept(String key) throws IOException {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+
+            return Base64.getEncoder().encodeToString(sha1.digest((key + GUID).getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+}
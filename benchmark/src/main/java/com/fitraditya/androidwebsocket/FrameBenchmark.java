@@ -0,0 +1,74 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.util.FrameEncoder;
+import com.fitraditya.androidwebsocket.util.HybiParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound framing: {@link HybiParser#frame(String)} and {@link HybiParser#frame(byte[])}, which
+ * allocate a new masked frame per message, against the reusable {@link FrameEncoder}.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FrameBenchmark {
+    @Param({"16", "1024", "65536"})
+    public int size;
+
+    private HybiParser parser;
+    private FrameEncoder encoder;
+    private String text;
+    private byte[] binary;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        parser = new HybiParser(new BlackholeConnection(blackhole));
+        encoder = new FrameEncoder(parser.getMaskSource());
+        text = Payloads.text("ascii", size);
+        binary = Payloads.binary(size);
+    }
+
+    @Benchmark
+    public byte[] frameText() {
+        return parser.frame(text);
+    }
+
+    @Benchmark
+    public byte[] frameBinary() {
+        return parser.frame(binary);
+    }
+
+    @Benchmark
+    public int encodeText() {
+        encoder.reset();
+        encoder.encodeText(text);
+
+        return encoder.size();
+    }
+
+    @Benchmark
+    public int encodeBinary() {
+        encoder.reset();
+        encoder.encodeBinary(binary, 0, binary.length);
+
+        return encoder.size();
+    }
+}
@@ -0,0 +1,77 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.util.Masker;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payload masking as done by HybiParser on both directions, with the old byte-at-a-time loop as
+ * the baseline. Masking is its own inverse, so the buffers are reused without resetting.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MaskBenchmark {
+    private static final int KEY = 0x1a2b3c4d;
+
+    @Param({"16", "1024", "65536"})
+    public int size;
+
+    private byte[] array;
+    private byte[] key;
+    private ByteBuffer heap;
+    private ByteBuffer direct;
+
+    @Setup
+    public void setup() {
+        array = Payloads.binary(size);
+        key = new byte[4];
+        Masker.putKey(key, 0, KEY);
+        heap = ByteBuffer.wrap(Payloads.binary(size));
+        direct = ByteBuffer.allocateDirect(size);
+        direct.put(Payloads.binary(size)).clear();
+    }
+
+    @Benchmark
+    public byte[] bytewise() {
+        for (int i = 0; i < array.length; i++) {
+            array[i] = (byte) (array[i] ^ key[i % 4]);
+        }
+
+        return array;
+    }
+
+    @Benchmark
+    public byte[] array() {
+        Masker.mask(array, 0, array.length, KEY, 0);
+
+        return array;
+    }
+
+    @Benchmark
+    public int heapBuffer() {
+        return Masker.mask(heap, 0, size, KEY, 0);
+    }
+
+    @Benchmark
+    public int directBuffer() {
+        return Masker.mask(direct, 0, size, KEY, 0);
+    }
+}
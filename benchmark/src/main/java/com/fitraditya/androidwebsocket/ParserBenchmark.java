@@ -0,0 +1,106 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.util.HybiParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The inbound state machine fed {@link #FRAMES} unmasked server frames per operation, either
+ * through {@link HybiParser#start} from an in-memory stream or pushed with
+ * {@link HybiParser#consume}. {@link #buffered} only changes how start() reads.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParserBenchmark {
+    private static final int FRAMES = 16;
+
+    @Param({"16", "1024", "65536"})
+    public int size;
+
+    @Param({"text", "binary"})
+    public String kind;
+
+    @Param({"true", "false"})
+    public boolean buffered;
+
+    private HybiParser parser;
+    private ByteArrayInputStream input;
+    private ByteBuffer frames;
+
+    @Setup
+    public void setup(Blackhole blackhole) throws IOException {
+        parser = new HybiParser(new BlackholeConnection(blackhole));
+        parser.setBuffered(buffered);
+
+        boolean isText = kind.equals("text");
+        byte[] payload = isText ? Payloads.text("ascii", size).getBytes("UTF-8") : Payloads.binary(size);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        for (int i = 0; i < FRAMES; i++) {
+            writeFrame(stream, isText ? 1 : 2, payload);
+        }
+
+        input = new ByteArrayInputStream(stream.toByteArray());
+        frames = ByteBuffer.wrap(stream.toByteArray());
+    }
+
+    @Benchmark
+    public void start() throws IOException {
+        input.reset();
+
+        try {
+            parser.start(new HybiParser.HappyDataInputStream(input));
+        } catch (EOFException e) {
+            // The byte-at-a-time reader reports the end of the stream this way.
+        }
+    }
+
+    @Benchmark
+    public void consume() throws IOException {
+        frames.clear();
+        parser.consume(frames);
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, int opcode, byte[] payload) {
+        out.write(0x80 | opcode);
+
+        if (payload.length <= 125) {
+            out.write(payload.length);
+        } else if (payload.length <= 65535) {
+            out.write(126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        } else {
+            out.write(127);
+
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >>> shift));
+            }
+        }
+
+        out.write(payload, 0, payload.length);
+    }
+}
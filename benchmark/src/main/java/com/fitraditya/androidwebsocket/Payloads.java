@@ -0,0 +1,46 @@
+package com.fitraditya.androidwebsocket;
+
+import java.util.Random;
+
+/**
+ * Deterministic payloads shared by the benchmarks.
+ */
+
+final class Payloads {
+    private static final String JSON = "{\"id\":12345,\"type\":\"push\",\"body\":\"Hello there\"}";
+    private static final String MULTILINGUAL = "Привет мир, 你好世界, مرحبا, 😀 ";
+
+    private Payloads() {
+    }
+
+    static byte[] binary(int size) {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+
+        return data;
+    }
+
+    /**
+     * Repeats {@code "ascii"} JSON-like text or {@code "multilingual"} text up to {@code size}
+     * UTF-8 bytes, never cutting a character in half.
+     */
+    static String text(String kind, int size) {
+        String unit = kind.equals("multilingual") ? MULTILINGUAL : JSON;
+        StringBuilder text = new StringBuilder(size);
+        int bytes = 0;
+        int i = 0;
+
+        while (true) {
+            int codePoint = unit.codePointAt(i % unit.length());
+            int length = (codePoint < 0x80) ? 1 : (codePoint < 0x800) ? 2 : (codePoint < 0x10000) ? 3 : 4;
+
+            if (bytes + length > size) {
+                return text.toString();
+            }
+
+            text.appendCodePoint(codePoint);
+            bytes += length;
+            i += Character.charCount(codePoint);
+        }
+    }
+}
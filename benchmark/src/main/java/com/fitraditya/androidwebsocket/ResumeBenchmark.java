@@ -0,0 +1,303 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.platform.ThreadScheduler;
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A reconnect's sync against a local stand-in server, with the state of several streams changing
+ * while the client is away. cold forgets its checkpoints before each connect, so the server sends
+ * every stream in full; resume sends them and gets only the updates since. Bytes received per
+ * sync and the size of the resume token are printed at teardown, next to the time per sync.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ResumeBenchmark {
+    @Param({"cold", "resume"})
+    public String mode;
+
+    @Param({"16"})
+    public int streams;
+
+    @Param({"64"})
+    public int items;
+
+    // Updates the server makes between two connects.
+    @Param({"8", "256"})
+    public int updates;
+
+    private final Gson gson = new Gson();
+
+    private SyncServer server;
+    private ThreadScheduler scheduler;
+    private File file;
+    private Checkpoints checkpoints;
+    private URI uri;
+
+    private volatile CountDownLatch synced;
+    private volatile CountDownLatch closed;
+    private long syncs;
+    private long bytesReceived;
+
+    @Setup
+    public void setup() throws IOException {
+        server = new SyncServer(streams, items, updates);
+        startServer();
+
+        scheduler = new ThreadScheduler("resume-benchmark");
+        file = File.createTempFile("resume-benchmark", ".checkpoints");
+        file.delete();
+        checkpoints = new Checkpoints(file, scheduler);
+        uri = URI.create("ws://localhost:" + server.getPort() + "/");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        String token = checkpoints.getToken();
+
+        System.out.println("\n" + mode + ", " + updates + " updates: " + (bytesReceived / Math.max(1, syncs)) + " bytes received per sync, "
+            + ("resume".equals(mode) && token != null ? token.length() : 0) + " byte token");
+
+        server.close();
+        scheduler.shutdown();
+        file.delete();
+    }
+
+    @Benchmark
+    public long sync() throws Exception {
+        if ("cold".equals(mode)) {
+            checkpoints.clear();
+        }
+
+        CountingMetrics metrics = new CountingMetrics();
+        synced = new CountDownLatch(1);
+        closed = new CountDownLatch(1);
+
+        BaseWebsocketClient client = new BaseWebsocketClient(uri, new SyncListener(), null, scheduler, null);
+        client.setCheckpoints(checkpoints);
+        client.setMetrics(metrics);
+        client.connect();
+
+        if (!synced.await(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("No sync from the server.");
+        }
+
+        client.disconnect();
+        closed.await(10, TimeUnit.SECONDS);
+
+        long bytes = metrics.snapshot().getBytesReceived();
+        syncs++;
+        bytesReceived += bytes;
+
+        return bytes;
+    }
+
+    private void startServer() {
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.run();
+                } catch (IOException e) {
+                    // Closed at teardown.
+                }
+            }
+        }, "resume-benchmark-server");
+
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Applies what the server sends, the way an app would: an update at or before its stream's
+     * checkpoint is skipped, anything else is applied and then checkpointed.
+     */
+    private class SyncListener implements BaseWebsocketClient.WebsocketListener {
+        @Override
+        public void onConnect() {
+        }
+
+        @Override
+        public void onMessage(String message) {
+            CodecBenchmark.Message update = gson.fromJson(message, CodecBenchmark.Message.class);
+
+            if ("synced".equals(update.action)) {
+                synced.countDown();
+            } else if (update.lastUpdate > checkpoints.get(update.name)) {
+                checkpoints.advance(update.name, update.lastUpdate);
+            }
+        }
+
+        @Override
+        public void onMessage(byte[] data) {
+        }
+
+        @Override
+        public void onDisconnect(int code, String reason) {
+            closed.countDown();
+        }
+
+        @Override
+        public void onError(Exception error) {
+            closed.countDown();
+        }
+    }
+
+    /**
+     * Keeps every stream's state and its history of updates. Before each sync it makes
+     * {@code updates} random changes, then sends each stream in full, or only the updates after
+     * the position the client's resume token names for it, and ends with a "synced" message.
+     * Only the latest updates of a stream are kept; a position older than those gets the full
+     * state, as a real server's retention would.
+     */
+    private static class SyncServer extends EchoServer {
+        private static final int RETAINED_UPDATES = 1024;
+
+        private final Gson gson = new Gson();
+        private final Random random = new Random(1);
+        private final List<ArrayList<String>> states = new ArrayList<>();
+        private final List<List<CodecBenchmark.Message>> histories = new ArrayList<>();
+        private final long[] lastUpdates;
+        private final long[] retainedFrom;
+        private final int updates;
+        private long sequence;
+
+        SyncServer(int streams, int items, int updates) throws IOException {
+            super(0, Collections.<String>emptyList());
+            this.lastUpdates = new long[streams];
+            this.retainedFrom = new long[streams];
+            this.updates = updates;
+
+            for (int i = 0; i < streams; i++) {
+                ArrayList<String> state = new ArrayList<>();
+
+                for (int j = 0; j < items; j++) {
+                    state.add("member-" + j + "@example.com");
+                }
+
+                states.add(state);
+                histories.add(new ArrayList<CodecBenchmark.Message>());
+                lastUpdates[i] = ++sequence;
+                retainedFrom[i] = sequence;
+            }
+        }
+
+        @Override
+        protected synchronized void onOpen(Map<String, String> headers, OutputStream out) throws IOException {
+            for (int i = 0; i < updates; i++) {
+                update(random.nextInt(states.size()));
+            }
+
+            Map<String, Long> positions = parseToken(headers.get(Checkpoints.HEADER.toLowerCase()));
+
+            for (int i = 0; i < states.size(); i++) {
+                Long position = positions.get(name(i));
+
+                if (position == null || position < retainedFrom[i]) {
+                    send(out, message("state", i, states.get(i), lastUpdates[i]));
+                    continue;
+                }
+
+                List<CodecBenchmark.Message> history = histories.get(i);
+                int first = history.size();
+
+                while (first > 0 && history.get(first - 1).lastUpdate > position) {
+                    first--;
+                }
+
+                for (int j = first; j < history.size(); j++) {
+                    send(out, history.get(j));
+                }
+            }
+
+            send(out, message("synced", -1, null, sequence));
+        }
+
+        @Override
+        protected void log(String line) {
+            // Thousands of connects per run.
+        }
+
+        private void update(int stream) {
+            int index = random.nextInt(states.get(stream).size());
+            String value = "member-" + sequence + "@example.com";
+            states.get(stream).set(index, value);
+
+            ArrayList<String> change = new ArrayList<>();
+            change.add(String.valueOf(index));
+            change.add(value);
+
+            lastUpdates[stream] = ++sequence;
+            List<CodecBenchmark.Message> history = histories.get(stream);
+            history.add(message("update", stream, change, sequence));
+
+            if (history.size() > RETAINED_UPDATES) {
+                retainedFrom[stream] = history.remove(0).lastUpdate;
+            }
+        }
+
+        private void send(OutputStream out, CodecBenchmark.Message message) throws IOException {
+            writeFrame(out, 0x81, gson.toJson(message).getBytes("UTF-8"));
+        }
+
+        private static CodecBenchmark.Message message(String action, int stream, ArrayList<String> list, long lastUpdate) {
+            CodecBenchmark.Message message = new CodecBenchmark.Message();
+            message.action = action;
+            message.name = (stream >= 0) ? name(stream) : null;
+            message.list = (list != null) ? new ArrayList<>(list) : null;
+            message.lastUpdate = lastUpdate;
+
+            return message;
+        }
+
+        private static String name(int stream) {
+            return "room " + stream;
+        }
+
+        private static Map<String, Long> parseToken(String token) throws IOException {
+            Map<String, Long> positions = new HashMap<>();
+
+            if (token == null) {
+                return positions;
+            }
+
+            for (String pair : token.split(",")) {
+                int equals = pair.indexOf('=');
+                positions.put(URLDecoder.decode(pair.substring(0, equals).trim(), "UTF-8"), Long.parseLong(pair.substring(equals + 1).trim()));
+            }
+
+            return positions;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.util.TlsContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * Connect-time TLS cost against a local server, as a reconnect sees it. newContext builds and
+ * initializes an SSLContext per connect, as the client used to; full shares a TlsContext but drops
+ * its sessions first; resumed shares a TlsContext and resumes. The server's self-signed key is
+ * generated with keytool at setup.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TlsBenchmark {
+    private static final String PASSWORD = "benchmark";
+
+    @Param({"TLSv1.2", "TLSv1.3"})
+    public String protocol;
+
+    @Param({"newContext", "full", "resumed"})
+    public String mode;
+
+    private File keyStore;
+    private SSLServerSocket server;
+    private TrustManager[] trustManagers;
+    private TlsContext tlsContext;
+
+    @Setup
+    public void setup() throws Exception {
+        keyStore = createKeyStore();
+
+        KeyStore store = KeyStore.getInstance("JKS");
+        InputStream in = new FileInputStream(keyStore);
+
+        try {
+            store.load(in, PASSWORD.toCharArray());
+        } finally {
+            in.close();
+        }
+
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(store, PASSWORD.toCharArray());
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(store);
+        trustManagers = trust.getTrustManagers();
+
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keys.getKeyManagers(), null, null);
+        server = (SSLServerSocket) serverContext.getServerSocketFactory().createServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        startServer();
+
+        tlsContext = TlsContext.forTrustManagers(trustManagers);
+
+        if ("resumed".equals(mode)) {
+            connect();
+
+            if (!connect()) {
+                throw new IllegalStateException(protocol + " session was not resumed.");
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+        keyStore.delete();
+    }
+
+    @Benchmark
+    public boolean handshake() throws Exception {
+        return connect();
+    }
+
+    private boolean connect() throws Exception {
+        SSLSocket socket;
+
+        if ("newContext".equals(mode)) {
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, trustManagers, null);
+            socket = (SSLSocket) context.getSocketFactory().createSocket("localhost", server.getLocalPort());
+        } else {
+            if ("full".equals(mode)) {
+                tlsContext.invalidate("localhost", server.getLocalPort());
+            }
+
+            socket = (SSLSocket) tlsContext.getSocketFactory().createSocket("localhost", server.getLocalPort());
+        }
+
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setEnabledProtocols(new String[] {protocol});
+
+            long start = System.currentTimeMillis();
+            socket.startHandshake();
+
+            // TLS 1.3 tickets follow the handshake, so read the server's byte to receive them.
+            socket.getInputStream().read();
+
+            return TlsContext.isResumed(socket.getSession(), start);
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void startServer() {
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        serve(server.accept());
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        }, "tls-benchmark-server");
+
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private static void serve(final Socket socket) {
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    socket.setTcpNoDelay(true);
+                    socket.getOutputStream().write(1);
+                    socket.getOutputStream().flush();
+
+                    while (socket.getInputStream().read() != -1) {
+                        // Wait for the client to hang up.
+                    }
+                } catch (IOException ignored) {
+                    // The client closed mid-handshake; nothing to clean up but the socket.
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        });
+
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private static File createKeyStore() throws Exception {
+        File file = File.createTempFile("tls-benchmark", ".jks");
+        file.delete();
+
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "server", "-keyalg", "RSA",
+            "-keysize", "2048", "-dname", "CN=localhost", "-validity", "2", "-storetype", "JKS",
+            "-keystore", file.getPath(), "-storepass", PASSWORD, "-keypass", PASSWORD)
+            .redirectErrorStream(true)
+            .start();
+
+        while (process.getInputStream().read() != -1) {
+            // Drain keytool's output so it cannot block.
+        }
+
+        if (process.waitFor() != 0 || !file.isFile()) {
+            throw new IOException("keytool could not create " + file);
+        }
+
+        return file;
+    }
+}
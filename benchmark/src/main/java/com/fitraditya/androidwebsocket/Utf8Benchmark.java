@@ -0,0 +1,92 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.util.Utf8Decoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text message decoding. The fragmented cases split the message into {@link #FRAGMENT} byte
+ * pieces, comparing the old collect-then-decode path with {@link Utf8Decoder}.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class Utf8Benchmark {
+    private static final int FRAGMENT = 4096;
+
+    @Param({"ascii", "multilingual"})
+    public String kind;
+
+    @Param({"1024", "131072"})
+    public int size;
+
+    private byte[] message;
+    private Utf8Decoder decoder;
+
+    @Setup
+    public void setup() throws UnsupportedEncodingException {
+        message = Payloads.text(kind, size).getBytes("UTF-8");
+        decoder = new Utf8Decoder();
+    }
+
+    @Benchmark
+    public String platform() throws UnsupportedEncodingException {
+        return new String(message, 0, message.length, "UTF-8");
+    }
+
+    @Benchmark
+    public String validateThenPlatform() throws UnsupportedEncodingException {
+        decoder.reset();
+        decoder.validate(message, 0, message.length);
+
+        return new String(message, 0, message.length, "UTF-8");
+    }
+
+    @Benchmark
+    public String decoder() {
+        decoder.reset();
+        decoder.decode(message, 0, message.length);
+
+        return decoder.toString();
+    }
+
+    @Benchmark
+    public String fragmentedPlatform() throws UnsupportedEncodingException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        for (int offset = 0; offset < message.length; offset += FRAGMENT) {
+            buffer.write(message, offset, Math.min(FRAGMENT, message.length - offset));
+        }
+
+        return new String(buffer.toByteArray(), "UTF-8");
+    }
+
+    @Benchmark
+    public String fragmentedDecoder() {
+        decoder.reset();
+
+        for (int offset = 0; offset < message.length; offset += FRAGMENT) {
+            decoder.decode(message, offset, Math.min(FRAGMENT, message.length - offset));
+        }
+
+        return decoder.toString();
+    }
+}
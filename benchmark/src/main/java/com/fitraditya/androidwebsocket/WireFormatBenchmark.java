@@ -0,0 +1,122 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.util.CompactCodec;
+import com.fitraditya.androidwebsocket.util.GsonCodec;
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON against the compact binary format for the same message, encoding to payload bytes and
+ * decoding back. The schema mirrors the example app's ResponseCodec. Both payload sizes are
+ * printed at setup, since the bytes on the wire matter as much as the time.
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class WireFormatBenchmark {
+    @Param({"4", "64", "1024"})
+    public int items;
+
+    private GsonCodec<CodecBenchmark.Message> json;
+    private MessageCodec<CodecBenchmark.Message> compact;
+    private CodecBenchmark.Message message;
+    private byte[] jsonPayload;
+    private byte[] compactPayload;
+
+    @Setup
+    public void setup() {
+        json = new GsonCodec<>(new Gson(), CodecBenchmark.Message.class);
+        compact = new MessageCompactCodec();
+        message = CodecBenchmark.Message.sample(items);
+        jsonPayload = json.encode(message);
+        compactPayload = compact.encode(message);
+
+        System.out.println("\nitems=" + items + ": JSON " + jsonPayload.length + " bytes, compact " + compactPayload.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] jsonEncode() {
+        return json.encode(message);
+    }
+
+    @Benchmark
+    public byte[] compactEncode() {
+        return compact.encode(message);
+    }
+
+    @Benchmark
+    public CodecBenchmark.Message jsonDecode() throws IOException {
+        return json.decode(jsonPayload, 0, jsonPayload.length, true);
+    }
+
+    @Benchmark
+    public CodecBenchmark.Message compactDecode() throws IOException {
+        return compact.decode(compactPayload, 0, compactPayload.length, false);
+    }
+
+    private static class MessageCompactCodec extends CompactCodec<CodecBenchmark.Message> {
+        MessageCompactCodec() {
+            super(null);
+        }
+
+        @Override
+        protected void write(CodecBenchmark.Message message, Output output) {
+            output.writeString(1, message.action);
+            output.writeString(2, message.name);
+
+            for (String item : message.list) {
+                output.writeString(3, item);
+            }
+
+            output.writeLong(4, message.lastUpdate);
+        }
+
+        @Override
+        protected CodecBenchmark.Message read(Input input) throws IOException {
+            CodecBenchmark.Message message = new CodecBenchmark.Message();
+            message.list = new ArrayList<>();
+            int tag;
+
+            while ((tag = input.nextField()) != -1) {
+                switch (tag) {
+                    case 1:
+                        message.action = input.readString();
+                        break;
+                    case 2:
+                        message.name = input.readString();
+                        break;
+                    case 3:
+                        message.list.add(input.readString());
+                        break;
+                    case 4:
+                        message.lastUpdate = input.readLong();
+                        break;
+                    default:
+                        input.skip();
+                        break;
+                }
+            }
+
+            return message;
+        }
+    }
+}
@@ -0,0 +1,1040 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.util.HttpResponseParser;
+import com.fitraditya.androidwebsocket.util.FrameEncoder;
+import com.fitraditya.androidwebsocket.util.Handshake;
+import com.fitraditya.androidwebsocket.util.Heartbeat;
+import com.fitraditya.androidwebsocket.util.HybiParser;
+import com.fitraditya.androidwebsocket.util.MessageDispatcher;
+import com.fitraditya.androidwebsocket.util.OutboundJournal;
+import com.fitraditya.androidwebsocket.util.OutboundQueue;
+import com.fitraditya.androidwebsocket.util.CachingResolver;
+import com.fitraditya.androidwebsocket.util.PerMessageDeflate;
+import com.fitraditya.androidwebsocket.util.Resolver;
+import com.fitraditya.androidwebsocket.util.SocketConnector;
+import com.fitraditya.androidwebsocket.util.SpilledMessage;
+import com.fitraditya.androidwebsocket.util.TlsContext;
+import com.fitraditya.androidwebsocket.platform.Log;
+import com.fitraditya.androidwebsocket.platform.Scheduler;
+import com.fitraditya.androidwebsocket.platform.ThreadScheduler;
+import com.fitraditya.androidwebsocket.platform.WakeLock;
+import com.fitraditya.androidwebsocket.platform.WakeLockCoordinator;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+
+/**
+ * The blocking client without any Android dependency: a reader thread per connection, with writes
+ * and timers on a {@link Scheduler}. Runs as-is on a server JVM; on Android use WebsocketClient,
+ * which plugs in a HandlerThread, a PowerManager wake lock and logcat.
+ */
+
+public class BaseWebsocketClient implements WebsocketConnection {
+    private static final int COALESCE_SIZE = 16384;
+    private static final int DEFAULT_FRAGMENT_SIZE = 65536;
+    private static final int WRITABLE_POLL_MILLIS = 1000;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private static final int DEFAULT_HANDSHAKE_TIMEOUT = 10000;
+    private static final int DNS_CACHE_MILLIS = 60000;
+
+    static final Resolver DEFAULT_RESOLVER = new CachingResolver(Resolver.SYSTEM, DNS_CACHE_MILLIS);
+
+    private final Object sendLock = new Object();
+    private final Object frameLock = new Object();
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private static TrustManager[] trustManager;
+
+    private URI uri;
+    private volatile Socket socket;
+    private Thread thread;
+    private Scheduler scheduler;
+    private WakeLockCoordinator wakeLock;
+    private HybiParser hybiParser;
+    private Heartbeat heartbeat;
+    private FrameEncoder frameEncoder;
+    private OutboundQueue outboundQueue = new OutboundQueue();
+    private AtomicBoolean isDrainScheduled = new AtomicBoolean();
+    private WebsocketListener websocketListener;
+    private PerMessageDeflate perMessageDeflate;
+
+    private Map<String, String> extras = new HashMap<>();
+    private volatile int fragmentSize;
+    private volatile boolean isConnected;
+    private volatile boolean hasConnected;
+    private volatile boolean isSessionResumed;
+    private volatile Resolver resolver = DEFAULT_RESOLVER;
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int handshakeTimeout = DEFAULT_HANDSHAKE_TIMEOUT;
+    private volatile long tlsHandshakeMillis;
+    private volatile WebsocketMetrics metrics = WebsocketMetrics.NONE;
+    private volatile String timeoutReason;
+    private volatile MessageDispatcher dispatcher;
+    private volatile String[] protocols;
+    private volatile String protocol;
+    private volatile Checkpoints checkpoints;
+    private volatile OutboundJournal journal;
+    private volatile long journaledSequence = -1;
+
+    // Set when a write took frames off the queue and failed, until the next connection.
+    private volatile boolean isWriteFailed;
+
+    // Guarded by frameLock: whether journaled messages go to the socket too, or only to the journal.
+    private boolean isJournalOpen;
+
+    // Guarded by frameLock: set from the handshake until the replay, while journaled sends from
+    // the connecting thread, which runs onConnect, go out ahead of the backlog. sentAhead holds
+    // their sequences, for the replay to skip.
+    private boolean isReplayPending;
+    private Thread connectThread;
+    private final Set<Long> sentAhead = new HashSet<>();
+
+    public interface WebsocketListener {
+        public void onConnect();
+        public void onMessage(String message);
+        public void onMessage(byte[] data);
+        public void onDisconnect(int code, String reason);
+        public void onError(Exception error);
+    }
+
+    /**
+     * A WebsocketListener that also implements this gets whole messages here, as the bytes
+     * received, instead of through onMessage; text has already been checked to be valid UTF-8.
+     * Suits listeners that decode the bytes themselves, such as {@link CodecListener}. The array
+     * is reused once the call returns.
+     */
+    public interface RawMessageListener {
+        public void onRawMessage(byte[] data, int offset, int length, boolean isText);
+    }
+
+    /**
+     * Receives data messages above the streaming threshold in pieces, in order, on the reader
+     * thread. The array passed to onMessageData is reused once the call returns; text arrives as
+     * raw UTF-8 and pieces may split a character.
+     */
+    public interface StreamListener {
+        public void onMessageStart(boolean isText);
+        public void onMessageData(byte[] data, int offset, int length);
+        public void onMessageEnd();
+    }
+
+    /**
+     * Receives binary messages above the spill threshold as temporary files, on the reader
+     * thread, once each has arrived whole.
+     */
+    public interface SpillListener {
+        public void onMessage(SpilledMessage message);
+    }
+
+    public static void setTrustManagers(TrustManager[] tm) {
+        trustManager = tm;
+    }
+
+    public BaseWebsocketClient(URI uri, WebsocketListener websocketListener, Map<String, String> extras) {
+        this(uri, websocketListener, extras, new ThreadScheduler("ws-thread"), null);
+    }
+
+    /**
+     * Clients may share one {@code scheduler}, which keeps a load generator with thousands of
+     * connections from also running thousands of writer threads. {@code wakeLock} may be null;
+     * otherwise it is held through a {@link WakeLockCoordinator}, once per burst of traffic.
+     */
+    public BaseWebsocketClient(URI uri, WebsocketListener websocketListener, Map<String, String> extras, Scheduler scheduler, WakeLock wakeLock) {
+        this.uri = uri;
+        this.websocketListener = websocketListener;
+        this.extras = extras;
+        this.scheduler = scheduler;
+        this.wakeLock = (wakeLock instanceof WakeLockCoordinator) ? (WakeLockCoordinator) wakeLock
+            : (wakeLock != null) ? new WakeLockCoordinator(wakeLock, scheduler) : null;
+
+        isConnected = false;
+        hybiParser = new HybiParser(this, this.wakeLock);
+        hybiParser.setRawMessages(websocketListener instanceof RawMessageListener);
+        frameEncoder = new FrameEncoder(hybiParser.getMaskSource());
+        heartbeat = new Heartbeat(scheduler, new Heartbeat.Listener() {
+            @Override
+            public void sendPing(byte[] payload) {
+                hybiParser.ping(payload);
+            }
+
+            @Override
+            public void onTimeout(String reason) {
+                Log.d("WS", "Heartbeat timed out: " + reason);
+                timeoutReason = reason;
+                closeSocket();
+            }
+        });
+        hybiParser.setHeartbeat(heartbeat);
+    }
+
+    /**
+     * Starts connecting on a new thread. Does nothing while an earlier connect's thread is still
+     * running, so overlapping calls never open two sockets.
+     */
+    public synchronized void connect() {
+        if (thread != null && thread.isAlive()) {
+            return;
+        }
+
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (wakeLock != null) {
+                        wakeLock.acquire();
+                    }
+
+                    isSessionResumed = false;
+                    tlsHandshakeMillis = 0;
+                    timeoutReason = null;
+                    protocol = null;
+
+                    metrics.onConnectStart(hasConnected);
+                    hasConnected = true;
+
+                    Checkpoints resumeFrom = checkpoints;
+                    Map<String, String> headers = (resumeFrom != null) ? resumeFrom.addTo(extras) : extras;
+                    Handshake handshake = new Handshake(uri, headers, perMessageDeflate, protocols);
+
+                    Socket socket = openSocket(handshake);
+                    BaseWebsocketClient.this.socket = socket;
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(handshakeTimeout);
+
+                    if (socket instanceof SSLSocket) {
+                        startTls((SSLSocket) socket);
+                    }
+
+                    long start = System.nanoTime();
+                    OutputStream out = socket.getOutputStream();
+                    out.write(handshake.getRequest().getBytes("UTF-8"));
+                    out.flush();
+                    start = endPhase(WebsocketMetrics.PHASE_UPGRADE_REQUEST, start);
+
+                    InputStream in = socket.getInputStream();
+                    HttpResponseParser response = new HttpResponseParser();
+                    ByteBuffer received = response.read(in);
+
+                    hybiParser.setDeflate(handshake.validate(response));
+                    protocol = handshake.getProtocol();
+                    socket.setSoTimeout(0);
+                    endPhase(WebsocketMetrics.PHASE_UPGRADE_RESPONSE, start);
+
+                    holdJournal();
+                    getListener().onConnect();
+                    isConnected = true;
+                    replayJournal();
+                    heartbeat.start();
+
+                    if (wakeLock != null) {
+                        wakeLock.release();
+                    }
+
+                    hybiParser.start(new HybiParser.HappyDataInputStream(in), received);
+                } catch (EOFException ex) {
+                    Log.e("WS", "Websocket EOF error:", ex);
+                    getListener().onDisconnect(0, "EOF");
+                    isConnected = false;
+                } catch (SSLException ex) {
+                    Log.d("WS", "Websocket SSL error:", ex);
+                    getListener().onDisconnect(0, (timeoutReason != null) ? timeoutReason : "SSL");
+                    isConnected = false;
+                } catch (Exception ex) {
+                    if (timeoutReason != null) {
+                        getListener().onDisconnect(0, timeoutReason);
+                    } else {
+                        getListener().onError(ex);
+                    }
+
+                    isConnected = false;
+                } finally {
+                    // The reader returns normally on EOF too, so this is where every connection ends.
+                    // The socket is closed on ws-thread, behind the drain of a close frame the
+                    // parser may have just queued.
+                    isConnected = false;
+                    final Socket ended = socket;
+
+                    scheduler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            closeSocket(ended);
+                        }
+                    });
+
+                    synchronized (frameLock) {
+                        isJournalOpen = false;
+                        isReplayPending = false;
+                        connectThread = null;
+                        sentAhead.clear();
+                        // Nothing queued on this connection counts as written on the next.
+                        journaledSequence = -1;
+                    }
+
+                    hybiParser.discard();
+
+                    heartbeat.onConnectionLost();
+
+                    if (wakeLock != null) {
+                        wakeLock.releaseAll();
+                    }
+                }
+            }
+        });
+
+        thread.start();
+    }
+
+    public void disconnect() {
+        heartbeat.stop();
+
+        if (socket != null) {
+            scheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    closeSocket();
+                }
+            });
+        }
+    }
+
+    private void closeSocket() {
+        closeSocket(socket);
+    }
+
+    /**
+     * Closes {@code socket}, and forgets it unless a newer connection has replaced it already.
+     */
+    private synchronized void closeSocket(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+
+        if (this.socket == socket) {
+            this.socket = null;
+        }
+
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            Log.e("WS", "Error while disconnecting:", ex);
+            getListener().onError(ex);
+        }
+    }
+
+    public void send(String data) {
+        if (journal != null) {
+            sendJournaled(utf8(data), true);
+            return;
+        }
+
+        // Framing and posting stay together so compressed frames reach the wire in context order.
+        // The fragment size is in bytes, so it is checked against the encoded length.
+        synchronized (frameLock) {
+            if (fragmentSize > 0 && FrameEncoder.utf8Length(data) > fragmentSize) {
+                queueMessage(utf8(data), true);
+            } else {
+                sendFrame(hybiParser.frame(data));
+            }
+        }
+    }
+
+    public void send(byte[] data) {
+        if (journal != null) {
+            sendJournaled(data, false);
+            return;
+        }
+
+        synchronized (frameLock) {
+            queueMessage(data, false);
+        }
+    }
+
+    /**
+     * Sends {@code message} as {@code codec} encodes it, in a text or binary message as the codec
+     * says.
+     */
+    public <T> void send(MessageCodec<T> codec, T message) {
+        byte[] data = codec.encode(message);
+
+        if (journal != null) {
+            sendJournaled(data, codec.isText());
+            return;
+        }
+
+        synchronized (frameLock) {
+            queueMessage(data, codec.isText());
+        }
+    }
+
+    /**
+     * Keeps every message sent through send(String), send(byte[]) and send(MessageCodec, Object)
+     * in {@code journal} until it has been written to the socket. While disconnected they only go
+     * to the journal, and after each handshake the journal is replayed in order, behind anything
+     * sent from onConnect, such as resubscribes. That holds for sends made inside the callback; a
+     * listener behind a dispatcher runs onConnect later, so its sends queue behind the backlog.
+     * Delivery is at least once: a message written just before the connection dropped may be
+     * sent again. Set it before connecting; null turns it off.
+     *
+     * Streamed, direct-write and sendFrame sends bypass the journal. Any of them still queued
+     * when the connection drops are discarded at the next handshake instead of being sent there.
+     */
+    public void setJournal(OutboundJournal journal) {
+        this.journal = journal;
+    }
+
+    private void sendJournaled(byte[] data, boolean isText) {
+        synchronized (frameLock) {
+            long sequence;
+
+            try {
+                sequence = journal.append(data, isText);
+            } catch (IOException e) {
+                if (!isJournalOpen && !isReplayPending) {
+                    getListener().onError(e);
+                    return;
+                }
+
+                // Full or failing: the message can still go out, just without a copy on disk.
+                Log.e("WS", "Sending without the journal:", e);
+                sequence = -1;
+            }
+
+            // Other threads' sends during the replay window only go to the journal and are replayed
+            // with the backlog, unless the journal could not take them.
+            if (isReplayPending && Thread.currentThread() == connectThread) {
+                // Sent from onConnect: queued now, ahead of the backlog, and skipped by the replay.
+                queueMessage(data, isText);
+
+                if (sequence >= 0) {
+                    sentAhead.add(sequence);
+                }
+            } else if (isJournalOpen || sequence < 0) {
+                queueMessage(data, isText);
+
+                if (sequence >= 0) {
+                    journaledSequence = sequence;
+                    // A drain may already have written the frames without seeing the sequence.
+                    scheduleDrain();
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets journaled sends from onConnect through ahead of the backlog. Frames still queued from
+     * the last connection are dropped first, journaled or not: they were framed for a compression
+     * context, and possibly a fragmented message, that ended with it. The journaled ones are
+     * replayed.
+     */
+    private void holdJournal() {
+        if (journal == null) {
+            return;
+        }
+
+        synchronized (frameLock) {
+            long dropped = outboundQueue.getPendingBytes();
+            outboundQueue.clear();
+
+            if (dropped > 0) {
+                Log.d("WS", "Dropped " + dropped + " bytes queued on the last connection");
+            }
+
+            isReplayPending = true;
+            connectThread = Thread.currentThread();
+            sentAhead.clear();
+            isWriteFailed = false;
+        }
+    }
+
+    /**
+     * Queues the journal's backlog behind what onConnect sent and ahead of anything sent from now
+     * on.
+     */
+    private void replayJournal() {
+        final OutboundJournal journal = this.journal;
+
+        if (journal == null) {
+            return;
+        }
+
+        synchronized (frameLock) {
+            int count = journal.replay(new OutboundJournal.Replay() {
+                @Override
+                public void onRecord(long sequence, byte[] data, boolean isText) {
+                    if (!sentAhead.contains(sequence)) {
+                        queueMessage(data, isText);
+                    }
+
+                    // The onConnect sends are queued ahead, so this covers them too.
+                    journaledSequence = sequence;
+                }
+            });
+
+            if (count > 0) {
+                Log.d("WS", "Replayed " + count + " journaled messages");
+                scheduleDrain();
+            }
+
+            isReplayPending = false;
+            connectThread = null;
+            sentAhead.clear();
+            isJournalOpen = true;
+        }
+    }
+
+    /**
+     * Frames {@code data} as one message, or fragments once it is over the fragment size. Called
+     * with frameLock held.
+     */
+    private void queueMessage(byte[] data, boolean isText) {
+        if (fragmentSize > 0 && data.length > fragmentSize) {
+            hybiParser.sendFragmented(data, isText, fragmentSize);
+        } else {
+            sendFrame(isText ? hybiParser.frameText(data) : hybiParser.frame(data));
+        }
+    }
+
+    /**
+     * Every journaled message queued before {@code sequence} was read has been written; the
+     * journal may let them go. Called with sendLock held, after a successful write or none.
+     *
+     * A message's sequence is published only after its frames are queued, so a drain can write
+     * the frames of a message whose sequence it has not seen, so publishing posts another drain.
+     * Once the queue is empty, everything published has been taken off it, and only by writes
+     * that succeeded unless one failed.
+     */
+    private void acknowledgeJournal(long sequence) {
+        OutboundJournal journal = this.journal;
+
+        if (journal == null) {
+            return;
+        }
+
+        long published = journaledSequence;
+
+        if (outboundQueue.isEmpty() && !isWriteFailed) {
+            sequence = Math.max(sequence, published);
+        }
+
+        if (sequence >= 0) {
+            journal.acknowledge(sequence);
+        }
+    }
+
+    private static byte[] utf8(String data) {
+        try {
+            return data.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sends everything {@code source} yields as one message, one fragment at a time, so a large
+     * upload never sits in memory whole. Blocks while the outbound queue is above its high
+     * watermark; other data messages wait until this one is done, while pings and pongs still go
+     * out between its fragments. Call it from a background thread.
+     */
+    public void send(InputStream source, boolean isText) throws IOException {
+        synchronized (frameLock) {
+            hybiParser.sendFragmented(source, isText, (fragmentSize > 0) ? fragmentSize : DEFAULT_FRAGMENT_SIZE);
+        }
+    }
+
+    /**
+     * Encodes into the connection's reusable frame buffer and writes on the calling thread, so
+     * steady-state sends allocate nothing. Call it from a background thread; the sequence must not
+     * change until this returns. Like the queued sends, it reports a missing or failed connection
+     * through onError.
+     */
+    public void send(CharSequence data) {
+        if (hybiParser.isCompressing()) {
+            send(data.toString());
+            return;
+        }
+
+        synchronized (frameLock) {
+            synchronized (sendLock) {
+                long journaled = journaledSequence;
+
+                try {
+                    OutputStream outputStream = getOutputStream();
+                    coalesce(outputStream);
+                    int start = frameEncoder.size();
+                    frameEncoder.encodeText(data);
+                    metrics.onFrameSent(FrameEncoder.OP_TEXT, frameEncoder.size() - start);
+                    writeEncoded(outputStream);
+                } catch (IllegalStateException e) {
+                    getListener().onError(e);
+                    return;
+                } catch (IOException e) {
+                    isWriteFailed = true;
+                    getListener().onError(e);
+                    return;
+                }
+
+                acknowledgeJournal(journaled);
+            }
+        }
+    }
+
+    /**
+     * Binary counterpart of {@link #send(CharSequence)}. Reads {@code length} bytes from
+     * {@code offset} without moving the buffer's position.
+     */
+    public void send(ByteBuffer data, int offset, int length) {
+        if (hybiParser.isCompressing()) {
+            byte[] copy = new byte[length];
+            ByteBuffer source = data.duplicate();
+            source.position(offset);
+            source.get(copy);
+            send(copy);
+            return;
+        }
+
+        synchronized (frameLock) {
+            synchronized (sendLock) {
+                long journaled = journaledSequence;
+
+                try {
+                    OutputStream outputStream = getOutputStream();
+                    coalesce(outputStream);
+                    int start = frameEncoder.size();
+                    frameEncoder.encodeBinary(data, offset, length);
+                    metrics.onFrameSent(FrameEncoder.OP_BINARY, frameEncoder.size() - start);
+                    writeEncoded(outputStream);
+                } catch (IllegalStateException e) {
+                    getListener().onError(e);
+                    return;
+                } catch (IOException e) {
+                    isWriteFailed = true;
+                    getListener().onError(e);
+                    return;
+                }
+
+                acknowledgeJournal(journaled);
+            }
+        }
+    }
+
+    /**
+     * Queues an encoded frame for the writer. Only one drain is ever posted to ws-thread, however
+     * many frames are queued behind it.
+     */
+    public void sendFrame(byte[] frame) {
+        if (frame == null) {
+            return;
+        }
+
+        outboundQueue.offer(frame);
+        metrics.onQueueDepth(outboundQueue.getPendingBytes());
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (isDrainScheduled.compareAndSet(false, true)) {
+            scheduler.post(drainRunnable);
+        }
+    }
+
+    public boolean awaitWritable() {
+        if (scheduler.inThread()) {
+            return true;
+        }
+
+        try {
+            while (!outboundQueue.awaitWritable(WRITABLE_POLL_MILLIS)) {
+                if (!isConnected) {
+                    return false;
+                }
+            }
+
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void drain() {
+        // Cleared before polling, so a frame queued while draining posts another drain.
+        isDrainScheduled.set(false);
+
+        try {
+            synchronized (sendLock) {
+                if (outboundQueue.isEmpty()) {
+                    // A drain before this one may have written a message before its sequence
+                    // was published.
+                    acknowledgeJournal(-1);
+                    return;
+                }
+
+                if (wakeLock != null) {
+                    wakeLock.acquire();
+                }
+
+                try {
+                    // Read before polling, so it never covers a message queued after the poll.
+                    long journaled = journaledSequence;
+                    OutputStream outputStream = getOutputStream();
+                    coalesce(outputStream);
+                    writeEncoded(outputStream);
+                    acknowledgeJournal(journaled);
+                } finally {
+                    if (wakeLock != null) {
+                        wakeLock.release();
+                    }
+                }
+            }
+        } catch (IllegalStateException e) {
+            outboundQueue.clear();
+            getListener().onError(e);
+        } catch (IOException e) {
+            isWriteFailed = true;
+            getListener().onError(e);
+        }
+    }
+
+    private OutputStream getOutputStream() throws IOException {
+        Socket socket = this.socket;
+
+        if (socket == null) {
+            throw new IllegalStateException("Socket is not connected.");
+        }
+
+        return socket.getOutputStream();
+    }
+
+    /**
+     * Packs every queued frame into the encoder buffer, writing whenever it passes
+     * COALESCE_SIZE. Frames at least that large go to the socket without the copy. Called with
+     * sendLock held; leaves the tail in the encoder for the caller to write.
+     */
+    private void coalesce(OutputStream outputStream) throws IOException {
+        byte[] frame;
+        WebsocketMetrics metrics = this.metrics;
+        frameEncoder.reset();
+
+        while ((frame = outboundQueue.poll()) != null) {
+            metrics.onFrameSent(frame[0] & 15, frame.length);
+
+            if (frameEncoder.size() > 0 && frameEncoder.size() + frame.length > COALESCE_SIZE) {
+                frameEncoder.writeTo(outputStream);
+                frameEncoder.reset();
+            }
+
+            if (frame.length >= COALESCE_SIZE) {
+                outputStream.write(frame);
+            } else {
+                frameEncoder.append(frame);
+            }
+        }
+
+        metrics.onQueueDepth(outboundQueue.getPendingBytes());
+    }
+
+    private void writeEncoded(OutputStream outputStream) throws IOException {
+        if (frameEncoder.size() > 0) {
+            frameEncoder.writeTo(outputStream);
+            frameEncoder.reset();
+        }
+
+        outputStream.flush();
+    }
+
+    /**
+     * Queued bytes above {@code high} make the connection unwritable until the writer drains them
+     * to {@code low} or below.
+     */
+    public void setWriteBufferWatermarks(int low, int high) {
+        outboundQueue.setWatermarks(low, high);
+    }
+
+    /**
+     * Called on the sending thread when the queue passes the high watermark and on ws-thread when
+     * it drains back to the low one.
+     */
+    public void setWritabilityListener(OutboundQueue.WritabilityListener listener) {
+        outboundQueue.setWritabilityListener(listener);
+    }
+
+    /**
+     * Splits text and binary messages longer than {@code size} bytes into fragments of that size.
+     * 0, the default, sends every message as a single frame.
+     */
+    public void setFragmentSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Fragment size must not be negative.");
+        }
+
+        fragmentSize = size;
+    }
+
+    /**
+     * Where host names are looked up on connect. Defaults to the system resolver behind a cache
+     * shared by every client, which keeps answers for a minute.
+     */
+    public void setResolver(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /**
+     * How long connect waits for any of the host's addresses to accept, in milliseconds. 0 leaves
+     * it to the operating system.
+     */
+    public void setConnectTimeout(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Connect timeout must not be negative.");
+        }
+
+        connectTimeout = millis;
+    }
+
+    /**
+     * How long the server may stay silent during the TLS handshake and HTTP upgrade, in
+     * milliseconds. 0 waits forever.
+     */
+    public void setHandshakeTimeout(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Handshake timeout must not be negative.");
+        }
+
+        handshakeTimeout = millis;
+    }
+
+    /**
+     * Where this client reports traffic, queue depth and connect timings. One CountingMetrics may
+     * be shared by many clients; null restores the default, which discards everything.
+     */
+    public void setMetrics(WebsocketMetrics metrics) {
+        this.metrics = (metrics != null) ? metrics : WebsocketMetrics.NONE;
+        hybiParser.setMetrics(metrics);
+
+        MessageDispatcher dispatcher = this.dispatcher;
+
+        if (dispatcher != null) {
+            dispatcher.setMetrics(metrics);
+        }
+    }
+
+    /**
+     * Runs the listener's callbacks on {@code executor} instead of the reader thread, one at a
+     * time and in order, with at most {@code capacity} messages waiting; while the queue is full
+     * the reader stops reading. A null executor delivers on the reader thread again. Set it before
+     * connecting. Stream listener callbacks always stay on the reader thread.
+     */
+    public void setDispatchExecutor(Executor executor, int capacity) {
+        if (executor == null) {
+            dispatcher = null;
+            return;
+        }
+
+        MessageDispatcher dispatcher = new MessageDispatcher(executor, capacity, websocketListener, wakeLock);
+        dispatcher.setMetrics(metrics);
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * The PING/PONG keepalive, off until an interval or read-idle timeout is set. Configure it
+     * before connecting; it also reports the connection's round-trip times. A connection it
+     * declares dead ends with onDisconnect, with the reason it gave.
+     */
+    public Heartbeat getHeartbeat() {
+        return heartbeat;
+    }
+
+    /**
+     * The coordinator around the wake lock passed in, for its grace period and hold time; null
+     * when the client was given none.
+     */
+    public WakeLockCoordinator getWakeLock() {
+        return wakeLock;
+    }
+
+    public boolean isWritable() {
+        return outboundQueue.isWritable();
+    }
+
+    public long getPendingBytes() {
+        return outboundQueue.getPendingBytes();
+    }
+
+    /**
+     * The TLS context shared by every client using the current trust managers. Its session cache
+     * is what lets reconnects resume; size it or invalidate a server's sessions through here.
+     */
+    public static TlsContext getTlsContext() throws NoSuchAlgorithmException, KeyManagementException {
+        return TlsContext.forTrustManagers(trustManager);
+    }
+
+    /**
+     * Resolves the host and races its addresses, then layers TLS over the winner for wss:// URIs.
+     */
+    private Socket openSocket(Handshake handshake) throws Exception {
+        Resolver resolver = this.resolver;
+        Socket plain;
+
+        try {
+            long start = System.nanoTime();
+            InetAddress[] addresses = resolver.resolve(uri.getHost());
+            start = endPhase(WebsocketMetrics.PHASE_DNS, start);
+
+            plain = new SocketConnector(SocketConnector.DEFAULT_ATTEMPT_DELAY).connect(addresses, handshake.getPort(), connectTimeout);
+            endPhase(WebsocketMetrics.PHASE_TCP, start);
+        } catch (IOException e) {
+            if (resolver instanceof CachingResolver) {
+                // None of the cached addresses answered; look the host up again next time.
+                ((CachingResolver) resolver).invalidate(uri.getHost());
+            }
+
+            throw e;
+        }
+
+        if (!handshake.isSecure()) {
+            return plain;
+        }
+
+        return getTlsContext().getSocketFactory().createSocket(plain, uri.getHost(), handshake.getPort(), true);
+    }
+
+    private void startTls(SSLSocket sslSocket) throws IOException {
+        TlsContext.enableSessionTickets(sslSocket);
+
+        long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        sslSocket.startHandshake();
+
+        tlsHandshakeMillis = (endPhase(WebsocketMetrics.PHASE_TLS, startNanos) - startNanos) / 1000000;
+        isSessionResumed = TlsContext.isResumed(sslSocket.getSession(), start);
+    }
+
+    /**
+     * Reports how long {@code phase} took since {@code start} and returns the current time, which
+     * starts the next phase.
+     */
+    private long endPhase(int phase, long start) {
+        long now = System.nanoTime();
+        metrics.onConnectPhase(phase, now - start);
+
+        return now;
+    }
+
+    /**
+     * Offers these subprotocols on the next connect, most preferred first. The server picks at
+     * most one; see {@link #getProtocol()}.
+     */
+    public void setProtocols(String... protocols) {
+        this.protocols = protocols;
+    }
+
+    /**
+     * The subprotocol the server selected for the current connection, or null when it selected
+     * none. Set before onConnect.
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Sends the positions in {@code checkpoints} with every connect from the next one on, so the
+     * server can resume each stream instead of resending it. Pass null to stop.
+     */
+    public void setCheckpoints(Checkpoints checkpoints) {
+        this.checkpoints = checkpoints;
+    }
+
+    /**
+     * Offers permessage-deflate on the next connect. Pass null to stop offering it.
+     */
+    public void setPerMessageDeflate(PerMessageDeflate perMessageDeflate) {
+        this.perMessageDeflate = perMessageDeflate;
+    }
+
+    /**
+     * Buffered reads are on by default; turn them off to fall back to the byte-at-a-time reader.
+     */
+    public void setBufferedReads(boolean buffered) {
+        hybiParser.setBuffered(buffered);
+    }
+
+    /**
+     * Streams messages larger than {@code threshold} bytes to {@code listener} instead of
+     * onMessage, so multi-megabyte payloads never sit in memory whole.
+     */
+    public void setStreamListener(StreamListener listener, int threshold) {
+        hybiParser.setStreamListener(listener, threshold);
+    }
+
+    /**
+     * Writes binary messages larger than {@code threshold} bytes to temporary files in
+     * {@code directory} as they arrive and hands them to {@code listener} instead of onMessage,
+     * so large pushes stay off the heap.
+     */
+    public void setSpillListener(SpillListener listener, File directory, int threshold) {
+        hybiParser.setSpillListener(listener, directory, threshold);
+    }
+
+    /**
+     * The largest frame and message accepted; anything larger closes the connection with 1009.
+     * Defaults to {@link HybiParser#DEFAULT_MAX_FRAME_BYTES} and
+     * {@link HybiParser#DEFAULT_MAX_MESSAGE_BYTES}.
+     */
+    public void setMessageLimits(int maxFrameBytes, long maxMessageBytes) {
+        hybiParser.setLimits(maxFrameBytes, maxMessageBytes);
+    }
+
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    /**
+     * Whether the last connect resumed an earlier TLS session instead of doing a full handshake.
+     * Set before onConnect; always false for ws:// URIs.
+     */
+    public boolean isSessionResumed() {
+        return isSessionResumed;
+    }
+
+    /**
+     * How long the last connect's TLS handshake took, or 0 for ws:// URIs.
+     */
+    public long getTlsHandshakeMillis() {
+        return tlsHandshakeMillis;
+    }
+
+    /**
+     * The listener the connection reports to: the one passed in, or the dispatcher in front of it
+     * once a dispatch executor is set.
+     */
+    public WebsocketListener getListener() {
+        MessageDispatcher dispatcher = this.dispatcher;
+
+        return (dispatcher != null) ? dispatcher : websocketListener;
+    }
+}
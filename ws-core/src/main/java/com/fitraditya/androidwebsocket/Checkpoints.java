@@ -0,0 +1,248 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.platform.Log;
+import com.fitraditya.androidwebsocket.platform.Scheduler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The furthest position applied in each stream, kept across connections and processes so a
+ * reconnect asks the server for what changed since then instead of the full state. A position is
+ * whatever the server orders a stream's updates by, a sequence number or a timestamp, as long as
+ * it grows with every update and is not negative.
+ *
+ * Give the checkpoints to a client and each connect sends them in the {@link #HEADER} request
+ * header, as {@code stream=position} pairs separated by commas with the stream names URL-encoded.
+ * A server that can resume sends the updates after each position; one that cannot sends the full
+ * state, which is always safe to apply. Advance a stream once an update is applied, not when it
+ * arrives, so a crash in between gets the update again rather than losing it.
+ *
+ * Positions are saved to a file at most once per save interval, written to a temporary file and
+ * renamed over the old one. A missing or damaged file starts every stream from scratch.
+ */
+
+public class Checkpoints {
+    private static final String TAG = Checkpoints.class.getSimpleName();
+
+    public static final String HEADER = "X-Resume-Token";
+    public static final long DEFAULT_SAVE_MILLIS = 1000;
+
+    private static final int MAGIC = 0x57435031;
+
+    private final File file;
+    private final Scheduler scheduler;
+    private final Map<String, Long> positions = new LinkedHashMap<>();
+    private final Object saveLock = new Object();
+
+    private final Runnable saveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                save();
+            } catch (IOException e) {
+                Log.e(TAG, "Saving checkpoints failed:", e);
+            }
+        }
+    };
+
+    private long saveMillis = DEFAULT_SAVE_MILLIS;
+    private boolean isSaveScheduled;
+
+    /**
+     * Loads the positions saved in {@code file}. Saves are posted to {@code scheduler}.
+     */
+    public Checkpoints(File file, Scheduler scheduler) {
+        this.file = file;
+        this.scheduler = scheduler;
+
+        load();
+    }
+
+    /**
+     * Longest an advanced position waits to be saved, in milliseconds. Positions not yet saved
+     * when the process dies are resumed from their previous value, which only costs resending.
+     */
+    public synchronized void setSaveMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Save interval must not be negative.");
+        }
+
+        saveMillis = millis;
+    }
+
+    /**
+     * The last position applied in {@code stream}, or -1 when none was. An update before it has
+     * been applied already, and so has one at it when positions are unique per update; timestamps
+     * several updates can share need their own check at the position itself.
+     */
+    public synchronized long get(String stream) {
+        Long position = positions.get(stream);
+
+        return (position != null) ? position : -1;
+    }
+
+    /**
+     * Records that the update at {@code position} in {@code stream} is applied. A position at or
+     * before the current one is ignored, so updates may be applied out of order.
+     */
+    public synchronized void advance(String stream, long position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Position must not be negative.");
+        }
+
+        Long current = positions.get(stream);
+
+        if (current != null && current >= position) {
+            return;
+        }
+
+        positions.put(stream, position);
+        scheduleSave();
+    }
+
+    /**
+     * Forgets every stream, for when the state the positions describe is gone; the next connect
+     * gets the full state.
+     */
+    public synchronized void clear() {
+        positions.clear();
+        scheduleSave();
+    }
+
+    /**
+     * The value of {@link #HEADER}, or null when no stream has a position. Also usable in a
+     * first message for servers that take the token there.
+     */
+    public synchronized String getToken() {
+        if (positions.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder token = new StringBuilder();
+
+        try {
+            for (Map.Entry<String, Long> entry : positions.entrySet()) {
+                if (token.length() > 0) {
+                    token.append(", ");
+                }
+
+                token.append(URLEncoder.encode(entry.getKey(), "UTF-8")).append('=').append(entry.getValue());
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+
+        return token.toString();
+    }
+
+    /**
+     * {@code headers} with the token added, or unchanged when there is none. The caller's map is
+     * never modified.
+     */
+    public Map<String, String> addTo(Map<String, String> headers) {
+        String token = getToken();
+
+        if (token == null) {
+            return headers;
+        }
+
+        Map<String, String> result = (headers != null) ? new LinkedHashMap<>(headers) : new HashMap<String, String>();
+        result.put(HEADER, token);
+
+        return result;
+    }
+
+    /**
+     * Writes the positions to the file now. Call it before the process is expected to end.
+     */
+    public void save() throws IOException {
+        synchronized (saveLock) {
+            Map<String, Long> snapshot;
+
+            synchronized (this) {
+                isSaveScheduled = false;
+                scheduler.cancel(saveRunnable);
+                snapshot = new LinkedHashMap<>(positions);
+            }
+
+            File temporary = new File(file.getPath() + ".tmp");
+            FileOutputStream stream = new FileOutputStream(temporary);
+
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+                out.writeInt(MAGIC);
+                out.writeInt(snapshot.size());
+
+                for (Map.Entry<String, Long> entry : snapshot.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+
+                out.flush();
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+        }
+    }
+
+    private void scheduleSave() {
+        if (isSaveScheduled) {
+            return;
+        }
+
+        isSaveScheduled = true;
+        scheduler.postDelayed(saveRunnable, saveMillis);
+    }
+
+    private void load() {
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a checkpoint file");
+            }
+
+            for (int count = in.readInt(); count > 0; count--) {
+                String stream = in.readUTF();
+                long position = in.readLong();
+
+                if (position >= 0) {
+                    positions.put(stream, position);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // First run: nothing to resume.
+        } catch (IOException e) {
+            Log.e(TAG, "Discarding damaged checkpoints in " + file + ":", e);
+            positions.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Only read from.
+                }
+            }
+        }
+    }
+}
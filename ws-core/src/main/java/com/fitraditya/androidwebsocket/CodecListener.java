@@ -0,0 +1,69 @@
+package com.fitraditya.androidwebsocket;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Connection listener that decodes every message with a {@link MessageCodec} and passes the result
+ * on. The parser hands it the message bytes straight from the frame, so text is never built into a
+ * String first. Decoding runs wherever the callbacks do: on the reader thread by default, or on a
+ * worker pool once the client has a dispatch executor. A message that fails to decode is reported
+ * through onError and the connection carries on.
+ */
+
+public class CodecListener<T> implements BaseWebsocketClient.WebsocketListener, BaseWebsocketClient.RawMessageListener {
+    private final MessageCodec<T> codec;
+    private final MessageCodec.Listener<T> listener;
+
+    public CodecListener(MessageCodec<T> codec, MessageCodec.Listener<T> listener) {
+        this.codec = codec;
+        this.listener = listener;
+    }
+
+    @Override
+    public void onConnect() {
+        listener.onConnect();
+    }
+
+    @Override
+    public void onRawMessage(byte[] data, int offset, int length, boolean isText) {
+        T message;
+
+        try {
+            message = codec.decode(data, offset, length, isText);
+        } catch (IOException e) {
+            listener.onError(e);
+            return;
+        }
+
+        listener.onMessage(message);
+    }
+
+    /**
+     * Only reached when a caller delivers text itself instead of through the parser.
+     */
+    @Override
+    public void onMessage(String message) {
+        try {
+            byte[] data = message.getBytes("UTF-8");
+            onRawMessage(data, 0, data.length, true);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void onMessage(byte[] data) {
+        onRawMessage(data, 0, data.length, false);
+    }
+
+    @Override
+    public void onDisconnect(int code, String reason) {
+        listener.onDisconnect(code, reason);
+    }
+
+    @Override
+    public void onError(Exception error) {
+        listener.onError(error);
+    }
+}
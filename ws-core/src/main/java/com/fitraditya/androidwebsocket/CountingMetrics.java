@@ -0,0 +1,313 @@
+package com.fitraditya.androidwebsocket;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link WebsocketMetrics} that keeps running totals, for one connection or shared by many.
+ * Counters are striped by thread: the reader, the writer and the connect thread each land on their
+ * own cache lines, so they update without contending, and {@link #snapshot()} sums the stripes.
+ * Gauges (queue depth, fragment buffer, dispatch queue) keep the last value reported and the
+ * highest seen.
+ */
+
+public class CountingMetrics implements WebsocketMetrics {
+    private static final int OPCODES = 16;
+    private static final int FRAMES_IN = 0;
+    private static final int BYTES_IN = FRAMES_IN + OPCODES;
+    private static final int FRAMES_OUT = BYTES_IN + OPCODES;
+    private static final int BYTES_OUT = FRAMES_OUT + OPCODES;
+    private static final int CONNECTS = BYTES_OUT + OPCODES;
+    private static final int RECONNECTS = CONNECTS + 1;
+    private static final int PHASE_NANOS = RECONNECTS + 1;
+    private static final int PHASE_TIMES = PHASE_NANOS + PHASE_COUNT;
+    private static final int DISPATCHES = PHASE_TIMES + PHASE_COUNT;
+    private static final int DISPATCH_NANOS = DISPATCHES + 1;
+    private static final int STALLS = DISPATCH_NANOS + 1;
+    private static final int STALL_NANOS = STALLS + 1;
+    private static final int COUNTERS = STALL_NANOS + 1;
+
+    // At least one unused 64-byte line between stripes keeps neighbours off each other's lines.
+    private static final int STRIDE = COUNTERS + 8;
+
+    private final AtomicLongArray counters;
+    private final AtomicLongArray lastPhaseNanos = new AtomicLongArray(PHASE_COUNT);
+    private final AtomicLong maxPendingBytes = new AtomicLong();
+    private final AtomicLong maxFragmentBytes = new AtomicLong();
+    private final AtomicLong maxDispatchNanos = new AtomicLong();
+    private final AtomicLong maxDispatchQueue = new AtomicLong();
+    private final int stripeMask;
+
+    private volatile long pendingBytes;
+    private volatile int fragmentBytes;
+    private volatile int dispatchQueue;
+
+    public CountingMetrics() {
+        int stripes = 2;
+
+        while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 64) {
+            stripes <<= 1;
+        }
+
+        stripeMask = stripes - 1;
+        counters = new AtomicLongArray(stripes * STRIDE);
+    }
+
+    @Override
+    public void onConnectStart(boolean isReconnect) {
+        add(CONNECTS, 1);
+
+        if (isReconnect) {
+            add(RECONNECTS, 1);
+        }
+    }
+
+    @Override
+    public void onConnectPhase(int phase, long nanos) {
+        add(PHASE_NANOS + phase, nanos);
+        add(PHASE_TIMES + phase, 1);
+        lastPhaseNanos.set(phase, nanos);
+    }
+
+    @Override
+    public void onFrameReceived(int opcode, int wireBytes) {
+        int stripe = stripe();
+        counters.getAndIncrement(stripe + FRAMES_IN + opcode);
+        counters.getAndAdd(stripe + BYTES_IN + opcode, wireBytes);
+    }
+
+    @Override
+    public void onFrameSent(int opcode, int wireBytes) {
+        int stripe = stripe();
+        counters.getAndIncrement(stripe + FRAMES_OUT + opcode);
+        counters.getAndAdd(stripe + BYTES_OUT + opcode, wireBytes);
+    }
+
+    @Override
+    public void onQueueDepth(long pendingBytes) {
+        this.pendingBytes = pendingBytes;
+        raise(maxPendingBytes, pendingBytes);
+    }
+
+    @Override
+    public void onFragmentBuffer(int bytes) {
+        fragmentBytes = bytes;
+        raise(maxFragmentBytes, bytes);
+    }
+
+    @Override
+    public void onDispatch(long queuedNanos) {
+        int stripe = stripe();
+        counters.getAndIncrement(stripe + DISPATCHES);
+        counters.getAndAdd(stripe + DISPATCH_NANOS, queuedNanos);
+        raise(maxDispatchNanos, queuedNanos);
+    }
+
+    @Override
+    public void onDispatchQueue(int messages) {
+        dispatchQueue = messages;
+        raise(maxDispatchQueue, messages);
+    }
+
+    @Override
+    public void onReadStalled(long nanos) {
+        int stripe = stripe();
+        counters.getAndIncrement(stripe + STALLS);
+        counters.getAndAdd(stripe + STALL_NANOS, nanos);
+    }
+
+    /**
+     * Sums the stripes into an immutable copy. Counters keep running; each value is exact on its
+     * own, but the snapshot as a whole is not taken atomically.
+     */
+    public Snapshot snapshot() {
+        long[] totals = new long[COUNTERS];
+
+        for (int stripe = 0; stripe <= stripeMask; stripe++) {
+            for (int i = 0; i < COUNTERS; i++) {
+                totals[i] += counters.get(stripe * STRIDE + i);
+            }
+        }
+
+        long[] lastPhases = new long[PHASE_COUNT];
+
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            lastPhases[i] = lastPhaseNanos.get(i);
+        }
+
+        long[] gauges = {
+            pendingBytes, maxPendingBytes.get(), fragmentBytes, maxFragmentBytes.get(),
+            dispatchQueue, maxDispatchQueue.get(), maxDispatchNanos.get()
+        };
+
+        return new Snapshot(totals, lastPhases, gauges);
+    }
+
+    private void add(int counter, long delta) {
+        counters.getAndAdd(stripe() + counter, delta);
+    }
+
+    private int stripe() {
+        long id = Thread.currentThread().getId();
+
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 40 & stripeMask) * STRIDE;
+    }
+
+    private static void raise(AtomicLong max, long value) {
+        long current;
+
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    public static class Snapshot {
+        private final long[] totals;
+        private final long[] lastPhaseNanos;
+        private final long pendingBytes;
+        private final long maxPendingBytes;
+        private final int fragmentBytes;
+        private final long maxFragmentBytes;
+        private final int dispatchQueue;
+        private final long maxDispatchQueue;
+        private final long maxDispatchNanos;
+
+        Snapshot(long[] totals, long[] lastPhaseNanos, long[] gauges) {
+            this.totals = totals;
+            this.lastPhaseNanos = lastPhaseNanos;
+            this.pendingBytes = gauges[0];
+            this.maxPendingBytes = gauges[1];
+            this.fragmentBytes = (int) gauges[2];
+            this.maxFragmentBytes = gauges[3];
+            this.dispatchQueue = (int) gauges[4];
+            this.maxDispatchQueue = gauges[5];
+            this.maxDispatchNanos = gauges[6];
+        }
+
+        public long getFramesReceived(int opcode) {
+            return totals[FRAMES_IN + opcode];
+        }
+
+        public long getBytesReceived(int opcode) {
+            return totals[BYTES_IN + opcode];
+        }
+
+        public long getFramesSent(int opcode) {
+            return totals[FRAMES_OUT + opcode];
+        }
+
+        public long getBytesSent(int opcode) {
+            return totals[BYTES_OUT + opcode];
+        }
+
+        public long getFramesReceived() {
+            return sum(FRAMES_IN);
+        }
+
+        public long getBytesReceived() {
+            return sum(BYTES_IN);
+        }
+
+        public long getFramesSent() {
+            return sum(FRAMES_OUT);
+        }
+
+        public long getBytesSent() {
+            return sum(BYTES_OUT);
+        }
+
+        public long getConnects() {
+            return totals[CONNECTS];
+        }
+
+        public long getReconnects() {
+            return totals[RECONNECTS];
+        }
+
+        /**
+         * How many connects finished {@code phase}, one of the WebsocketMetrics.PHASE_ values.
+         */
+        public long getPhaseCount(int phase) {
+            return totals[PHASE_TIMES + phase];
+        }
+
+        public long getPhaseTotalNanos(int phase) {
+            return totals[PHASE_NANOS + phase];
+        }
+
+        public long getLastPhaseNanos(int phase) {
+            return lastPhaseNanos[phase];
+        }
+
+        public long getPendingBytes() {
+            return pendingBytes;
+        }
+
+        public long getMaxPendingBytes() {
+            return maxPendingBytes;
+        }
+
+        public int getFragmentBufferBytes() {
+            return fragmentBytes;
+        }
+
+        public long getMaxFragmentBufferBytes() {
+            return maxFragmentBytes;
+        }
+
+        public long getDispatches() {
+            return totals[DISPATCHES];
+        }
+
+        /**
+         * Mean time a callback waited in the dispatch queue, or 0 before the first.
+         */
+        public long getMeanDispatchNanos() {
+            return (totals[DISPATCHES] == 0) ? 0 : totals[DISPATCH_NANOS] / totals[DISPATCHES];
+        }
+
+        public long getMaxDispatchNanos() {
+            return maxDispatchNanos;
+        }
+
+        public int getDispatchQueue() {
+            return dispatchQueue;
+        }
+
+        public long getMaxDispatchQueue() {
+            return maxDispatchQueue;
+        }
+
+        /**
+         * How often the reader stopped reading because the dispatch queue was full.
+         */
+        public long getReadStalls() {
+            return totals[STALLS];
+        }
+
+        public long getReadStallNanos() {
+            return totals[STALL_NANOS];
+        }
+
+        private long sum(int base) {
+            long sum = 0;
+
+            for (int i = 0; i < OPCODES; i++) {
+                sum += totals[base + i];
+            }
+
+            return sum;
+        }
+
+        @Override
+        public String toString() {
+            return "in=" + getFramesReceived() + "/" + getBytesReceived() + "B"
+                + " out=" + getFramesSent() + "/" + getBytesSent() + "B"
+                + " pending=" + pendingBytes + "B fragment=" + fragmentBytes + "B"
+                + " dispatch=" + dispatchQueue + " stalls=" + getReadStalls()
+                + " connects=" + getConnects() + " reconnects=" + getReconnects();
+        }
+    }
+}
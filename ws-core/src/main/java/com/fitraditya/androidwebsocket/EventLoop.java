@@ -0,0 +1,177 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.platform.Log;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One selector thread of a {@link WebsocketEngine}. Every channel registered here is read,
+ * written and parsed on this thread only; other threads hand work over through
+ * {@link #execute(Runnable)}. Timeouts run on the same thread through {@link #schedule}.
+ */
+
+class EventLoop implements Runnable {
+    private static final String TAG = EventLoop.class.getSimpleName();
+
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    // Only touched on the loop thread.
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private final Selector selector;
+    private final Thread thread;
+
+    private volatile boolean isRunning = true;
+
+    EventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void shutdown() {
+        isRunning = false;
+        selector.wakeup();
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    void execute(Runnable task) {
+        tasks.offer(task);
+
+        if (!inLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Runs {@code task} on the loop after {@code delayMillis}, unless the returned timer is
+     * cancelled first. Call it on the loop thread.
+     */
+    Timer schedule(Runnable task, long delayMillis) {
+        Timer timer = new Timer(task, System.nanoTime() + delayMillis * 1000000);
+        timers.offer(timer);
+
+        return timer;
+    }
+
+    @Override
+    public void run() {
+        while (isRunning) {
+            try {
+                long wait = nextTimerMillis();
+
+                if (!tasks.isEmpty() || wait == 0) {
+                    selector.selectNow();
+                } else if (wait < 0) {
+                    selector.select();
+                } else {
+                    selector.select(wait);
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (key.isValid()) {
+                        ((NioWebsocketClient) key.attachment()).handle(key);
+                    }
+                }
+
+                Runnable task;
+
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+
+                runTimers();
+            } catch (IOException ex) {
+                Log.e(TAG, "Selector error:", ex);
+            } catch (RuntimeException ex) {
+                Log.e(TAG, "Event loop task failed:", ex);
+            }
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            ((NioWebsocketClient) key.attachment()).close(0, "Shutdown");
+        }
+
+        try {
+            selector.close();
+        } catch (IOException ex) {
+            Log.e(TAG, "Error while closing selector:", ex);
+        }
+    }
+
+    /**
+     * Milliseconds until the next timer is due, rounded up; 0 when one is due now, -1 when there
+     * is none.
+     */
+    private long nextTimerMillis() {
+        while (!timers.isEmpty() && timers.peek().isCancelled) {
+            timers.poll();
+        }
+
+        if (timers.isEmpty()) {
+            return -1;
+        }
+
+        long remaining = timers.peek().deadlineNanos - System.nanoTime();
+
+        return (remaining <= 0) ? 0 : (remaining + 999999) / 1000000;
+    }
+
+    private void runTimers() {
+        long now = System.nanoTime();
+
+        while (!timers.isEmpty() && timers.peek().deadlineNanos - now <= 0) {
+            Timer timer = timers.poll();
+
+            if (!timer.isCancelled) {
+                timer.isCancelled = true;
+                timer.task.run();
+            }
+        }
+    }
+
+    static class Timer implements Comparable<Timer> {
+        private final Runnable task;
+        private final long deadlineNanos;
+        private boolean isCancelled;
+
+        private Timer(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Keeps the task from running if it has not yet. Call it on the loop thread.
+         */
+        void cancel() {
+            isCancelled = true;
+        }
+
+        @Override
+        public int compareTo(Timer other) {
+            long difference = deadlineNanos - other.deadlineNanos;
+
+            return (difference < 0) ? -1 : (difference > 0) ? 1 : 0;
+        }
+    }
+}
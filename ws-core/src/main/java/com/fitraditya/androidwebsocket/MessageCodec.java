@@ -0,0 +1,36 @@
+package com.fitraditya.androidwebsocket;
+
+import java.io.IOException;
+
+/**
+ * Turns messages into application objects and back. Install one through {@link CodecListener},
+ * which hands it each message as the bytes received. Implementations are shared by every
+ * connection using them and may be called from several threads at once.
+ */
+
+public interface MessageCodec<T> {
+    /**
+     * Decodes one whole message. {@code data} is only valid during the call.
+     */
+    public T decode(byte[] data, int offset, int length, boolean isText) throws IOException;
+
+    /**
+     * Encodes {@code message} as the payload of an outgoing message; text codecs return UTF-8.
+     */
+    public byte[] encode(T message);
+
+    /**
+     * Whether encoded messages are sent as text rather than binary.
+     */
+    public boolean isText();
+
+    /**
+     * {@link BaseWebsocketClient.WebsocketListener} with messages already decoded.
+     */
+    public interface Listener<T> {
+        public void onConnect();
+        public void onMessage(T message);
+        public void onDisconnect(int code, String reason);
+        public void onError(Exception error);
+    }
+}
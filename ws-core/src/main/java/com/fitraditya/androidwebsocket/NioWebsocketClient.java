@@ -0,0 +1,918 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.util.CachingResolver;
+import com.fitraditya.androidwebsocket.util.FrameEncoder;
+import com.fitraditya.androidwebsocket.util.Handshake;
+import com.fitraditya.androidwebsocket.util.HttpResponseParser;
+import com.fitraditya.androidwebsocket.util.HybiParser;
+import com.fitraditya.androidwebsocket.util.OutboundQueue;
+import com.fitraditya.androidwebsocket.util.PerMessageDeflate;
+import com.fitraditya.androidwebsocket.util.Resolver;
+import com.fitraditya.androidwebsocket.util.SocketConnector;
+import com.fitraditya.androidwebsocket.util.TlsContext;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+
+
+/**
+ * Non-blocking connection driven by a {@link WebsocketEngine} event loop. Framing goes through
+ * the same {@link HybiParser} as {@link BaseWebsocketClient} and callbacks follow the same
+ * {@link BaseWebsocketClient.WebsocketListener} contract, but they arrive on the loop thread, so
+ * listeners must not block.
+ */
+
+public class NioWebsocketClient implements WebsocketConnection {
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_CONNECTING = 1;
+    private static final int STATE_TLS = 2;
+    private static final int STATE_UPGRADING = 3;
+    private static final int STATE_OPEN = 4;
+    private static final int STATE_CLOSED = 5;
+
+    private static final int BUFFER_SIZE = 16384;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private static final int DEFAULT_FRAGMENT_SIZE = 65536;
+    private static final int WRITABLE_POLL_MILLIS = 1000;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private static final int DEFAULT_HANDSHAKE_TIMEOUT = 10000;
+
+    private final Object frameLock = new Object();
+    private final OutboundQueue outbound = new OutboundQueue();
+    private final AtomicBoolean isFlushScheduled = new AtomicBoolean();
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (Exception ex) {
+                fail(ex);
+            }
+        }
+    };
+
+    private final Runnable attemptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startAttempt();
+        }
+    };
+
+    private final Runnable timeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            timeout();
+        }
+    };
+
+    private WebsocketEngine engine;
+    private EventLoop loop;
+    private URI uri;
+    private Map<String, String> extras;
+    private BaseWebsocketClient.WebsocketListener websocketListener;
+    private PerMessageDeflate perMessageDeflate;
+    private BaseWebsocketClient.StreamListener streamListener;
+    private int streamThreshold;
+    private BaseWebsocketClient.SpillListener spillListener;
+    private File spillDirectory;
+    private int spillThreshold;
+    private int maxFrameBytes = HybiParser.DEFAULT_MAX_FRAME_BYTES;
+    private long maxMessageBytes = HybiParser.DEFAULT_MAX_MESSAGE_BYTES;
+    private volatile String[] protocols;
+    private volatile String protocol;
+    private volatile Checkpoints checkpoints;
+    private volatile int fragmentSize;
+    private volatile int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int handshakeTimeout = DEFAULT_HANDSHAKE_TIMEOUT;
+    private volatile HybiParser hybiParser;
+    private volatile WebsocketMetrics metrics = WebsocketMetrics.NONE;
+
+    private Handshake handshake;
+    private List<InetAddress> addresses;
+    private int nextAddress;
+    private List<SelectionKey> attempts = new ArrayList<>();
+    private IOException attemptError;
+    private EventLoop.Timer attemptTimer;
+    private EventLoop.Timer timeoutTimer;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private SSLEngine sslEngine;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private ByteBuffer request;
+    private ByteBuffer pendingFrame;
+    private HttpResponseParser response;
+    private int state = STATE_IDLE;
+
+    private volatile boolean isConnected;
+    private volatile boolean isSessionResumed;
+    private volatile long tlsHandshakeMillis;
+    private long tlsStartMillis;
+    private long phaseStart;
+    private boolean hasConnected;
+
+    NioWebsocketClient(WebsocketEngine engine, EventLoop loop, URI uri, BaseWebsocketClient.WebsocketListener websocketListener, Map<String, String> extras) {
+        this.engine = engine;
+        this.loop = loop;
+        this.uri = uri;
+        this.websocketListener = websocketListener;
+        this.extras = extras;
+
+        hybiParser = new HybiParser(this);
+    }
+
+    /**
+     * Offers permessage-deflate on the next connect. Pass null to stop offering it.
+     */
+    public void setPerMessageDeflate(PerMessageDeflate perMessageDeflate) {
+        this.perMessageDeflate = perMessageDeflate;
+    }
+
+    /**
+     * See {@link BaseWebsocketClient#setProtocols(String...)}.
+     */
+    public void setProtocols(String... protocols) {
+        this.protocols = protocols;
+    }
+
+    /**
+     * See {@link BaseWebsocketClient#getProtocol()}.
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * See {@link BaseWebsocketClient#setCheckpoints(Checkpoints)}.
+     */
+    public void setCheckpoints(Checkpoints checkpoints) {
+        this.checkpoints = checkpoints;
+    }
+
+    /**
+     * Streams messages larger than {@code threshold} bytes to {@code listener} from the next
+     * connect on; the callbacks run on the loop thread.
+     */
+    public void setStreamListener(BaseWebsocketClient.StreamListener listener, int threshold) {
+        streamListener = listener;
+        streamThreshold = threshold;
+    }
+
+    /**
+     * See {@link BaseWebsocketClient#setSpillListener(BaseWebsocketClient.SpillListener, File, int)};
+     * takes effect from the next connect.
+     */
+    public void setSpillListener(BaseWebsocketClient.SpillListener listener, File directory, int threshold) {
+        spillListener = listener;
+        spillDirectory = directory;
+        spillThreshold = threshold;
+    }
+
+    /**
+     * See {@link BaseWebsocketClient#setMessageLimits(int, long)}; takes effect from the next
+     * connect.
+     */
+    public void setMessageLimits(int maxFrameBytes, long maxMessageBytes) {
+        if (maxFrameBytes <= 0 || maxMessageBytes <= 0) {
+            throw new IllegalArgumentException("Limits must be positive.");
+        }
+
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    /**
+     * See {@link BaseWebsocketClient#setConnectTimeout(int)}. A connect that times out closes with
+     * onDisconnect(0, reason).
+     */
+    public void setConnectTimeout(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Connect timeout must not be negative.");
+        }
+
+        connectTimeout = millis;
+    }
+
+    /**
+     * How long the TLS handshake and HTTP upgrade may take together once TCP is connected, in
+     * milliseconds; 0 waits forever. Running out closes with onDisconnect(0, reason).
+     */
+    public void setHandshakeTimeout(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Handshake timeout must not be negative.");
+        }
+
+        handshakeTimeout = millis;
+    }
+
+    /**
+     * Resolves the host on the calling thread with the engine's resolver, then races its
+     * addresses on the loop the way {@link SocketConnector} does. Does nothing while a connection
+     * is already being opened or is open.
+     */
+    @Override
+    public void connect() {
+        Checkpoints resumeFrom = checkpoints;
+        Map<String, String> headers = (resumeFrom != null) ? resumeFrom.addTo(extras) : extras;
+        final Handshake handshake = new Handshake(uri, headers, perMessageDeflate, protocols);
+        final List<InetAddress> addresses;
+        final long dnsNanos;
+
+        try {
+            long start = System.nanoTime();
+            InetAddress[] resolved = engine.getResolver().resolve(uri.getHost());
+            dnsNanos = System.nanoTime() - start;
+
+            if (resolved.length == 0) {
+                throw new UnknownHostException(uri.getHost());
+            }
+
+            addresses = SocketConnector.interleave(resolved);
+        } catch (UnknownHostException ex) {
+            websocketListener.onError(ex);
+            return;
+        }
+
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                open(handshake, addresses, dnsNanos);
+            }
+        });
+    }
+
+    @Override
+    public void disconnect() {
+        loop.execute(new Runnable() {
+            @Override
+            public void run() {
+                close(0, "Closed");
+            }
+        });
+    }
+
+    @Override
+    public void send(String data) {
+        // Framing and queueing stay together so compressed frames reach the wire in context order.
+        synchronized (frameLock) {
+            if (fragmentSize > 0 && FrameEncoder.utf8Length(data) > fragmentSize) {
+                hybiParser.sendFragmented(data, fragmentSize);
+            } else {
+                sendFrame(hybiParser.frame(data));
+            }
+        }
+    }
+
+    @Override
+    public void send(byte[] data) {
+        synchronized (frameLock) {
+            if (fragmentSize > 0 && data.length > fragmentSize) {
+                hybiParser.sendFragmented(data, fragmentSize);
+            } else {
+                sendFrame(hybiParser.frame(data));
+            }
+        }
+    }
+
+    /**
+     * See {@link BaseWebsocketClient#send(MessageCodec, Object)}.
+     */
+    public <T> void send(MessageCodec<T> codec, T message) {
+        byte[] data = codec.encode(message);
+
+        synchronized (frameLock) {
+            if (fragmentSize > 0 && data.length > fragmentSize) {
+                hybiParser.sendFragmented(data, codec.isText(), fragmentSize);
+            } else {
+                sendFrame(codec.isText() ? hybiParser.frameText(data) : hybiParser.frame(data));
+            }
+        }
+    }
+
+    /**
+     * Same contract as {@link BaseWebsocketClient#send(InputStream, boolean)}. On the loop thread it
+     * cannot wait for the queue to drain, so every fragment is queued at once.
+     */
+    public void send(InputStream source, boolean isText) throws IOException {
+        synchronized (frameLock) {
+            hybiParser.sendFragmented(source, isText, (fragmentSize > 0) ? fragmentSize : DEFAULT_FRAGMENT_SIZE);
+        }
+    }
+
+    /**
+     * Queues an encoded frame. Frames queued before the upgrade completes go out right after it.
+     */
+    @Override
+    public void sendFrame(byte[] frame) {
+        if (frame == null) {
+            return;
+        }
+
+        outbound.offer(frame);
+        metrics.onQueueDepth(outbound.getPendingBytes());
+
+        if (isFlushScheduled.compareAndSet(false, true)) {
+            loop.execute(flushRunnable);
+        }
+    }
+
+    @Override
+    public boolean awaitWritable() {
+        if (loop.inLoop()) {
+            return true;
+        }
+
+        try {
+            while (!outbound.awaitWritable(WRITABLE_POLL_MILLIS)) {
+                if (!isConnected) {
+                    return false;
+                }
+            }
+
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * See {@link BaseWebsocketClient#setFragmentSize(int)}.
+     */
+    public void setFragmentSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Fragment size must not be negative.");
+        }
+
+        fragmentSize = size;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    /**
+     * See {@link BaseWebsocketClient#isSessionResumed()}. Sessions are cached in the engine's
+     * SSLContext, so every client of one engine can resume from the others.
+     */
+    public boolean isSessionResumed() {
+        return isSessionResumed;
+    }
+
+    /**
+     * See {@link BaseWebsocketClient#setMetrics(WebsocketMetrics)}.
+     */
+    public void setMetrics(WebsocketMetrics metrics) {
+        this.metrics = (metrics != null) ? metrics : WebsocketMetrics.NONE;
+        hybiParser.setMetrics(metrics);
+    }
+
+    public long getTlsHandshakeMillis() {
+        return tlsHandshakeMillis;
+    }
+
+    @Override
+    public BaseWebsocketClient.WebsocketListener getListener() {
+        return websocketListener;
+    }
+
+    private void open(Handshake handshake, List<InetAddress> addresses, long dnsNanos) {
+        if (state != STATE_IDLE && state != STATE_CLOSED) {
+            return;
+        }
+
+        metrics.onConnectStart(hasConnected);
+        metrics.onConnectPhase(WebsocketMetrics.PHASE_DNS, dnsNanos);
+        hasConnected = true;
+        phaseStart = System.nanoTime();
+
+        this.handshake = handshake;
+        protocol = null;
+        hybiParser = new HybiParser(this);
+        hybiParser.setStreamListener(streamListener, streamThreshold);
+        hybiParser.setSpillListener(spillListener, spillDirectory, spillThreshold);
+        hybiParser.setLimits(maxFrameBytes, maxMessageBytes);
+        hybiParser.setRawMessages(websocketListener instanceof BaseWebsocketClient.RawMessageListener);
+        hybiParser.setMetrics(metrics);
+        sslEngine = null;
+        request = null;
+        pendingFrame = null;
+        response = new HttpResponseParser();
+        isSessionResumed = false;
+        tlsHandshakeMillis = 0;
+        channel = null;
+        key = null;
+        this.addresses = addresses;
+        nextAddress = 0;
+        attemptError = null;
+        state = STATE_CONNECTING;
+
+        if (connectTimeout > 0) {
+            timeoutTimer = loop.schedule(timeoutRunnable, connectTimeout);
+        }
+
+        startAttempt();
+    }
+
+    /**
+     * Opens a channel to the next address and gives it {@link SocketConnector#DEFAULT_ATTEMPT_DELAY}
+     * to connect before the one after it starts as well. Addresses that fail right away are
+     * skipped; once every attempt has failed the connect fails with the last error.
+     */
+    private void startAttempt() {
+        if (state != STATE_CONNECTING) {
+            return;
+        }
+
+        while (nextAddress < addresses.size()) {
+            InetSocketAddress address = new InetSocketAddress(addresses.get(nextAddress++), handshake.getPort());
+            SocketChannel attempt = null;
+
+            try {
+                attempt = SocketChannel.open();
+                attempt.configureBlocking(false);
+                attempt.socket().setTcpNoDelay(true);
+
+                if (attempt.connect(address)) {
+                    onAttemptConnected(attempt.register(loop.selector(), SelectionKey.OP_READ, this));
+                    return;
+                }
+
+                attempts.add(attempt.register(loop.selector(), SelectionKey.OP_CONNECT, this));
+
+                if (nextAddress < addresses.size()) {
+                    attemptTimer = loop.schedule(attemptRunnable, SocketConnector.DEFAULT_ATTEMPT_DELAY);
+                }
+
+                return;
+            } catch (IOException ex) {
+                closeQuietly(attempt);
+                attemptError = ex;
+            }
+        }
+
+        if (attempts.isEmpty()) {
+            invalidateAddresses();
+            fail(attemptError);
+        }
+    }
+
+    private void finishAttempt(SelectionKey attempt) {
+        try {
+            if (!((SocketChannel) attempt.channel()).finishConnect()) {
+                return;
+            }
+        } catch (IOException ex) {
+            attempts.remove(attempt);
+            attempt.cancel();
+            closeQuietly(attempt.channel());
+            attemptError = ex;
+
+            // A failed address lets the next one start without waiting out the delay.
+            cancel(attemptTimer);
+            startAttempt();
+            return;
+        }
+
+        attempts.remove(attempt);
+        onAttemptConnected(attempt);
+    }
+
+    /**
+     * Keeps the attempt that connected first and closes the rest.
+     */
+    private void onAttemptConnected(SelectionKey winner) {
+        cancel(attemptTimer);
+        closeAttempts();
+
+        key = winner;
+        channel = (SocketChannel) winner.channel();
+        key.interestOps(SelectionKey.OP_READ);
+
+        cancel(timeoutTimer);
+
+        if (handshakeTimeout > 0) {
+            timeoutTimer = loop.schedule(timeoutRunnable, handshakeTimeout);
+        }
+
+        try {
+            onTcpConnected();
+        } catch (Exception ex) {
+            fail(ex);
+        }
+    }
+
+    private void timeout() {
+        if (state == STATE_CONNECTING) {
+            invalidateAddresses();
+            close(0, "Connect timed out after " + connectTimeout + " ms.");
+        } else if (state == STATE_TLS || state == STATE_UPGRADING) {
+            close(0, "Handshake timed out after " + handshakeTimeout + " ms.");
+        }
+    }
+
+    /**
+     * None of the addresses answered; a caching resolver looks the host up again next time.
+     */
+    private void invalidateAddresses() {
+        Resolver resolver = engine.getResolver();
+
+        if (resolver instanceof CachingResolver) {
+            ((CachingResolver) resolver).invalidate(uri.getHost());
+        }
+    }
+
+    void handle(SelectionKey key) {
+        if (state == STATE_CONNECTING) {
+            if (key.isValid() && key.isConnectable()) {
+                finishAttempt(key);
+            }
+
+            return;
+        }
+
+        try {
+            if (key.isValid() && key.isReadable()) {
+                read();
+            }
+
+            if (key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch (Exception ex) {
+            fail(ex);
+        }
+    }
+
+    private void onTcpConnected() throws Exception {
+        phaseStart = endPhase(WebsocketMetrics.PHASE_TCP, phaseStart);
+
+        if (handshake.isSecure()) {
+            sslEngine = engine.getSSLContext().createSSLEngine(uri.getHost(), handshake.getPort());
+            sslEngine.setUseClientMode(true);
+
+            SSLSession session = sslEngine.getSession();
+            netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+            netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+            appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+
+            state = STATE_TLS;
+            tlsStartMillis = System.currentTimeMillis();
+            sslEngine.beginHandshake();
+            handshakeTls();
+        } else {
+            netIn = ByteBuffer.allocate(BUFFER_SIZE);
+            netOut = ByteBuffer.allocate(BUFFER_SIZE);
+            startUpgrade();
+        }
+    }
+
+    private void startUpgrade() throws Exception {
+        state = STATE_UPGRADING;
+        request = ByteBuffer.wrap(handshake.getRequest().getBytes("UTF-8"));
+        flush();
+    }
+
+    private void handshakeTls() throws Exception {
+        while (state == STATE_TLS) {
+            switch (sslEngine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+                case NEED_WRAP:
+                    if (sslEngine.wrap(EMPTY, netOut).getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new EOFException("TLS session closed.");
+                    }
+
+                    if (!flushNet()) {
+                        return;
+                    }
+
+                    break;
+                case FINISHED:
+                case NOT_HANDSHAKING:
+                    long tlsStartNanos = phaseStart;
+                    phaseStart = endPhase(WebsocketMetrics.PHASE_TLS, tlsStartNanos);
+                    tlsHandshakeMillis = (phaseStart - tlsStartNanos) / 1000000;
+                    isSessionResumed = TlsContext.isResumed(sslEngine.getSession(), tlsStartMillis);
+                    startUpgrade();
+                    return;
+                default:
+                    if (!unwrap()) {
+                        return;
+                    }
+
+                    break;
+            }
+        }
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+
+        while ((task = sslEngine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private void read() throws Exception {
+        int count = channel.read(netIn);
+
+        if (count == -1) {
+            close(0, "EOF");
+            return;
+        }
+
+        if (sslEngine == null) {
+            netIn.flip();
+            receive(netIn);
+            netIn.clear();
+            return;
+        }
+
+        if (state == STATE_TLS) {
+            handshakeTls();
+        }
+
+        while (state != STATE_TLS && state != STATE_CLOSED && unwrap()) {
+            if (sslEngine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runDelegatedTasks();
+            }
+
+            if (sslEngine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                sslEngine.wrap(EMPTY, netOut);
+                flushNet();
+            }
+        }
+    }
+
+    /**
+     * Unwraps one TLS record into appIn and hands its plaintext on. Returns false when more
+     * network data is needed.
+     */
+    private boolean unwrap() throws Exception {
+        netIn.flip();
+        SSLEngineResult result = sslEngine.unwrap(netIn, appIn);
+        netIn.compact();
+
+        switch (result.getStatus()) {
+            case BUFFER_UNDERFLOW:
+                netIn = grow(netIn, sslEngine.getSession().getPacketBufferSize());
+                return false;
+            case BUFFER_OVERFLOW:
+                appIn = grow(appIn, appIn.capacity() + sslEngine.getSession().getApplicationBufferSize());
+                return true;
+            case CLOSED:
+                close(0, "EOF");
+                return false;
+            default:
+                break;
+        }
+
+        if (appIn.position() > 0) {
+            appIn.flip();
+            receive(appIn);
+            appIn.clear();
+        }
+
+        return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        if (buffer.capacity() >= capacity) {
+            return buffer;
+        }
+
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+
+        return grown;
+    }
+
+    private void receive(ByteBuffer data) throws Exception {
+        if (state == STATE_UPGRADING) {
+            if (response.parse(data)) {
+                onUpgradeResponse();
+            }
+        }
+
+        if (state == STATE_OPEN && data.hasRemaining()) {
+            hybiParser.consume(data);
+        }
+    }
+
+    private void onUpgradeResponse() throws Exception {
+        hybiParser.setDeflate(handshake.validate(response));
+        protocol = handshake.getProtocol();
+        state = STATE_OPEN;
+        cancel(timeoutTimer);
+        endPhase(WebsocketMetrics.PHASE_UPGRADE_RESPONSE, phaseStart);
+
+        websocketListener.onConnect();
+        isConnected = true;
+
+        flush();
+    }
+
+    private void flush() throws Exception {
+        isFlushScheduled.set(false);
+
+        if (state < STATE_TLS || state == STATE_CLOSED || !flushNet()) {
+            return;
+        }
+
+        if (state == STATE_TLS) {
+            handshakeTls();
+            return;
+        }
+
+        if (request != null) {
+            if (!write(request)) {
+                return;
+            }
+
+            request = null;
+            phaseStart = endPhase(WebsocketMetrics.PHASE_UPGRADE_REQUEST, phaseStart);
+        }
+
+        if (state == STATE_OPEN) {
+            WebsocketMetrics metrics = this.metrics;
+
+            while (true) {
+                if (pendingFrame == null) {
+                    byte[] frame = outbound.poll();
+
+                    if (frame == null) {
+                        break;
+                    }
+
+                    metrics.onFrameSent(frame[0] & 15, frame.length);
+                    pendingFrame = ByteBuffer.wrap(frame);
+                }
+
+                if (!write(pendingFrame)) {
+                    return;
+                }
+
+                pendingFrame = null;
+            }
+
+            metrics.onQueueDepth(outbound.getPendingBytes());
+        }
+
+        flushNet();
+    }
+
+    /**
+     * Reports how long {@code phase} took since {@code start} and returns the current time.
+     */
+    private long endPhase(int phase, long start) {
+        long now = System.nanoTime();
+        metrics.onConnectPhase(phase, now - start);
+
+        return now;
+    }
+
+    /**
+     * Moves {@code source} into netOut, sealing TLS records on the way. Returns false when the
+     * socket stopped accepting data; OP_WRITE then resumes the flush.
+     */
+    private boolean write(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            if (!netOut.hasRemaining() && !flushNet()) {
+                return false;
+            }
+
+            if (sslEngine != null) {
+                SSLEngineResult result = sslEngine.wrap(source, netOut);
+
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW && !flushNet()) {
+                    return false;
+                } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new EOFException("TLS session closed.");
+                }
+            } else {
+                int limit = source.limit();
+                source.limit(source.position() + Math.min(source.remaining(), netOut.remaining()));
+                netOut.put(source);
+                source.limit(limit);
+            }
+        }
+
+        return true;
+    }
+
+    private boolean flushNet() throws IOException {
+        netOut.flip();
+
+        if (netOut.hasRemaining()) {
+            channel.write(netOut);
+        }
+
+        boolean drained = !netOut.hasRemaining();
+        netOut.compact();
+        key.interestOps(drained ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+
+        return drained;
+    }
+
+    void close(int code, String reason) {
+        if (state == STATE_CLOSED) {
+            return;
+        }
+
+        closeChannel();
+        websocketListener.onDisconnect(code, reason);
+    }
+
+    private void fail(Exception ex) {
+        if (state == STATE_CLOSED) {
+            return;
+        }
+
+        if (ex instanceof HybiParser.ProtocolError) {
+            // The parser queued a close frame with the reason; try to get it out before closing.
+            try {
+                flush();
+            } catch (Exception flushError) {
+                // Closing anyway.
+            }
+        }
+
+        closeChannel();
+
+        if (ex instanceof EOFException) {
+            websocketListener.onDisconnect(0, "EOF");
+        } else if (ex instanceof SSLException) {
+            websocketListener.onDisconnect(0, "SSL");
+        } else {
+            websocketListener.onError(ex);
+        }
+    }
+
+    private void closeChannel() {
+        state = STATE_CLOSED;
+        isConnected = false;
+        hybiParser.discard();
+        outbound.clear();
+        pendingFrame = null;
+        request = null;
+        cancel(attemptTimer);
+        cancel(timeoutTimer);
+        closeAttempts();
+
+        if (key != null) {
+            key.cancel();
+        }
+
+        closeQuietly(channel);
+    }
+
+    private void closeAttempts() {
+        for (SelectionKey attempt : attempts) {
+            attempt.cancel();
+            closeQuietly(attempt.channel());
+        }
+
+        attempts.clear();
+    }
+
+    private static void cancel(EventLoop.Timer timer) {
+        if (timer != null) {
+            timer.cancel();
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            // Already failing; nothing left to report.
+        }
+    }
+}
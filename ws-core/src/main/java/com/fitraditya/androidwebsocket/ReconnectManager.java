@@ -0,0 +1,234 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.platform.Log;
+import com.fitraditya.androidwebsocket.platform.Scheduler;
+import com.fitraditya.androidwebsocket.util.HttpResponseException;
+
+import java.util.Random;
+
+/**
+ * Decides when a connection is opened again. Retries back off exponentially with jitter, so a
+ * fleet of clients dropped by the same server restart spreads its reconnects out instead of
+ * arriving together, and a server's Retry-After is honoured over the backoff. Every trigger is
+ * coalesced: while an attempt is pending or in flight, further triggers do not start another.
+ *
+ * The manager does not see the connection's callbacks itself; forward onConnect, onDisconnect
+ * and onError to it from the listener.
+ */
+
+public class ReconnectManager {
+    private static final String TAG = ReconnectManager.class.getSimpleName();
+
+    /**
+     * Waits a random time between 0 and base * 2^attempt, capped.
+     */
+    public static final int JITTER_FULL = 0;
+
+    /**
+     * Waits a random time between base and three times the previous wait, capped. Spreads clients
+     * about as well as full jitter while growing less abruptly.
+     */
+    public static final int JITTER_DECORRELATED = 1;
+
+    public static final long DEFAULT_BASE_MILLIS = 1000;
+    public static final long DEFAULT_CAP_MILLIS = 300000;
+
+    // A connection that stayed up this long resets the backoff; shorter ones keep growing it.
+    private static final long STABLE_CONNECTION_MILLIS = 60000;
+
+    private static final int STATE_STOPPED = 0;
+    private static final int STATE_WAITING = 1;
+    private static final int STATE_CONNECTING = 2;
+    private static final int STATE_CONNECTED = 3;
+
+    private final WebsocketConnection connection;
+    private final Scheduler scheduler;
+    private final Clock clock;
+    private final Random random;
+
+    private final Runnable connectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            attempt();
+        }
+    };
+
+    private long base = DEFAULT_BASE_MILLIS;
+    private long cap = DEFAULT_CAP_MILLIS;
+    private int jitter = JITTER_FULL;
+
+    private int state = STATE_STOPPED;
+    private int attempts;
+    private long lastDelay;
+    private long nextAttempt;
+    private long serverNotBefore;
+    private long connectedAt;
+
+    /**
+     * Source of the current time in milliseconds; replace it to drive the manager from a test.
+     */
+    public interface Clock {
+        public long now();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long now() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    public ReconnectManager(WebsocketConnection connection, Scheduler scheduler) {
+        this(connection, scheduler, SYSTEM_CLOCK, new Random());
+    }
+
+    public ReconnectManager(WebsocketConnection connection, Scheduler scheduler, Clock clock, Random random) {
+        this.connection = connection;
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.random = random;
+    }
+
+    /**
+     * Retries start at {@code baseMillis} and never wait longer than {@code capMillis}, unless the
+     * server asked for longer. {@code jitter} is JITTER_FULL or JITTER_DECORRELATED.
+     */
+    public synchronized void setBackoff(long baseMillis, long capMillis, int jitter) {
+        if (baseMillis <= 0 || capMillis < baseMillis) {
+            throw new IllegalArgumentException("Backoff must satisfy 0 < base <= cap.");
+        }
+
+        if (jitter != JITTER_FULL && jitter != JITTER_DECORRELATED) {
+            throw new IllegalArgumentException("Unknown jitter: " + jitter);
+        }
+
+        base = baseMillis;
+        cap = capMillis;
+        this.jitter = jitter;
+    }
+
+    /**
+     * Keeps the connection open from now on and connects straight away, cutting short a backoff
+     * wait, unless a connect is already in flight or open or the server asked for a pause that
+     * has not passed yet. Safe to call on every trigger, such as a connectivity broadcast.
+     */
+    public synchronized void start() {
+        if (state == STATE_CONNECTING || state == STATE_CONNECTED) {
+            return;
+        }
+
+        schedule(Math.max(0, serverNotBefore - clock.now()));
+    }
+
+    /**
+     * Stops reconnecting and drops any pending attempt. Call it before a disconnect the user asked
+     * for.
+     */
+    public synchronized void stop() {
+        state = STATE_STOPPED;
+        scheduler.cancel(connectRunnable);
+    }
+
+    public synchronized void onConnect() {
+        if (state == STATE_STOPPED) {
+            return;
+        }
+
+        scheduler.cancel(connectRunnable);
+        state = STATE_CONNECTED;
+        connectedAt = clock.now();
+    }
+
+    /**
+     * The connection closed or the connect failed without an exception.
+     */
+    public synchronized void onDisconnect() {
+        retry(-1);
+    }
+
+    /**
+     * The connection or connect failed. A refusal carrying Retry-After waits at least that long.
+     */
+    public synchronized void onError(Exception error) {
+        long retryAfter = (error instanceof HttpResponseException) ? ((HttpResponseException) error).getRetryAfterMillis() : -1;
+        retry(retryAfter);
+    }
+
+    /**
+     * Failed attempts since the last stable connection.
+     */
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    public synchronized boolean isWaiting() {
+        return state == STATE_WAITING;
+    }
+
+    /**
+     * When the pending attempt runs, by the manager's clock, or -1 when none is pending.
+     */
+    public synchronized long getNextAttemptTime() {
+        return (state == STATE_WAITING) ? nextAttempt : -1;
+    }
+
+    private void retry(long retryAfter) {
+        if (state == STATE_STOPPED || state == STATE_WAITING) {
+            return;
+        }
+
+        long now = clock.now();
+
+        if (state == STATE_CONNECTED && now - connectedAt >= STABLE_CONNECTION_MILLIS) {
+            attempts = 0;
+        }
+
+        long delay = nextDelay();
+        attempts++;
+
+        if (retryAfter >= 0) {
+            serverNotBefore = now + retryAfter;
+            delay = Math.max(delay, retryAfter);
+        }
+
+        Log.d(TAG, "Reconnecting in " + delay + " ms, attempt " + attempts);
+        schedule(delay);
+    }
+
+    private long nextDelay() {
+        long delay;
+
+        if (jitter == JITTER_DECORRELATED) {
+            long previous = (attempts == 0) ? base : lastDelay;
+            long upper = Math.min(cap, Math.max(base, previous * 3));
+            delay = base + (long) (random.nextDouble() * (upper - base));
+        } else {
+            // Shifting further than the leading zeros allow would overflow; the cap applies anyway.
+            long ceiling = (attempts < Long.numberOfLeadingZeros(base) - 1) ? Math.min(cap, base << attempts) : cap;
+            delay = (long) (random.nextDouble() * ceiling);
+        }
+
+        lastDelay = delay;
+
+        return delay;
+    }
+
+    private void schedule(long delay) {
+        scheduler.cancel(connectRunnable);
+        state = STATE_WAITING;
+        nextAttempt = clock.now() + delay;
+        scheduler.postDelayed(connectRunnable, delay);
+    }
+
+    private void attempt() {
+        synchronized (this) {
+            if (state != STATE_WAITING) {
+                return;
+            }
+
+            state = STATE_CONNECTING;
+        }
+
+        connection.connect();
+    }
+}
@@ -0,0 +1,239 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.platform.Log;
+import com.fitraditya.androidwebsocket.platform.Scheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Carries many logical topics over one connection. Listeners subscribe to a topic by name;
+ * changes within the batch window go to the server together, and a topic that is subscribed and
+ * dropped again inside the window is never sent at all. After a reconnect every topic with a
+ * listener is subscribed again in one batch.
+ *
+ * Inbound messages are routed with one map lookup: the {@link Protocol} names a message's topic
+ * once, and a table from topic to listeners, rebuilt whenever a subscription changes, gives the
+ * listeners to call. Routing takes no lock.
+ *
+ * Like {@link ReconnectManager}, the multiplexer does not see the connection's callbacks itself;
+ * forward onConnect, onDisconnect and each decoded message to it from the listener.
+ */
+
+public class TopicMultiplexer<T> {
+    private static final String TAG = TopicMultiplexer.class.getSimpleName();
+
+    public static final long DEFAULT_BATCH_MILLIS = 50;
+
+    private final Protocol<T> protocol;
+    private final Scheduler scheduler;
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private final Map<String, List<Listener<T>>> listeners = new LinkedHashMap<>();
+    private final Set<String> subscribed = new LinkedHashSet<>();
+    // Arrays of Listener<T>; a generic array cannot be created, so they are typed where read.
+    private volatile Map<String, Object[]> routes = Collections.emptyMap();
+
+    private long batchMillis = DEFAULT_BATCH_MILLIS;
+    private boolean isConnected;
+    private boolean isFlushScheduled;
+
+    /**
+     * How topics look on the wire for a particular server.
+     */
+    public interface Protocol<T> {
+        /**
+         * The topic {@code message} belongs to, or null for messages outside any topic.
+         */
+        public String topicOf(T message);
+
+        /**
+         * Sends one batch of subscription changes; either set may be empty, not both.
+         */
+        public void send(Set<String> subscribe, Set<String> unsubscribe);
+    }
+
+    public interface Listener<T> {
+        public void onMessage(String topic, T message);
+    }
+
+    /**
+     * Batches are sent from {@code scheduler}'s thread.
+     */
+    public TopicMultiplexer(Protocol<T> protocol, Scheduler scheduler) {
+        this.protocol = protocol;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * How long changes are collected before they are sent. Zero sends each change on its own.
+     */
+    public synchronized void setBatchMillis(long batchMillis) {
+        if (batchMillis < 0) {
+            throw new IllegalArgumentException("Batch window must not be negative.");
+        }
+
+        this.batchMillis = batchMillis;
+    }
+
+    /**
+     * Starts delivering {@code topic} to {@code listener}. The first listener of a topic
+     * subscribes it on the server.
+     */
+    public synchronized void subscribe(String topic, Listener<T> listener) {
+        List<Listener<T>> topicListeners = listeners.get(topic);
+
+        if (topicListeners == null) {
+            topicListeners = new ArrayList<>();
+            listeners.put(topic, topicListeners);
+            scheduleFlush(batchMillis);
+        }
+
+        topicListeners.add(listener);
+        rebuildRoutes();
+    }
+
+    /**
+     * Stops delivering {@code topic} to {@code listener}. When its last listener leaves, the topic
+     * is unsubscribed on the server.
+     */
+    public synchronized void unsubscribe(String topic, Listener<T> listener) {
+        List<Listener<T>> topicListeners = listeners.get(topic);
+
+        if (topicListeners == null || !topicListeners.remove(listener)) {
+            return;
+        }
+
+        if (topicListeners.isEmpty()) {
+            listeners.remove(topic);
+            scheduleFlush(batchMillis);
+        }
+
+        rebuildRoutes();
+    }
+
+    /**
+     * Topics with at least one listener.
+     */
+    public synchronized Set<String> getTopics() {
+        return new LinkedHashSet<>(listeners.keySet());
+    }
+
+    /**
+     * Hands {@code message} to the listeners of its topic, on the calling thread. Returns false
+     * when it belongs to no topic or its topic has no listeners, so the caller can handle it.
+     */
+    public boolean route(T message) {
+        String topic = protocol.topicOf(message);
+
+        if (topic == null) {
+            return false;
+        }
+
+        Object[] topicListeners = routes.get(topic);
+
+        if (topicListeners == null) {
+            return false;
+        }
+
+        for (Object listener : topicListeners) {
+            @SuppressWarnings("unchecked")
+            Listener<T> typed = (Listener<T>) listener;
+            typed.onMessage(topic, message);
+        }
+
+        return true;
+    }
+
+    /**
+     * The server has forgotten every subscription on a new connection; resend them all at once.
+     */
+    public synchronized void onConnect() {
+        isConnected = true;
+        subscribed.clear();
+        scheduleFlush(0);
+    }
+
+    public synchronized void onDisconnect() {
+        isConnected = false;
+        subscribed.clear();
+        isFlushScheduled = false;
+        scheduler.cancel(flushRunnable);
+    }
+
+    private void scheduleFlush(long delay) {
+        if (!isConnected) {
+            return;
+        }
+
+        if (isFlushScheduled) {
+            if (delay > 0) {
+                return;
+            }
+
+            scheduler.cancel(flushRunnable);
+        }
+
+        isFlushScheduled = true;
+        scheduler.postDelayed(flushRunnable, delay);
+    }
+
+    private void flush() {
+        Set<String> subscribe = new LinkedHashSet<>();
+        Set<String> unsubscribe = new LinkedHashSet<>();
+
+        synchronized (this) {
+            isFlushScheduled = false;
+
+            if (!isConnected) {
+                return;
+            }
+
+            for (String topic : listeners.keySet()) {
+                if (subscribed.add(topic)) {
+                    subscribe.add(topic);
+                }
+            }
+
+            for (String topic : subscribed) {
+                if (!listeners.containsKey(topic)) {
+                    unsubscribe.add(topic);
+                }
+            }
+
+            subscribed.removeAll(unsubscribe);
+        }
+
+        if (subscribe.isEmpty() && unsubscribe.isEmpty()) {
+            return;
+        }
+
+        Log.d(TAG, "Subscribing " + subscribe + ", unsubscribing " + unsubscribe);
+
+        // Outside the lock: sending may wait on the connection. Flushes all run on the scheduler
+        // thread, so batches still go out in order.
+        protocol.send(subscribe, unsubscribe);
+    }
+
+    private void rebuildRoutes() {
+        Map<String, Object[]> table = new HashMap<>(listeners.size() * 2);
+
+        for (Map.Entry<String, List<Listener<T>>> entry : listeners.entrySet()) {
+            table.put(entry.getKey(), entry.getValue().toArray());
+        }
+
+        routes = table;
+    }
+}
@@ -0,0 +1,22 @@
+package com.fitraditya.androidwebsocket;
+
+/**
+ * What HybiParser needs from a connection, implemented by both the blocking
+ * {@link BaseWebsocketClient} and the selector-driven {@link NioWebsocketClient}.
+ */
+
+public interface WebsocketConnection {
+    public void connect();
+    public void disconnect();
+    public void send(String data);
+    public void send(byte[] data);
+    public void sendFrame(byte[] frame);
+
+    /**
+     * Holds a fragmenting sender back while too much is queued. Returns false once the connection
+     * is gone, and true straight away on the thread that does the writing.
+     */
+    public boolean awaitWritable();
+    public boolean isConnected();
+    public BaseWebsocketClient.WebsocketListener getListener();
+}
@@ -0,0 +1,72 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.util.Resolver;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Runs many non-blocking connections on a fixed pool of selector threads, for load generators
+ * and gateways that would otherwise need two threads per {@link BaseWebsocketClient}. Connections
+ * are assigned to loops round-robin and stay there for their whole life.
+ */
+
+public class WebsocketEngine {
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    private volatile SSLContext sslContext;
+    private volatile Resolver resolver = BaseWebsocketClient.DEFAULT_RESOLVER;
+
+    public WebsocketEngine(int threads) throws IOException {
+        loops = new EventLoop[threads];
+
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new EventLoop("ws-loop-" + i);
+            loops[i].start();
+        }
+    }
+
+    public void setSSLContext(SSLContext context) {
+        sslContext = context;
+    }
+
+    /**
+     * See {@link BaseWebsocketClient#setResolver(Resolver)}. Clients race the addresses it returns.
+     */
+    public void setResolver(Resolver resolver) {
+        this.resolver = resolver;
+    }
+
+    Resolver getResolver() {
+        return resolver;
+    }
+
+    SSLContext getSSLContext() throws NoSuchAlgorithmException {
+        if (sslContext == null) {
+            sslContext = SSLContext.getDefault();
+        }
+
+        return sslContext;
+    }
+
+    public NioWebsocketClient newClient(URI uri, BaseWebsocketClient.WebsocketListener websocketListener, Map<String, String> extras) {
+        EventLoop loop = loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+
+        return new NioWebsocketClient(this, loop, uri, websocketListener, extras);
+    }
+
+    /**
+     * Stops every loop. Open connections are closed and see onDisconnect(0, "Shutdown").
+     */
+    public void shutdown() {
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.fitraditya.androidwebsocket;
+
+/**
+ * Receives a connection's counters as they change. Calls come from the reader, writer and connect
+ * threads on the hot path and carry only primitives, so an implementation must be thread-safe and
+ * should neither block nor allocate. {@link CountingMetrics} keeps totals that can be scraped;
+ * {@link #NONE}, the default, drops everything.
+ */
+
+public interface WebsocketMetrics {
+    public static final int PHASE_DNS = 0;
+    public static final int PHASE_TCP = 1;
+    public static final int PHASE_TLS = 2;
+    public static final int PHASE_UPGRADE_REQUEST = 3;
+    public static final int PHASE_UPGRADE_RESPONSE = 4;
+    public static final int PHASE_COUNT = 5;
+
+    public static final WebsocketMetrics NONE = new WebsocketMetrics() {
+        @Override
+        public void onConnectStart(boolean isReconnect) {
+        }
+
+        @Override
+        public void onConnectPhase(int phase, long nanos) {
+        }
+
+        @Override
+        public void onFrameReceived(int opcode, int wireBytes) {
+        }
+
+        @Override
+        public void onFrameSent(int opcode, int wireBytes) {
+        }
+
+        @Override
+        public void onQueueDepth(long pendingBytes) {
+        }
+
+        @Override
+        public void onFragmentBuffer(int bytes) {
+        }
+
+        @Override
+        public void onDispatch(long queuedNanos) {
+        }
+
+        @Override
+        public void onDispatchQueue(int messages) {
+        }
+
+        @Override
+        public void onReadStalled(long nanos) {
+        }
+    };
+
+    /**
+     * A connect began; {@code isReconnect} when the client had tried to connect before.
+     */
+    public void onConnectStart(boolean isReconnect);
+
+    /**
+     * One of the PHASE_ steps of a connect finished after {@code nanos}.
+     */
+    public void onConnectPhase(int phase, long nanos);
+
+    /**
+     * A frame header was read. {@code wireBytes} counts the header, mask and payload as sent.
+     */
+    public void onFrameReceived(int opcode, int wireBytes);
+
+    /**
+     * A frame was handed to the socket, header included.
+     */
+    public void onFrameSent(int opcode, int wireBytes);
+
+    /**
+     * Bytes queued for the writer after a frame was added or written.
+     */
+    public void onQueueDepth(long pendingBytes);
+
+    /**
+     * Bytes held for a fragmented message still in progress; 0 once it is delivered. Compressed
+     * messages count their compressed size.
+     */
+    public void onFragmentBuffer(int bytes);
+
+    /**
+     * A callback left the dispatch queue for the listener after waiting {@code queuedNanos}. Only
+     * reported when callbacks are dispatched to an executor.
+     */
+    public void onDispatch(long queuedNanos);
+
+    /**
+     * Messages waiting in the dispatch queue after one was added or taken.
+     */
+    public void onDispatchQueue(int messages);
+
+    /**
+     * The reader waited {@code nanos} for room in a full dispatch queue instead of reading.
+     */
+    public void onReadStalled(long nanos);
+}
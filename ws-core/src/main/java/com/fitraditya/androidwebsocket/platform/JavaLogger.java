@@ -0,0 +1,26 @@
+package com.fitraditya.androidwebsocket.platform;
+
+import java.util.logging.Level;
+
+/**
+ * Default {@link Logger} on the JVM. Each tag becomes a java.util.logging logger under
+ * com.fitraditya.androidwebsocket; DEBUG maps to FINE and ERROR to SEVERE.
+ */
+
+public class JavaLogger implements Logger {
+    private static final String PREFIX = "com.fitraditya.androidwebsocket.";
+
+    @Override
+    public boolean isLoggable(String tag, int level) {
+        return java.util.logging.Logger.getLogger(PREFIX + tag).isLoggable(toLevel(level));
+    }
+
+    @Override
+    public void log(int level, String tag, String message, Throwable error) {
+        java.util.logging.Logger.getLogger(PREFIX + tag).log(toLevel(level), message, error);
+    }
+
+    private static Level toLevel(int level) {
+        return (level >= Log.ERROR) ? Level.SEVERE : Level.FINE;
+    }
+}
@@ -0,0 +1,37 @@
+package com.fitraditya.androidwebsocket.platform;
+
+/**
+ * Logging facade used throughout the core, shaped like android.util.Log so call sites read the
+ * same on every platform. Lines go to java.util.logging until another {@link Logger} is
+ * installed; the Android module installs one backed by logcat.
+ */
+
+public final class Log {
+    public static final int DEBUG = 3;
+    public static final int ERROR = 6;
+
+    private static volatile Logger logger = new JavaLogger();
+
+    private Log() {
+    }
+
+    public static void setLogger(Logger logger) {
+        Log.logger = logger;
+    }
+
+    public static boolean isLoggable(String tag, int level) {
+        return logger.isLoggable(tag, level);
+    }
+
+    public static void d(String tag, String message) {
+        logger.log(DEBUG, tag, message, null);
+    }
+
+    public static void d(String tag, String message, Throwable error) {
+        logger.log(DEBUG, tag, message, error);
+    }
+
+    public static void e(String tag, String message, Throwable error) {
+        logger.log(ERROR, tag, message, error);
+    }
+}
@@ -0,0 +1,10 @@
+package com.fitraditya.androidwebsocket.platform;
+
+/**
+ * Destination for the library's log lines. Levels follow android.util.Log's priorities.
+ */
+
+public interface Logger {
+    public boolean isLoggable(String tag, int level);
+    public void log(int level, String tag, String message, Throwable error);
+}
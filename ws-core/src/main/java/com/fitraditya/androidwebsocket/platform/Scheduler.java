@@ -0,0 +1,21 @@
+package com.fitraditya.androidwebsocket.platform;
+
+/**
+ * The single thread a client runs its writes and timers on: a HandlerThread on Android, a
+ * {@link ThreadScheduler} on the JVM. One scheduler may be shared by many clients.
+ */
+
+public interface Scheduler {
+    public void post(Runnable task);
+    public void postDelayed(Runnable task, long delayMillis);
+
+    /**
+     * Drops every pending run of {@code task}.
+     */
+    public void cancel(Runnable task);
+
+    /**
+     * Whether the caller is running on the scheduler's thread.
+     */
+    public boolean inThread();
+}
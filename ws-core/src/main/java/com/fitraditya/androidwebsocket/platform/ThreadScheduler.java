@@ -0,0 +1,123 @@
+package com.fitraditya.androidwebsocket.platform;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * {@link Scheduler} for the JVM: one daemon thread running tasks in due-time order, with the same
+ * post/cancel semantics as an Android Handler.
+ */
+
+public class ThreadScheduler implements Scheduler, Runnable {
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private final Thread thread;
+
+    private long sequence;
+    private boolean isShutdown;
+
+    public ThreadScheduler(String name) {
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public synchronized void postDelayed(Runnable task, long delayMillis) {
+        if (isShutdown) {
+            return;
+        }
+
+        tasks.add(new Task(task, now() + Math.max(0, delayMillis), sequence++));
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void cancel(Runnable task) {
+        Iterator<Task> pending = tasks.iterator();
+
+        while (pending.hasNext()) {
+            if (pending.next().runnable == task) {
+                pending.remove();
+            }
+        }
+    }
+
+    @Override
+    public boolean inThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Stops the thread once the task running now, if any, returns. Pending tasks are dropped.
+     */
+    public synchronized void shutdown() {
+        isShutdown = true;
+        tasks.clear();
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            Runnable next;
+
+            synchronized (this) {
+                while (true) {
+                    if (isShutdown) {
+                        return;
+                    }
+
+                    Task head = tasks.peek();
+                    long delay = (head == null) ? 0 : head.when - now();
+
+                    if (head != null && delay <= 0) {
+                        next = tasks.poll().runnable;
+                        break;
+                    }
+
+                    try {
+                        wait(delay);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+
+            try {
+                next.run();
+            } catch (RuntimeException e) {
+                Log.e(thread.getName(), "Scheduled task failed:", e);
+            }
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    private static class Task implements Comparable<Task> {
+        final Runnable runnable;
+        final long when;
+        final long sequence;
+
+        Task(Runnable runnable, long when, long sequence) {
+            this.runnable = runnable;
+            this.when = when;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (when != other.when) {
+                return (when < other.when) ? -1 : 1;
+            }
+
+            return (sequence < other.sequence) ? -1 : ((sequence == other.sequence) ? 0 : 1);
+        }
+    }
+}
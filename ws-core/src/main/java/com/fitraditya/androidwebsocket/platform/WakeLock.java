@@ -0,0 +1,23 @@
+package com.fitraditya.androidwebsocket.platform;
+
+/**
+ * Keeps the device awake while frames are read or written. Reference counted: every acquire is
+ * matched by a release, and releasing a lock that is not held does nothing.
+ */
+
+public interface WakeLock {
+    public void acquire();
+
+    /**
+     * Like acquire, but the platform lets go by itself after {@code timeoutMillis} should the
+     * matching release never come.
+     */
+    public void acquire(long timeoutMillis);
+
+    public void release();
+
+    /**
+     * Drops every outstanding acquisition at once, for when the connection goes away.
+     */
+    public void releaseAll();
+}
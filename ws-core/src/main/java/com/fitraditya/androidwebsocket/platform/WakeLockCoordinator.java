@@ -0,0 +1,193 @@
+package com.fitraditya.androidwebsocket.platform;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds one platform wake lock across a burst of reads and writes instead of taking it per frame.
+ * acquire and release only count activity, without touching the platform lock; the lock is taken
+ * when a burst starts and dropped once nothing has been active for the grace period. It is always
+ * taken with a timeout, refreshed while the burst lasts, so a lost release cannot keep the device
+ * awake for good.
+ */
+
+public class WakeLockCoordinator implements WakeLock {
+    public static final long DEFAULT_GRACE_MILLIS = 2000;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 60000;
+
+    private final WakeLock lock;
+    private final Scheduler scheduler;
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final Runnable checkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            check();
+        }
+    };
+
+    private volatile boolean isHeld;
+    private volatile long idleSince;
+
+    private long grace = DEFAULT_GRACE_MILLIS * 1000000;
+    private long timeout = DEFAULT_TIMEOUT_MILLIS;
+    private long heldSince;
+    private long refreshedAt;
+    private long holdNanos;
+    private int holds;
+
+    public WakeLockCoordinator(WakeLock lock, Scheduler scheduler) {
+        this.lock = lock;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * How long the lock stays held after the last activity ends, to cover the reply that often
+     * follows a write and the next frame of a burst.
+     */
+    public synchronized void setGracePeriod(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Grace period must not be negative.");
+        }
+
+        grace = millis * 1000000;
+    }
+
+    /**
+     * How long the platform keeps the lock if it is never released. Refreshed at half this while
+     * activity continues.
+     */
+    public synchronized void setTimeout(long millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive.");
+        }
+
+        timeout = millis;
+    }
+
+    /**
+     * Marks the start of some activity; takes the platform lock only when it is not already held.
+     */
+    @Override
+    public void acquire() {
+        active.incrementAndGet();
+
+        if (!isHeld) {
+            take();
+        }
+    }
+
+    /**
+     * Activity here always ends through release, so the timeout is the coordinator's own.
+     */
+    @Override
+    public void acquire(long timeoutMillis) {
+        acquire();
+    }
+
+    /**
+     * Marks the end of some activity. The lock outlives it by the grace period.
+     */
+    @Override
+    public void release() {
+        int count;
+
+        do {
+            count = active.get();
+
+            if (count == 0) {
+                return;
+            }
+        } while (!active.compareAndSet(count, count - 1));
+
+        if (count == 1) {
+            idleSince = System.nanoTime();
+        }
+    }
+
+    /**
+     * Ends all activity and drops the platform lock now, for when the connection goes away.
+     */
+    @Override
+    public synchronized void releaseAll() {
+        active.set(0);
+        scheduler.cancel(checkRunnable);
+
+        if (isHeld) {
+            drop(System.nanoTime());
+        }
+    }
+
+    public boolean isHeld() {
+        return isHeld;
+    }
+
+    /**
+     * How often the platform lock was taken, once per burst.
+     */
+    public synchronized int getHoldCount() {
+        return holds;
+    }
+
+    /**
+     * Total time the platform lock was held, including the current hold.
+     */
+    public synchronized long getHoldMillis() {
+        long total = holdNanos;
+
+        if (isHeld) {
+            total += System.nanoTime() - heldSince;
+        }
+
+        return total / 1000000;
+    }
+
+    private synchronized void take() {
+        if (isHeld) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        lock.acquire(timeout);
+        isHeld = true;
+        heldSince = now;
+        refreshedAt = now;
+        idleSince = now;
+        holds++;
+        scheduler.postDelayed(checkRunnable, grace / 1000000);
+    }
+
+    private synchronized void check() {
+        if (!isHeld) {
+            return;
+        }
+
+        long now = System.nanoTime();
+
+        if (active.get() > 0 || now - idleSince < grace) {
+            if (now - refreshedAt >= timeout * 1000000 / 2) {
+                // Every timed hold keeps its own deadline, so taking a second one would not stop
+                // the first from expiring mid-burst. Releasing the old hold cancels its timeout.
+                lock.release();
+                lock.acquire(timeout);
+                refreshedAt = now;
+            }
+
+            long wait = (active.get() > 0) ? grace : grace - (now - idleSince);
+            scheduler.postDelayed(checkRunnable, Math.max(1, wait / 1000000));
+            return;
+        }
+
+        drop(now);
+
+        if (active.get() > 0) {
+            // Activity started while the lock was being dropped and saw it still held.
+            take();
+        }
+    }
+
+    private void drop(long now) {
+        isHeld = false;
+        holdNanos += now - heldSince;
+        lock.release();
+    }
+}
@@ -0,0 +1,38 @@
+package com.fitraditya.androidwebsocket.util;
+
+/**
+ * Standard (RFC 4648) Base64 encoding for the handshake key and its accept value, which keeps the
+ * core free of android.util.Base64 and java.util.Base64 alike.
+ */
+
+public final class Base64 {
+    private static final char[] ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private Base64() {
+    }
+
+    public static String encode(byte[] data) {
+        StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+
+        for (int i = 0; i < data.length; i += 3) {
+            int remaining = data.length - i;
+            int bits = (data[i] & 0xFF) << 16;
+
+            if (remaining > 1) {
+                bits |= (data[i + 1] & 0xFF) << 8;
+            }
+
+            if (remaining > 2) {
+                bits |= data[i + 2] & 0xFF;
+            }
+
+            out.append(ALPHABET[(bits >> 18) & 63]);
+            out.append(ALPHABET[(bits >> 12) & 63]);
+            out.append((remaining > 1) ? ALPHABET[(bits >> 6) & 63] : '=');
+            out.append((remaining > 2) ? ALPHABET[bits & 63] : '=');
+        }
+
+        return out.toString();
+    }
+}
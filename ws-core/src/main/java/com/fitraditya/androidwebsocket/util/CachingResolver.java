@@ -0,0 +1,71 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps each host's answer from another {@link Resolver} for a fixed time, so a burst of
+ * reconnects costs one lookup. Failures are not cached; the next connect asks again.
+ */
+
+public class CachingResolver implements Resolver {
+    private final Resolver delegate;
+    private final long ttlMillis;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    public CachingResolver(Resolver delegate, long ttlMillis) {
+        this.delegate = delegate;
+        this.ttlMillis = ttlMillis;
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        long now = System.nanoTime() / 1000000;
+
+        synchronized (entries) {
+            Entry entry = entries.get(host);
+
+            if (entry != null && now - entry.resolvedAt < ttlMillis) {
+                return entry.addresses.clone();
+            }
+        }
+
+        InetAddress[] addresses = delegate.resolve(host);
+
+        synchronized (entries) {
+            entries.put(host, new Entry(addresses.clone(), now));
+        }
+
+        return addresses;
+    }
+
+    /**
+     * Forgets {@code host}'s answer, for when none of its addresses could be reached.
+     */
+    public void invalidate(String host) {
+        synchronized (entries) {
+            entries.remove(host);
+        }
+    }
+
+    /**
+     * Forgets every cached answer, for example after the device switched networks.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private static class Entry {
+        final InetAddress[] addresses;
+        final long resolvedAt;
+
+        Entry(InetAddress[] addresses, long resolvedAt) {
+            this.addresses = addresses;
+            this.resolvedAt = resolvedAt;
+        }
+    }
+}
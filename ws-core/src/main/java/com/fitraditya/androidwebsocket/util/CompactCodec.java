@@ -0,0 +1,283 @@
+package com.fitraditya.androidwebsocket.util;
+
+import com.fitraditya.androidwebsocket.MessageCodec;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Base for schema-driven binary codecs, sent as binary messages. A message is a sequence of
+ * fields, each a varint key holding the field's tag and type followed by its value: numbers as
+ * zigzag varints, strings and byte arrays as a varint length and the bytes. Field names never go
+ * on the wire, a field left null is simply absent, a list is its field repeated, and a reader
+ * skips tags it does not know, so fields can be added without breaking older readers.
+ *
+ * Subclasses fix the schema by writing and reading their fields by tag. Text messages, such as
+ * JSON from a server that did not agree to the binary format, go to the text codec given, if any.
+ */
+
+public abstract class CompactCodec<T> implements MessageCodec<T> {
+    private static final int TYPE_NUMBER = 0;
+    private static final int TYPE_BYTES = 1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final MessageCodec<T> textCodec;
+
+    /**
+     * {@code textCodec} decodes text messages; null rejects them.
+     */
+    protected CompactCodec(MessageCodec<T> textCodec) {
+        this.textCodec = textCodec;
+    }
+
+    protected abstract void write(T message, Output output);
+
+    protected abstract T read(Input input) throws IOException;
+
+    @Override
+    public T decode(byte[] data, int offset, int length, boolean isText) throws IOException {
+        if (isText) {
+            if (textCodec == null) {
+                throw new IOException("Text message for a binary codec.");
+            }
+
+            return textCodec.decode(data, offset, length, true);
+        }
+
+        return read(new Input(data, offset, length));
+    }
+
+    @Override
+    public byte[] encode(T message) {
+        Output output = new Output();
+        write(message, output);
+
+        return output.toByteArray();
+    }
+
+    @Override
+    public boolean isText() {
+        return false;
+    }
+
+    public static class Output {
+        private byte[] buffer = new byte[64];
+        private int size;
+
+        public void writeLong(int tag, long value) {
+            writeKey(tag, TYPE_NUMBER);
+            writeVarint((value << 1) ^ (value >> 63));
+        }
+
+        /**
+         * Writes nothing for null.
+         */
+        public void writeString(int tag, String value) {
+            if (value == null) {
+                return;
+            }
+
+            writeKey(tag, TYPE_BYTES);
+            writeVarint(utf8Length(value));
+            ensureCapacity(size + value.length() * 3);
+
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+
+                if (c < 0x80) {
+                    buffer[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[size++] = (byte) (0xC0 | (c >> 6));
+                    buffer[size++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                    // Unpaired surrogates have no UTF-8 form; String.getBytes writes '?' as well.
+                    buffer[size++] = '?';
+                } else {
+                    buffer[size++] = (byte) (0xE0 | (c >> 12));
+                    buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+        }
+
+        /**
+         * Writes nothing for null.
+         */
+        public void writeBytes(int tag, byte[] value) {
+            if (value == null) {
+                return;
+            }
+
+            writeKey(tag, TYPE_BYTES);
+            writeVarint(value.length);
+            ensureCapacity(size + value.length);
+            System.arraycopy(value, 0, buffer, size, value.length);
+            size += value.length;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void writeKey(int tag, int type) {
+            if (tag < 1) {
+                throw new IllegalArgumentException("Tags start at 1.");
+            }
+
+            writeVarint(((long) tag << 1) | type);
+        }
+
+        private void writeVarint(long value) {
+            ensureCapacity(size + 10);
+
+            while ((value & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+
+            buffer[size++] = (byte) value;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+            }
+        }
+
+        private static int utf8Length(String value) {
+            int length = 0;
+
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+
+                if (c < 0x80) {
+                    length++;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                    length++;
+                } else {
+                    length += 3;
+                }
+            }
+
+            return length;
+        }
+    }
+
+    public static class Input {
+        private final byte[] data;
+        private final int limit;
+        private int position;
+        private int tag;
+        private int type;
+
+        Input(byte[] data, int offset, int length) {
+            this.data = data;
+            this.position = offset;
+            this.limit = offset + length;
+        }
+
+        /**
+         * Moves to the next field and returns its tag, or -1 at the end of the message. Read or
+         * skip the field's value before calling this again.
+         */
+        public int nextField() throws IOException {
+            if (position == limit) {
+                return -1;
+            }
+
+            long key = readVarint();
+
+            if (key < 2 || key >>> 1 > Integer.MAX_VALUE) {
+                throw new IOException("Invalid field key " + key + ".");
+            }
+
+            tag = (int) (key >>> 1);
+            type = (int) (key & 1);
+
+            return tag;
+        }
+
+        public long readLong() throws IOException {
+            expect(TYPE_NUMBER);
+            long value = readVarint();
+
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        public String readString() throws IOException {
+            int length = readLength();
+            String value = new String(data, position, length, UTF_8);
+            position += length;
+
+            return value;
+        }
+
+        public byte[] readBytes() throws IOException {
+            int length = readLength();
+            byte[] value = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+
+            return value;
+        }
+
+        /**
+         * Passes over the current field, for tags this reader does not know.
+         */
+        public void skip() throws IOException {
+            if (type == TYPE_NUMBER) {
+                readVarint();
+            } else {
+                int length = readLength();
+                position += length;
+            }
+        }
+
+        private int readLength() throws IOException {
+            expect(TYPE_BYTES);
+            long length = readVarint();
+
+            if (length < 0 || length > limit - position) {
+                throw new IOException("Field " + tag + " runs past the end of the message.");
+            }
+
+            return (int) length;
+        }
+
+        private void expect(int expected) throws IOException {
+            if (type != expected) {
+                throw new IOException("Field " + tag + " has the wrong type.");
+            }
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position == limit) {
+                    throw new IOException("Message ends inside a number.");
+                }
+
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+
+                if (b >= 0) {
+                    return value;
+                }
+            }
+
+            throw new IOException("Number longer than 64 bits.");
+        }
+    }
+}
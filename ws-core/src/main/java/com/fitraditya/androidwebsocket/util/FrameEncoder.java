@@ -0,0 +1,206 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds masked client frames in a reusable per-connection buffer. Text is encoded to UTF-8
+ * straight into the frame, so once the buffer has grown to fit the largest message no send
+ * allocates. Not thread-safe; callers serialize access.
+ */
+
+public class FrameEncoder {
+    public static final int OP_TEXT = 1;
+    public static final int OP_BINARY = 2;
+
+    private static final int FIN = 128;
+    private static final int MASK = 128;
+    private static final int DEFAULT_CAPACITY = 4096;
+
+    private final MaskSource maskSource;
+
+    private byte[] buffer;
+    private ByteBuffer view;
+    private int size;
+
+    public FrameEncoder() {
+        this(new MaskSource());
+    }
+
+    public FrameEncoder(MaskSource maskSource) {
+        this(maskSource, DEFAULT_CAPACITY);
+    }
+
+    public FrameEncoder(MaskSource maskSource, int capacity) {
+        this.maskSource = maskSource;
+        buffer = new byte[capacity];
+        view = ByteBuffer.wrap(buffer);
+    }
+
+    public void encodeText(CharSequence data) {
+        int length = utf8Length(data);
+        int offset = writeHeader(OP_TEXT, length);
+        int position = offset;
+        int count = data.length();
+
+        for (int i = 0; i < count; i++) {
+            char c = data.charAt(i);
+
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xc0 | (c >> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                char low = (i + 1 < count) ? data.charAt(i + 1) : 0;
+
+                if (Character.isHighSurrogate(c) && Character.isLowSurrogate(low)) {
+                    int codePoint = Character.toCodePoint(c, low);
+                    buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+                    i++;
+                } else {
+                    // Unpaired surrogates become '?', as String.getBytes("UTF-8") does.
+                    buffer[position++] = '?';
+                }
+            } else {
+                buffer[position++] = (byte) (0xe0 | (c >> 12));
+                buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buffer[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+
+        mask(offset, length);
+    }
+
+    public void encodeBinary(byte[] data, int offset, int length) {
+        int start = writeHeader(OP_BINARY, length);
+        System.arraycopy(data, offset, buffer, start, length);
+        mask(start, length);
+    }
+
+    /**
+     * Encodes {@code length} bytes starting at {@code offset} without moving the buffer's
+     * position.
+     */
+    public void encodeBinary(ByteBuffer data, int offset, int length) {
+        int start = writeHeader(OP_BINARY, length);
+
+        if (data.hasArray()) {
+            System.arraycopy(data.array(), data.arrayOffset() + offset, buffer, start, length);
+        } else {
+            ByteBuffer source = data.duplicate();
+            source.position(offset);
+            source.get(buffer, start, length);
+        }
+
+        mask(start, length);
+    }
+
+    /**
+     * Appends a frame that was built elsewhere, such as a control frame from HybiParser.
+     */
+    public void append(byte[] frame) {
+        ensureCapacity(frame.length);
+        System.arraycopy(frame, 0, buffer, size, frame.length);
+        size += frame.length;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A copy of what has been encoded, for a frame that has to outlive the next reset.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    private int writeHeader(int opcode, int length) {
+        int header = (length <= 125) ? 2 : (length <= 65535 ? 4 : 10);
+        ensureCapacity(header + 4 + length);
+
+        buffer[size] = (byte) (FIN | opcode);
+
+        if (length <= 125) {
+            buffer[size + 1] = (byte) (MASK | length);
+        } else if (length <= 65535) {
+            buffer[size + 1] = (byte) (MASK | 126);
+            buffer[size + 2] = (byte) (length >>> 8);
+            buffer[size + 3] = (byte) length;
+        } else {
+            buffer[size + 1] = (byte) (MASK | 127);
+            buffer[size + 2] = 0;
+            buffer[size + 3] = 0;
+            buffer[size + 4] = 0;
+            buffer[size + 5] = 0;
+            buffer[size + 6] = (byte) (length >>> 24);
+            buffer[size + 7] = (byte) (length >>> 16);
+            buffer[size + 8] = (byte) (length >>> 8);
+            buffer[size + 9] = (byte) length;
+        }
+
+        size += header + 4;
+        return size;
+    }
+
+    private void mask(int offset, int length) {
+        int key = maskSource.nextMask();
+        Masker.putKey(buffer, offset - 4, key);
+        Masker.mask(view, offset, length, key, 0);
+        size = offset + length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra <= buffer.length) {
+            return;
+        }
+
+        byte[] grown = new byte[Math.max(buffer.length * 2, size + extra)];
+        System.arraycopy(buffer, 0, grown, 0, size);
+        buffer = grown;
+        view = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * The number of bytes {@link #encodeText(CharSequence)} writes for {@code data}.
+     */
+    public static int utf8Length(CharSequence data) {
+        int count = data.length();
+        int length = 0;
+
+        for (int i = 0; i < count; i++) {
+            char c = data.charAt(i);
+
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                if (Character.isHighSurrogate(c) && i + 1 < count && Character.isLowSurrogate(data.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length += 1;
+                }
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+}
@@ -0,0 +1,52 @@
+package com.fitraditya.androidwebsocket.util;
+
+import com.fitraditya.androidwebsocket.MessageCodec;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * JSON codec on Gson. The TypeAdapter is looked up once and reused for every message, and
+ * messages are read with a streaming JsonReader straight from the frame bytes. Gson is not a
+ * dependency of this library; apps using the codec bring their own.
+ */
+
+public class GsonCodec<T> implements MessageCodec<T> {
+    private final TypeAdapter<T> adapter;
+
+    public GsonCodec(Gson gson, Class<T> type) {
+        this(gson.getAdapter(type));
+    }
+
+    public GsonCodec(TypeAdapter<T> adapter) {
+        this.adapter = adapter;
+    }
+
+    @Override
+    public T decode(byte[] data, int offset, int length, boolean isText) throws IOException {
+        try {
+            return adapter.read(new JsonReader(new Utf8Reader(data, offset, length)));
+        } catch (JsonParseException | IllegalStateException e) {
+            // Well-formed JSON of the wrong shape; report it like malformed JSON.
+            throw new IOException("Cannot decode message: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public byte[] encode(T message) {
+        try {
+            return adapter.toJson(message).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean isText() {
+        return true;
+    }
+}
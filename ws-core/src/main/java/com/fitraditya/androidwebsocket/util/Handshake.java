@@ -0,0 +1,170 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * One HTTP upgrade attempt: builds the request for a fresh key and validates the server's
+ * response headers. Shared by the blocking client and the selector engine.
+ */
+
+public class Handshake {
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private URI uri;
+    private Map<String, String> extras;
+    private PerMessageDeflate perMessageDeflate;
+    private String[] protocols;
+    private String protocol;
+    private String secret;
+
+    public Handshake(URI uri, Map<String, String> extras, PerMessageDeflate perMessageDeflate) {
+        this(uri, extras, perMessageDeflate, null);
+    }
+
+    /**
+     * {@code protocols} are the subprotocols offered in Sec-WebSocket-Protocol, most preferred
+     * first; null or empty offers none.
+     */
+    public Handshake(URI uri, Map<String, String> extras, PerMessageDeflate perMessageDeflate, String[] protocols) {
+        this.uri = uri;
+        this.extras = extras;
+        this.perMessageDeflate = perMessageDeflate;
+        this.protocols = protocols;
+        this.secret = createSecret();
+    }
+
+    public boolean isSecure() {
+        return uri.getScheme().equals("wss") || uri.getScheme().equals("https");
+    }
+
+    public int getPort() {
+        return (uri.getPort() != -1) ? uri.getPort() : (isSecure() ? 443 : 80);
+    }
+
+    public String getRequest() throws URISyntaxException {
+        String path = isEmpty(uri.getPath()) ? "/" : uri.getPath();
+
+        if (!isEmpty(uri.getQuery())) {
+            path += "?" + uri.getQuery();
+        }
+
+        String originScheme = uri.getScheme().equals("wss") ? "https" : "http";
+        URI origin = new URI(originScheme, "//" + uri.getHost(), null);
+
+        StringBuilder request = new StringBuilder();
+        request.append("GET ").append(path).append(" HTTP/1.1\r\n");
+        request.append("Upgrade: websocket\r\n");
+        request.append("Connection: Upgrade\r\n");
+        request.append("Host: ").append(uri.getHost()).append("\r\n");
+        request.append("Origin: ").append(origin.toString()).append("\r\n");
+        request.append("Sec-WebSocket-Key: ").append(secret).append("\r\n");
+        request.append("Sec-WebSocket-Version: 13\r\n");
+
+        if (perMessageDeflate != null) {
+            request.append("Sec-WebSocket-Extensions: ").append(perMessageDeflate.offer()).append("\r\n");
+        }
+
+        if (protocols != null && protocols.length > 0) {
+            request.append("Sec-WebSocket-Protocol: ");
+
+            for (int i = 0; i < protocols.length; i++) {
+                request.append((i > 0) ? ", " : "").append(protocols[i]);
+            }
+
+            request.append("\r\n");
+        }
+
+        if (extras != null) {
+            for (Map.Entry<String, String> extra : extras.entrySet()) {
+                request.append(extra.getKey()).append(": ").append(extra.getValue()).append("\r\n");
+            }
+        }
+
+        request.append("\r\n");
+
+        return request.toString();
+    }
+
+    /**
+     * Checks the status, Sec-WebSocket-Accept and the extension and subprotocol answers. Returns
+     * the permessage-deflate state to install in the parser, or null when the server declined it.
+     */
+    public PerMessageDeflate validate(HttpResponseParser response) throws HttpException, HttpResponseException {
+        if (response.getCode() != HttpStatus.SC_SWITCHING_PROTOCOLS) {
+            long retryAfter = HttpResponseException.parseRetryAfter(response.getHeader("Retry-After"), System.currentTimeMillis());
+            throw new HttpResponseException(response.getCode(), response.getMessage(), retryAfter);
+        }
+
+        String actual = response.getHeader("Sec-WebSocket-Accept");
+
+        if (actual == null) {
+            throw new HttpException("No Sec-WebSocket-Accept header.");
+        }
+
+        if (!createSecretValidation(secret).equals(actual)) {
+            throw new HttpException("Bad Sec-WebSocket-Accept header value.");
+        }
+
+        String extensions = response.getJoinedHeader("Sec-WebSocket-Extensions");
+
+        if (extensions != null && perMessageDeflate == null) {
+            throw new HttpException("Server accepted an extension that was not offered.");
+        }
+
+        protocol = response.getHeader("Sec-WebSocket-Protocol");
+
+        if (protocol != null && !isOffered(protocol)) {
+            throw new HttpException("Server selected a subprotocol that was not offered: " + protocol);
+        }
+
+        return (perMessageDeflate != null && perMessageDeflate.accept(extensions)) ? perMessageDeflate : null;
+    }
+
+    /**
+     * The subprotocol the server selected, or null when it selected none. Set by validate.
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    private boolean isOffered(String protocol) {
+        if (protocols != null) {
+            for (String offered : protocols) {
+                if (offered.equals(protocol)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static String createSecret() {
+        byte[] nonce = new byte[16];
+
+        for (int i = 0; i < 16; i++) {
+            nonce[i] = (byte) (Math.random() * 256);
+        }
+
+        return Base64.encode(nonce);
+    }
+
+    private static String createSecretValidation(String secret) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+            messageDigest.update((secret + GUID).getBytes());
+
+            return Base64.encode(messageDigest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.length() == 0;
+    }
+}
@@ -0,0 +1,317 @@
+package com.fitraditya.androidwebsocket.util;
+
+import com.fitraditya.androidwebsocket.platform.Scheduler;
+
+/**
+ * Protocol-level keepalive for one connection. Sends a PING carrying its send time every interval
+ * and matches the PONG that echoes it to measure round-trip time. The connection is declared dead
+ * after too many PONGs go missing in a row, or when nothing at all was read for the read-idle
+ * timeout.
+ *
+ * The interval adapts to the network's NAT timeout: it starts at the minimum and grows after a
+ * run of answered PINGs, up to the maximum. A connection lost while probing an interval longer
+ * than the last one that held caps the interval there for as long as this heartbeat lives.
+ */
+
+public class Heartbeat {
+    private static final int PING_SIZE = 8;
+    private static final int PROBE_SUCCESSES = 3;
+    private static final int DEFAULT_MAX_MISSED_PONGS = 2;
+
+    private final Scheduler scheduler;
+    private final Listener listener;
+    private final Clock clock;
+
+    private final Runnable tickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+
+    private long minInterval;
+    private long maxInterval;
+    private long interval;
+    private long stableInterval;
+    private long ceiling;
+    private int maxMissedPongs = DEFAULT_MAX_MISSED_PONGS;
+    private long readIdleTimeout;
+
+    private boolean isRunning;
+    private int missedPongs;
+    private int successes;
+    private long pingSentNanos;
+    private long nextPingNanos;
+    private long lastReadNanos;
+    private int framesSeen;
+
+    private long lastRtt;
+    private long smoothedRtt;
+    private long maxRtt;
+
+    // Written only by the reader thread, so a plain increment of a volatile is enough.
+    private volatile int framesRead;
+
+    public interface Listener {
+        /**
+         * Sends a PING frame carrying {@code payload}.
+         */
+        public void sendPing(byte[] payload);
+
+        /**
+         * The connection is considered dead; close it. Called on the scheduler thread.
+         */
+        public void onTimeout(String reason);
+    }
+
+    /**
+     * Source of monotonic time in nanoseconds; replace it to drive the heartbeat from a test.
+     */
+    public interface Clock {
+        public long nanoTime();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    public Heartbeat(Scheduler scheduler, Listener listener) {
+        this(scheduler, listener, SYSTEM_CLOCK);
+    }
+
+    public Heartbeat(Scheduler scheduler, Listener listener, Clock clock) {
+        this.scheduler = scheduler;
+        this.listener = listener;
+        this.clock = clock;
+    }
+
+    /**
+     * PINGs go out every {@code minMillis} at first, stretching towards {@code maxMillis} while
+     * the network keeps the connection up. 0 turns the heartbeat off.
+     */
+    public synchronized void setInterval(int minMillis, int maxMillis) {
+        if (minMillis < 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("Interval must satisfy 0 <= min <= max.");
+        }
+
+        minInterval = minMillis * 1000000L;
+        maxInterval = maxMillis * 1000000L;
+        interval = minInterval;
+        stableInterval = minInterval;
+        ceiling = maxInterval;
+        successes = 0;
+    }
+
+    /**
+     * How many PINGs in a row may go unanswered before the connection is declared dead.
+     */
+    public synchronized void setMaxMissedPongs(int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("At least one missed pong must be allowed.");
+        }
+
+        maxMissedPongs = count;
+    }
+
+    /**
+     * Declares the connection dead when no frame at all arrived for {@code millis}. Reads are
+     * sampled when the timer fires, so detection can take up to twice as long. 0, the default,
+     * relies on missed PONGs alone.
+     */
+    public synchronized void setReadIdleTimeout(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Read idle timeout must not be negative.");
+        }
+
+        readIdleTimeout = millis * 1000000L;
+    }
+
+    public synchronized boolean isEnabled() {
+        return minInterval > 0 || readIdleTimeout > 0;
+    }
+
+    /**
+     * Starts watching a freshly opened connection. Does nothing while neither an interval nor a
+     * read-idle timeout is set.
+     */
+    public synchronized void start() {
+        stopTicks();
+
+        if (!isEnabled()) {
+            return;
+        }
+
+        long now = clock.nanoTime();
+        isRunning = true;
+        missedPongs = 0;
+        successes = 0;
+        pingSentNanos = 0;
+        nextPingNanos = now + interval;
+        lastReadNanos = now;
+        framesSeen = framesRead;
+        lastRtt = 0;
+        smoothedRtt = 0;
+        maxRtt = 0;
+
+        schedule(now);
+    }
+
+    /**
+     * Stops after a disconnect the caller asked for.
+     */
+    public synchronized void stop() {
+        stopTicks();
+    }
+
+    /**
+     * Stops after the connection dropped on its own. A drop while probing a longer interval is
+     * taken as the NAT forgetting the connection.
+     */
+    public synchronized void onConnectionLost() {
+        if (isRunning) {
+            stopTicks();
+            backOff();
+        }
+    }
+
+    /**
+     * Called by the reader for every frame header, whatever the frame.
+     */
+    public void onFrame() {
+        framesRead++;
+    }
+
+    /**
+     * Called by the reader for every PONG. PONGs that do not echo the outstanding PING, such as
+     * replies to an application's own pings, are ignored.
+     */
+    public synchronized void onPong(byte[] payload, int offset, int length) {
+        if (!isRunning || pingSentNanos == 0 || length != PING_SIZE || decode(payload, offset) != pingSentNanos) {
+            return;
+        }
+
+        long rtt = clock.nanoTime() - pingSentNanos;
+        pingSentNanos = 0;
+        missedPongs = 0;
+
+        lastRtt = rtt;
+        maxRtt = Math.max(maxRtt, rtt);
+        // Smoothed as TCP does for its SRTT (RFC 6298), with a gain of 1/8.
+        smoothedRtt = (smoothedRtt == 0) ? rtt : smoothedRtt + (rtt - smoothedRtt) / 8;
+
+        if (++successes >= PROBE_SUCCESSES) {
+            successes = 0;
+            stableInterval = Math.max(stableInterval, interval);
+
+            if (interval < ceiling) {
+                interval = Math.min(interval + interval / 2, ceiling);
+            }
+        }
+    }
+
+    /**
+     * The current PING interval in milliseconds, after adapting.
+     */
+    public synchronized long getIntervalMillis() {
+        return interval / 1000000;
+    }
+
+    public synchronized long getLastRttMillis() {
+        return lastRtt / 1000000;
+    }
+
+    /**
+     * Exponentially weighted moving average of the round-trip times seen on this connection.
+     */
+    public synchronized long getSmoothedRttMillis() {
+        return smoothedRtt / 1000000;
+    }
+
+    public synchronized long getMaxRttMillis() {
+        return maxRtt / 1000000;
+    }
+
+    private synchronized void tick() {
+        if (!isRunning) {
+            return;
+        }
+
+        long now = clock.nanoTime();
+
+        if (framesRead != framesSeen) {
+            framesSeen = framesRead;
+            lastReadNanos = now;
+        }
+
+        if (readIdleTimeout > 0 && now - lastReadNanos >= readIdleTimeout) {
+            timeout("Nothing read for " + readIdleTimeout / 1000000 + " ms.");
+            return;
+        }
+
+        if (interval > 0 && now - nextPingNanos >= 0) {
+            if (pingSentNanos != 0 && ++missedPongs >= maxMissedPongs) {
+                timeout(missedPongs + " pongs missed.");
+                return;
+            }
+
+            pingSentNanos = now;
+            nextPingNanos = now + interval;
+            listener.sendPing(encode(now));
+        }
+
+        schedule(now);
+    }
+
+    private void timeout(String reason) {
+        stopTicks();
+        backOff();
+        listener.onTimeout(reason);
+    }
+
+    private void backOff() {
+        if (interval > stableInterval) {
+            ceiling = stableInterval;
+            interval = stableInterval;
+            successes = 0;
+        }
+    }
+
+    private void schedule(long now) {
+        long next = (interval > 0) ? nextPingNanos : Long.MAX_VALUE;
+
+        if (readIdleTimeout > 0 && lastReadNanos + readIdleTimeout - next < 0) {
+            next = lastReadNanos + readIdleTimeout;
+        }
+
+        scheduler.postDelayed(tickRunnable, Math.max(0, (next - now) / 1000000) + 1);
+    }
+
+    private void stopTicks() {
+        isRunning = false;
+        scheduler.cancel(tickRunnable);
+    }
+
+    private static byte[] encode(long value) {
+        byte[] bytes = new byte[PING_SIZE];
+
+        for (int i = PING_SIZE - 1; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+
+        return bytes;
+    }
+
+    private static long decode(byte[] bytes, int offset) {
+        long value = 0;
+
+        for (int i = 0; i < PING_SIZE; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xff);
+        }
+
+        return value;
+    }
+}
@@ -5,6 +5,8 @@ package com.fitraditya.androidwebsocket.util;
  */
 
 public class HttpException extends Exception {
+    private static final long serialVersionUID = 1L;
+
     public HttpException() {
         throw new RuntimeException("HTTP exception");
     }
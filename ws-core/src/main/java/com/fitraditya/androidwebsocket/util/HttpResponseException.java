@@ -0,0 +1,70 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Created by fitra on 07/06/17.
+ */
+
+public class HttpResponseException  extends Exception{
+    private static final long serialVersionUID = 1L;
+
+    private int statusCode;
+    private long retryAfterMillis = -1;
+
+    public HttpResponseException(int statusCode, String s) {
+        super("HTTP status code: " + statusCode + ", " + s);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * For replies that said when to try again, such as 503 or 429 with Retry-After.
+     */
+    public HttpResponseException(int statusCode, String s, long retryAfterMillis) {
+        this(statusCode, s);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * How long the server asked clients to wait before retrying, or -1 when it did not say.
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Reads a Retry-After value, either delay-seconds or an HTTP-date (RFC 7231), as a delay from
+     * {@code nowMillis}. Returns -1 for a missing or malformed value; dates in the past give 0.
+     */
+    public static long parseRetryAfter(String value, long nowMillis) {
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+
+        value = value.trim();
+
+        try {
+            long seconds = Long.parseLong(value);
+
+            return (seconds >= 0) ? seconds * 1000 : -1;
+        } catch (NumberFormatException ignored) {
+            // Not delay-seconds; try the date form.
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        try {
+            return Math.max(0, format.parse(value).getTime() - nowMillis);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Incremental parser for the server's HTTP/1.1 reply to the upgrade request. Bytes are pushed in
+ * as they arrive and consumed only up to the blank line that ends the header block, so whatever
+ * the server sent after it (the first frames) stays in the caller's buffer for the frame parser.
+ * Header names are matched without regard to case and repeated headers keep every value.
+ */
+
+public class HttpResponseParser {
+    public static final int MAX_HEADER_SIZE = 8192;
+
+    private static final int READ_SIZE = 4096;
+
+    private static final int STAGE_STATUS = 0;
+    private static final int STAGE_HEADERS = 1;
+    private static final int STAGE_DONE = 2;
+
+    private int stage = STAGE_STATUS;
+    private int size;
+    private byte[] line = new byte[256];
+    private int lineLength;
+
+    private int code;
+    private String message;
+    private String lastName;
+    private Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    /**
+     * Consumes bytes from {@code data} until the header block is complete. Returns true once it
+     * is, leaving the buffer positioned on the first byte after it; returns false when every byte
+     * was consumed and more are needed.
+     */
+    public boolean parse(ByteBuffer data) throws HttpException {
+        while (stage != STAGE_DONE && data.hasRemaining()) {
+            byte b = data.get();
+
+            if (++size > MAX_HEADER_SIZE) {
+                throw new HttpException("Response headers too large.");
+            }
+
+            if (b != '\n') {
+                if (lineLength == line.length) {
+                    byte[] grown = new byte[line.length * 2];
+                    System.arraycopy(line, 0, grown, 0, lineLength);
+                    line = grown;
+                }
+
+                line[lineLength++] = b;
+                continue;
+            }
+
+            int end = (lineLength > 0 && line[lineLength - 1] == '\r') ? lineLength - 1 : lineLength;
+            lineLength = 0;
+
+            if (stage == STAGE_STATUS) {
+                if (end == 0) {
+                    // A stray CRLF ahead of the status line is tolerated, as RFC 7230 asks.
+                    continue;
+                }
+
+                parseStatusLine(end);
+                stage = STAGE_HEADERS;
+            } else if (end == 0) {
+                stage = STAGE_DONE;
+            } else {
+                parseHeader(end);
+            }
+        }
+
+        return stage == STAGE_DONE;
+    }
+
+    /**
+     * Blocking variant for socket streams: reads in large chunks rather than a byte at a time.
+     * Returns the bytes read past the header block, which belong to the frame parser.
+     */
+    public ByteBuffer read(InputStream stream) throws IOException, HttpException {
+        byte[] chunk = new byte[READ_SIZE];
+
+        while (true) {
+            int count = stream.read(chunk);
+
+            if (count == -1) {
+                throw new HttpException((size == 0) ? "Received no reply from server." : "Connection closed during the upgrade response.");
+            }
+
+            ByteBuffer data = ByteBuffer.wrap(chunk, 0, count);
+
+            if (parse(data)) {
+                return data;
+            }
+        }
+    }
+
+    public boolean isComplete() {
+        return stage == STAGE_DONE;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * The first value of {@code name}, or null when the server did not send it.
+     */
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+
+        return (values != null) ? values.get(0) : null;
+    }
+
+    /**
+     * Every value of {@code name} in the order received; empty when the server did not send it.
+     */
+    public List<String> getHeaders(String name) {
+        List<String> values = headers.get(name);
+
+        return (values != null) ? Collections.unmodifiableList(values) : Collections.<String>emptyList();
+    }
+
+    /**
+     * Every value of {@code name} joined into one comma-separated list, as HTTP allows for
+     * list-valued headers; null when the server did not send it.
+     */
+    public String getJoinedHeader(String name) {
+        List<String> values = headers.get(name);
+
+        if (values == null) {
+            return null;
+        }
+
+        StringBuilder joined = new StringBuilder(values.get(0));
+
+        for (int i = 1; i < values.size(); i++) {
+            joined.append(", ").append(values.get(i));
+        }
+
+        return joined.toString();
+    }
+
+    private void parseStatusLine(int end) throws HttpException {
+        // HTTP/1.x SP 3DIGIT [SP reason-phrase]
+        if (end < 12 || !startsWith("HTTP/1.") || line[8] != ' ' || (end > 12 && line[12] != ' ')) {
+            throw new HttpException("Unexpected status line: " + text(0, end));
+        }
+
+        code = 0;
+
+        for (int i = 9; i < 12; i++) {
+            if (line[i] < '0' || line[i] > '9') {
+                throw new HttpException("Unexpected status line: " + text(0, end));
+            }
+
+            code = code * 10 + (line[i] - '0');
+        }
+
+        message = (end > 13) ? text(13, end) : "";
+    }
+
+    private void parseHeader(int end) throws HttpException {
+        if (line[0] == ' ' || line[0] == '\t') {
+            // Obsolete line folding continues the previous header's value.
+            if (lastName == null) {
+                throw new HttpException("Unexpected header continuation.");
+            }
+
+            List<String> values = headers.get(lastName);
+            int last = values.size() - 1;
+            values.set(last, values.get(last) + " " + trim(0, end));
+            return;
+        }
+
+        int colon = 0;
+
+        while (colon < end && line[colon] != ':') {
+            colon++;
+        }
+
+        if (colon == 0 || colon == end) {
+            throw new HttpException("Malformed header: " + text(0, end));
+        }
+
+        String name = trim(0, colon);
+        List<String> values = headers.get(name);
+
+        if (values == null) {
+            values = new ArrayList<>(1);
+            headers.put(name, values);
+        }
+
+        values.add(trim(colon + 1, end));
+        lastName = name;
+    }
+
+    private boolean startsWith(String prefix) {
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line[i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private String trim(int start, int end) {
+        while (start < end && (line[start] == ' ' || line[start] == '\t')) {
+            start++;
+        }
+
+        while (end > start && (line[end - 1] == ' ' || line[end - 1] == '\t')) {
+            end--;
+        }
+
+        return text(start, end);
+    }
+
+    private String text(int start, int end) {
+        // Header bytes are ISO-8859-1, so each byte maps straight to one char.
+        char[] chars = new char[end - start];
+
+        for (int i = start; i < end; i++) {
+            chars[i - start] = (char) (line[i] & 0xff);
+        }
+
+        return new String(chars);
+    }
+}
@@ -0,0 +1,1231 @@
+package com.fitraditya.androidwebsocket.util;
+
+import com.fitraditya.androidwebsocket.BaseWebsocketClient;
+import com.fitraditya.androidwebsocket.WebsocketConnection;
+import com.fitraditya.androidwebsocket.WebsocketMetrics;
+import com.fitraditya.androidwebsocket.platform.Log;
+import com.fitraditya.androidwebsocket.platform.WakeLock;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+/**
+ * Created by fitra on 07/06/17.
+ */
+
+public class HybiParser {
+    private static final String TAG = HybiParser.class.getSimpleName();
+
+    private static final int BYTE = 255;
+    private static final int FIN = 128;
+    private static final int MASK = 128;
+    private static final int RSV1 = 64;
+    private static final int RSV2 = 32;
+    private static final int RSV3 = 16;
+    private static final int OPCODE = 15;
+    private static final int LENGTH = 127;
+    private static final int MODE_TEXT = 1;
+    private static final int MODE_BINARY = 2;
+
+    private static final int OP_CONTINUATION = 0;
+    private static final int OP_TEXT = 1;
+    private static final int OP_BINARY = 2;
+    private static final int OP_CLOSE = 8;
+    private static final int OP_PING = 9;
+    private static final int OP_PONG = 10;
+
+    private static final int CLOSE_INVALID_DATA = 1007;
+    private static final int CLOSE_MESSAGE_TOO_BIG = 1009;
+
+    public static final int DEFAULT_MAX_FRAME_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_MAX_MESSAGE_BYTES = 64L * 1024 * 1024;
+
+    private static final int READ_BUFFER_SIZE = 16384;
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final List<Integer> OPCODES = Arrays.asList(
+        OP_CONTINUATION,
+        OP_TEXT,
+        OP_BINARY,
+        OP_CLOSE,
+        OP_PING,
+        OP_PONG
+    );
+
+    private WebsocketConnection connection;
+    private WakeLock wakeLock;
+    private PerMessageDeflate deflate;
+    private BaseWebsocketClient.StreamListener streamListener;
+    private BaseWebsocketClient.SpillListener spillListener;
+    private File spillDirectory;
+    private File spillFile;
+    private FileChannel spillChannel;
+    private WebsocketMetrics metrics = WebsocketMetrics.NONE;
+    private Heartbeat heartbeat;
+
+    private byte[] mask = EMPTY;
+    private byte[] payload = EMPTY;
+    private byte[] readBuffer;
+    private ByteBuffer readView;
+
+    private boolean isClosed = false;
+    private boolean isMasking = true;
+    private boolean isBuffered = true;
+    private boolean isCompressed;
+    private boolean isMasked;
+    private boolean isFinal;
+    private boolean isStreaming;
+    private boolean isSpilling;
+    private boolean isFragmentCompressed;
+    private boolean isRaw;
+    private int opCode;
+    private int lengthSize;
+    private int length;
+    private int stage;
+    private int mode;
+    private int readPosition;
+    private int readLimit;
+    private int payloadPosition;
+    private int maskKey;
+    private int maskPhase;
+    private int streamThreshold;
+    private int spillThreshold;
+    private int fragmentBytes;
+    private int maxFrameBytes = DEFAULT_MAX_FRAME_BYTES;
+    private long maxMessageBytes = DEFAULT_MAX_MESSAGE_BYTES;
+    private long messageBytes;
+
+    private MessageBuffer buffer = new MessageBuffer();
+    private Utf8Decoder utf8Decoder = new Utf8Decoder();
+    private MaskSource maskSource = new MaskSource();
+    private FrameEncoder textEncoder = new FrameEncoder(maskSource);
+
+    private static final List<Integer> FRAGMENTED_OPCODES = Arrays.asList(
+        OP_CONTINUATION, OP_TEXT, OP_BINARY
+    );
+
+    public HybiParser(WebsocketConnection connection) {
+        this.connection = connection;
+    }
+
+    public HybiParser(WebsocketConnection connection, WakeLock wakelock) {
+        this.connection = connection;
+        this.wakeLock = wakelock;
+    }
+
+    private static byte[] mask(byte[] payload, byte[] mask, int offset) {
+        if (mask.length == 0) {
+            return payload;
+        }
+
+        Masker.mask(payload, offset, payload.length - offset, Masker.key(mask, 0), 0);
+
+        return payload;
+    }
+
+    public MaskSource getMaskSource() {
+        return maskSource;
+    }
+
+    /**
+     * Selects between the buffered reader, which fills a reusable buffer with one bulk read and
+     * decodes every complete frame it holds, and the legacy reader that pulls one field at a time.
+     */
+    public void setBuffered(boolean buffered) {
+        isBuffered = buffered;
+    }
+
+    /**
+     * Installs the negotiated permessage-deflate state, or null when the server declined it.
+     */
+    public void setDeflate(PerMessageDeflate deflate) {
+        this.deflate = deflate;
+    }
+
+    /**
+     * Hands data messages larger than {@code threshold} bytes to {@code listener} piece by piece
+     * instead of collecting them for onMessage. Smaller messages are still delivered whole; a
+     * null listener turns streaming off.
+     */
+    public void setStreamListener(BaseWebsocketClient.StreamListener listener, int threshold) {
+        streamListener = listener;
+        streamThreshold = threshold;
+    }
+
+    /**
+     * Writes binary messages larger than {@code threshold} bytes to a temporary file in
+     * {@code directory} as they arrive, and hands the file to {@code listener} instead of
+     * onMessage. Takes binary messages from a stream listener; text is unaffected. A null listener
+     * turns spilling off, a null directory uses the platform's temporary directory.
+     */
+    public void setSpillListener(BaseWebsocketClient.SpillListener listener, File directory, int threshold) {
+        spillListener = listener;
+        spillDirectory = directory;
+        spillThreshold = threshold;
+    }
+
+    /**
+     * Fails the connection with 1009 when a frame or a message is larger than these. A frame that
+     * is streamed or spilled as it arrives is never held whole, so only the message limit applies
+     * to it. Compressed messages count their inflated size.
+     */
+    public void setLimits(int maxFrameBytes, long maxMessageBytes) {
+        if (maxFrameBytes <= 0 || maxMessageBytes <= 0) {
+            throw new IllegalArgumentException("Limits must be positive.");
+        }
+
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    /**
+     * Delivers whole messages through {@link BaseWebsocketClient.RawMessageListener} as the bytes
+     * received, instead of as a String or a copied array. Text is still checked to be valid UTF-8.
+     */
+    public void setRawMessages(boolean raw) {
+        isRaw = raw;
+    }
+
+    /**
+     * Reports each frame read and the size of the fragmented message being collected.
+     */
+    public void setMetrics(WebsocketMetrics metrics) {
+        this.metrics = (metrics != null) ? metrics : WebsocketMetrics.NONE;
+    }
+
+    /**
+     * Tells {@code heartbeat} about every frame read and every PONG; null stops it.
+     */
+    public void setHeartbeat(Heartbeat heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    public boolean isCompressing() {
+        return deflate != null && deflate.isEnabled();
+    }
+
+    /**
+     * Like {@link #start(HappyDataInputStream)}, after first parsing {@code received}: frame bytes
+     * that arrived in the same read as the end of the upgrade response.
+     */
+    public void start(HappyDataInputStream stream, ByteBuffer received) throws IOException {
+        if (!received.hasRemaining()) {
+            start(stream);
+        } else if (isBuffered) {
+            consume(received);
+            startBuffered(stream);
+        } else {
+            InputStream head = new ByteArrayInputStream(received.array(), received.arrayOffset() + received.position(), received.remaining());
+            start(new HappyDataInputStream(new SequenceInputStream(head, stream)));
+        }
+    }
+
+    public void start(HappyDataInputStream stream) throws IOException {
+        if (isBuffered) {
+            startBuffered(stream);
+            return;
+        }
+
+        while (true) {
+            if (stream.available() == -1) {
+                break;
+            }
+
+            switch (stage) {
+                case 0:
+                    parseOpcode(stream.readByte());
+                    break;
+                case 1:
+                    parseLength(stream.readByte());
+                    break;
+                case 2:
+                    parseExtendedLength(stream.readBytes(lengthSize));
+                    break;
+                case 3:
+                    mask = stream.readBytes(4);
+                    stage = 4;
+                    break;
+                case 4:
+                    payload = stream.readBytes(length);
+                    emitFrame(mask(payload, mask, 0), 0, payload.length);
+                    stage = 0;
+                    releaseWakeLock();
+                    break;
+            }
+        }
+
+        connection.getListener().onDisconnect(0, "EOF");
+    }
+
+    private void startBuffered(InputStream stream) throws IOException {
+        ensureReadBuffer();
+
+        while (true) {
+            decode();
+
+            int count;
+
+            if (stage == 4 && length > readBuffer.length && !isChunked()) {
+                // The rest of an oversized payload goes straight into its own array.
+                if (payloadPosition == 0) {
+                    payload = new byte[length];
+                }
+
+                count = stream.read(payload, payloadPosition, length - payloadPosition);
+
+                if (count == -1) {
+                    break;
+                }
+
+                payloadPosition += count;
+                continue;
+            }
+
+            compact();
+            count = stream.read(readBuffer, readLimit, readBuffer.length - readLimit);
+
+            if (count == -1) {
+                break;
+            }
+
+            readLimit += count;
+        }
+
+        connection.getListener().onDisconnect(0, "EOF");
+    }
+
+    /**
+     * Push-style counterpart of {@link #start(HappyDataInputStream)} for callers that own the
+     * socket reads, such as the selector engine. Consumes all of {@code data} and emits every
+     * frame it completes; partial frames are kept for the next call.
+     */
+    public void consume(ByteBuffer data) throws IOException {
+        ensureReadBuffer();
+
+        while (data.hasRemaining()) {
+            compact();
+
+            int count = Math.min(data.remaining(), readBuffer.length - readLimit);
+            data.get(readBuffer, readLimit, count);
+            readLimit += count;
+            decode();
+        }
+    }
+
+    private void ensureReadBuffer() {
+        if (readBuffer == null) {
+            readBuffer = new byte[READ_BUFFER_SIZE];
+            readView = ByteBuffer.wrap(readBuffer);
+        }
+    }
+
+    private void compact() {
+        if (readPosition > 0) {
+            readLimit -= readPosition;
+            System.arraycopy(readBuffer, readPosition, readBuffer, 0, readLimit);
+            readPosition = 0;
+        }
+    }
+
+    private void decode() throws IOException {
+        while (true) {
+            int available = readLimit - readPosition;
+
+            switch (stage) {
+                case 0:
+                    if (available < 1) {
+                        return;
+                    }
+
+                    parseOpcode(readBuffer[readPosition++]);
+                    break;
+                case 1:
+                    if (available < 1) {
+                        return;
+                    }
+
+                    parseLength(readBuffer[readPosition++]);
+                    break;
+                case 2:
+                    if (available < lengthSize) {
+                        return;
+                    }
+
+                    length = getInteger(readBuffer, readPosition, lengthSize);
+                    readPosition += lengthSize;
+                    stage = headerParsed(lengthSize);
+                    break;
+                case 3:
+                    if (available < 4) {
+                        return;
+                    }
+
+                    maskKey = Masker.key(readBuffer, readPosition);
+                    readPosition += 4;
+                    stage = 4;
+                    break;
+                case 4:
+                    if (length <= readBuffer.length) {
+                        if (available < length) {
+                            return;
+                        }
+
+                        if (isMasked) {
+                            Masker.mask(readView, readPosition, length, maskKey, 0);
+                        }
+
+                        emitFrame(readBuffer, readPosition, length);
+                        readPosition += length;
+                    } else if (isChunked()) {
+                        // Oversized streamed frames go out as they arrive, never held whole.
+                        int count = Math.min(available, length - payloadPosition);
+
+                        if (count == 0) {
+                            return;
+                        }
+
+                        if (isMasked) {
+                            maskPhase = Masker.mask(readView, readPosition, count, maskKey, maskPhase);
+                        }
+
+                        payloadPosition += count;
+                        emitFragment(readBuffer, readPosition, count, payloadPosition == length);
+                        trackFragmentBuffer(count);
+                        readPosition += count;
+
+                        if (payloadPosition < length) {
+                            return;
+                        }
+                    } else {
+                        if (payloadPosition == 0) {
+                            if (available == 0) {
+                                return;
+                            }
+
+                            payload = new byte[length];
+                        }
+
+                        int count = Math.min(available, length - payloadPosition);
+                        System.arraycopy(readBuffer, readPosition, payload, payloadPosition, count);
+                        readPosition += count;
+                        payloadPosition += count;
+
+                        if (payloadPosition < length) {
+                            return;
+                        }
+
+                        if (isMasked) {
+                            Masker.mask(payload, 0, length, maskKey, 0);
+                        }
+
+                        emitFrame(payload, 0, length);
+                        payload = EMPTY;
+                    }
+
+                    stage = 0;
+                    releaseWakeLock();
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Whether the current data message goes out piece by piece, to a file or a stream listener,
+     * instead of being collected.
+     */
+    private boolean isChunked() {
+        return isSpilled() || (streamListener != null && FRAGMENTED_OPCODES.contains(opCode));
+    }
+
+    private boolean isSpilled() {
+        return spillListener != null && (opCode == OP_BINARY || (opCode == OP_CONTINUATION && mode == MODE_BINARY));
+    }
+
+    private int chunkThreshold() {
+        return isSpilled() ? spillThreshold : streamThreshold;
+    }
+
+    private void releaseWakeLock() {
+        if (wakeLock != null) {
+            wakeLock.release();
+        }
+    }
+
+    private void parseOpcode(byte data) throws ProtocolError {
+        if (wakeLock != null) {
+            wakeLock.acquire();
+        }
+
+        if (heartbeat != null) {
+            heartbeat.onFrame();
+        }
+
+        boolean rsv1 = (data & RSV1) == RSV1;
+        boolean rsv2 = (data & RSV2) == RSV2;
+        boolean rsv3 = (data & RSV3) == RSV3;
+
+        isFinal = (data & FIN) == FIN;
+        opCode = (data & OPCODE);
+
+        if (rsv2 || rsv3 || (rsv1 && (deflate == null || (opCode != OP_TEXT && opCode != OP_BINARY)))) {
+            throw new ProtocolError("RSV is not zero");
+        }
+
+        if (opCode == OP_TEXT || opCode == OP_BINARY) {
+            isCompressed = rsv1;
+        }
+        mask = EMPTY;
+        payload = EMPTY;
+        payloadPosition = 0;
+        maskPhase = 0;
+
+        if (!OPCODES.contains(opCode)) {
+            throw new ProtocolError("Bad opcode");
+        }
+
+        if (!FRAGMENTED_OPCODES.contains(opCode) && !isFinal) {
+            throw new ProtocolError("Expected non-final packet");
+        }
+
+        stage = 1;
+    }
+
+    private void parseLength(byte data) throws ProtocolError {
+        isMasked = (data & MASK) == MASK;
+        length = (data & LENGTH);
+
+        if (length >= 0 && length <= 125) {
+            stage = headerParsed(0);
+        } else {
+            lengthSize = (length == 126) ? 2 : 8;
+            stage = 2;
+        }
+    }
+
+    private void parseExtendedLength(byte[] buffer) throws ProtocolError {
+        length = getInteger(buffer);
+        stage = headerParsed(buffer.length);
+    }
+
+    /**
+     * Counts the frame once its length is known and returns the stage that reads the rest.
+     */
+    private int headerParsed(int extendedLengthSize) throws ProtocolError {
+        metrics.onFrameReceived(opCode, 2 + extendedLengthSize + (isMasked ? 4 : 0) + length);
+        checkLimits();
+
+        return isMasked ? 3 : 4;
+    }
+
+    /**
+     * Checks a frame against the limits as soon as its length is read, before anything is
+     * allocated for it.
+     */
+    private void checkLimits() throws ProtocolError {
+        if (opCode >= OP_CLOSE) {
+            if (length > 125) {
+                throw new ProtocolError("Control frame too large");
+            }
+
+            return;
+        }
+
+        if (opCode != OP_CONTINUATION) {
+            messageBytes = 0;
+        }
+
+        if (length > maxFrameBytes && !(isBuffered && isChunked())) {
+            failTooBig("Frame too large: " + length + " bytes");
+        }
+
+        // Compressed messages are counted as they inflate.
+        if (!isCompressed) {
+            messageBytes += length;
+
+            if (messageBytes > maxMessageBytes) {
+                failTooBig("Message too large: " + messageBytes + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Frames {@code data} as a text message. Uncompressed text is encoded straight into the frame,
+     * so the only allocation is the frame itself.
+     */
+    public byte[] frame(String data) {
+        if (isClosed || isCompressing()) {
+            return frame(data, OP_TEXT, -1);
+        }
+
+        synchronized (textEncoder) {
+            textEncoder.reset();
+            textEncoder.encodeText(data);
+
+            return textEncoder.toByteArray();
+        }
+    }
+
+    public byte[] frame(byte[] data) {
+        return frame(data, OP_BINARY, -1);
+    }
+
+    /**
+     * Frames UTF-8 bytes that are already encoded as a text message.
+     */
+    public byte[] frameText(byte[] data) {
+        return frame(data, OP_TEXT, -1);
+    }
+
+    private byte[] frame(byte[] data, int opcode, int errorCode)  {
+        return frame((Object)data, opcode, errorCode);
+    }
+
+    private byte[] frame(String data, int opcode, int errorCode) {
+        return frame((Object)data, opcode, errorCode);
+    }
+
+    private byte[] frame(Object data, int opcode, int errorCode) {
+        if (isClosed) {
+            return null;
+        }
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Creating frame for: " + data + " op: " + opcode + " err: " + errorCode);
+        }
+
+        byte[] buffer = (data instanceof String) ? decode((String) data) : (byte[]) data;
+        boolean compressed = isCompressing() && (opcode == OP_TEXT || opcode == OP_BINARY);
+
+        if (compressed) {
+            buffer = deflate.deflate(buffer);
+        }
+
+        return frame(buffer, 0, buffer.length, opcode, true, compressed, errorCode);
+    }
+
+    /**
+     * Frames one piece of a message sent in fragments: the first piece carries the message
+     * opcode, the rest are continuations, and only the last one has FIN set. Pieces of one
+     * message must not be interleaved with other data frames.
+     */
+    public byte[] fragment(byte[] data, int offset, int length, boolean isText, boolean isFirst, boolean isLast) {
+        if (isClosed) {
+            return null;
+        }
+
+        if (isFirst) {
+            isFragmentCompressed = isCompressing();
+        }
+
+        if (isFragmentCompressed) {
+            data = deflate.deflate(data, offset, length, isLast);
+            offset = 0;
+            length = data.length;
+        }
+
+        int opcode = isFirst ? (isText ? OP_TEXT : OP_BINARY) : OP_CONTINUATION;
+
+        return frame(data, offset, length, opcode, isLast, isFragmentCompressed && isFirst, -1);
+    }
+
+    /**
+     * Sends {@code data} as fragments of at most {@code fragmentSize} bytes, waiting for the
+     * queue to drain between them.
+     */
+    public void sendFragmented(byte[] data, int fragmentSize) {
+        sendFragmented(data, false, fragmentSize);
+    }
+
+    /**
+     * Like {@link #sendFragmented(byte[], int)}, as a text message when {@code isText}; the UTF-8
+     * bytes are split at fragment boundaries, which may fall inside a character.
+     */
+    public void sendFragmented(byte[] data, boolean isText, int fragmentSize) {
+        int offset = 0;
+
+        do {
+            int count = Math.min(fragmentSize, data.length - offset);
+            boolean isLast = offset + count == data.length;
+
+            if (!sendFragment(fragment(data, offset, count, isText, offset == 0, isLast), isLast)) {
+                return;
+            }
+
+            offset += count;
+        } while (offset < data.length);
+    }
+
+    /**
+     * Text counterpart of {@link #sendFragmented(byte[], int)}. Encodes one fragment's worth of
+     * characters at a time and never splits a surrogate pair.
+     */
+    public void sendFragmented(String data, int fragmentSize) {
+        int step = Math.max(2, fragmentSize / 3);
+        int start = 0;
+
+        do {
+            int end = Math.min(start + step, data.length());
+
+            if (end < data.length() && Character.isHighSurrogate(data.charAt(end - 1))) {
+                end--;
+            }
+
+            boolean isLast = end == data.length();
+            byte[] piece = decode(data.substring(start, end));
+
+            if (!sendFragment(fragment(piece, 0, piece.length, true, start == 0, isLast), isLast)) {
+                return;
+            }
+
+            start = end;
+        } while (start < data.length());
+    }
+
+    /**
+     * Streams {@code source} as one message until it is exhausted, reading at most
+     * {@code fragmentSize} bytes per fragment. Only one fragment is held at a time.
+     */
+    public void sendFragmented(InputStream source, boolean isText, int fragmentSize) throws IOException {
+        byte[] chunk = new byte[fragmentSize];
+        boolean isFirst = true;
+
+        while (true) {
+            int count = 0;
+            int read = 0;
+
+            while (count < chunk.length && (read = source.read(chunk, count, chunk.length - count)) != -1) {
+                count += read;
+            }
+
+            boolean isLast = read == -1;
+
+            if (!sendFragment(fragment(chunk, 0, count, isText, isFirst, isLast), isLast)) {
+                throw new IOException("Connection closed while sending.");
+            }
+
+            if (isLast) {
+                return;
+            }
+
+            isFirst = false;
+        }
+    }
+
+    private boolean sendFragment(byte[] frame, boolean isLast) {
+        if (frame == null) {
+            return false;
+        }
+
+        connection.sendFrame(frame);
+
+        return isLast || connection.awaitWritable();
+    }
+
+    private byte[] frame(byte[] buffer, int start, int count, int opcode, boolean fin, boolean compressed, int errorCode) {
+        int insert = (errorCode > 0) ? 2 : 0;
+        int length = count + insert;
+        int header = (length <= 125) ? 2 : (length <= 65535 ? 4 : 10);
+        int offset = header + (isMasking ? 4 : 0);
+        int masked = isMasking ? MASK : 0;
+        byte[] frame = new byte[length + offset];
+
+        frame[0] = (byte) ((fin ? (byte)FIN : 0) | (compressed ? (byte)RSV1 : 0) | (byte)opcode);
+
+        if (length <= 125) {
+            frame[1] = (byte) (masked | length);
+        } else if (length <= 65535) {
+            frame[1] = (byte) (masked | 126);
+            frame[2] = (byte) ((length >>> 8) & BYTE);
+            frame[3] = (byte) (length & BYTE);
+        } else {
+            // Payloads are int sized, so the upper four length bytes stay zero.
+            frame[1] = (byte) (masked | 127);
+            frame[6] = (byte) ((length >>> 24) & BYTE);
+            frame[7] = (byte) ((length >>> 16) & BYTE);
+            frame[8] = (byte) ((length >>> 8) & BYTE);
+            frame[9] = (byte) (length & BYTE);
+        }
+
+        if (errorCode > 0) {
+            frame[offset] = (byte) ((errorCode >>> 8) & BYTE);
+            frame[offset+1] = (byte) (errorCode & BYTE);
+        }
+
+        System.arraycopy(buffer, start, frame, offset + insert, count);
+
+        if (isMasking) {
+            int key = maskSource.nextMask();
+            Masker.putKey(frame, header, key);
+            Masker.mask(frame, offset, length, key, 0);
+        }
+
+        return frame;
+    }
+
+    public void ping(String message) {
+        connection.sendFrame(frame(message, OP_PING, -1));
+    }
+
+    public void ping(byte[] payload) {
+        connection.sendFrame(frame(payload, OP_PING, -1));
+    }
+
+    public void close(int code, String reason) {
+        if (isClosed) {
+            return;
+        }
+
+        connection.sendFrame(frame(reason, OP_CLOSE, code));
+        isClosed = true;
+    }
+
+    private void emitFrame(byte[] payload, int offset, int length) throws IOException {
+        int opcode = opCode;
+
+        if (isChunked() && (opcode == OP_CONTINUATION || !isFinal || isCompressed || length > chunkThreshold())) {
+            emitFragment(payload, offset, length, true);
+        } else if (isCompressed && (opcode == OP_CONTINUATION || opcode == OP_TEXT || opcode == OP_BINARY)) {
+            emitCompressed(payload, offset, length);
+        } else if (opcode == OP_CONTINUATION) {
+            if (mode == 0) {
+                throw new ProtocolError("Mode was not set.");
+            }
+
+            if (mode == MODE_TEXT && !isRaw) {
+                appendText(payload, offset, length);
+            } else {
+                buffer.write(payload, offset, length);
+            }
+
+            if (isFinal) {
+                emitBuffer();
+            }
+        } else if (opcode == OP_TEXT) {
+            if (isFinal) {
+                // A whole message in one frame only needs checking; the platform decoder is faster.
+                if (!utf8Decoder.validate(payload, offset, length) || !utf8Decoder.isComplete()) {
+                    failText();
+                }
+
+                utf8Decoder.reset();
+
+                if (isRaw) {
+                    emitRaw(payload, offset, length, true);
+                } else {
+                    String messageText = encode(payload, offset, length);
+                    connection.getListener().onMessage(messageText);
+                }
+            } else {
+                mode = MODE_TEXT;
+
+                if (isRaw) {
+                    buffer.write(payload, offset, length);
+                } else {
+                    appendText(payload, offset, length);
+                }
+            }
+        } else if (opcode == OP_BINARY) {
+            if (isFinal && isRaw) {
+                emitRaw(payload, offset, length, false);
+            } else if (isFinal) {
+                connection.getListener().onMessage(copyOfRange(payload, offset, offset + length));
+            } else {
+                mode = MODE_BINARY;
+                buffer.write(payload, offset, length);
+            }
+        } else if (opcode == OP_CLOSE) {
+            int code = (length >= 2) ? ((payload[offset] & BYTE) << 8) | (payload[offset + 1] & BYTE) : 0;
+            String reason = (length >  2) ? encode(payload, offset + 2, length - 2) : null;
+            connection.getListener().onDisconnect(code, reason);
+        } else if (opcode == OP_PING) {
+            if (length > 125) {
+                throw new ProtocolError("Ping payload too large");
+            }
+
+            connection.sendFrame(frame(copyOfRange(payload, offset, offset + length), OP_PONG, -1));
+        } else if (opcode == OP_PONG) {
+            if (heartbeat != null) {
+                heartbeat.onPong(payload, offset, length);
+            }
+
+            String message = encode(payload, offset, length);
+            Log.d(TAG, "Got pong message: " + message);
+        }
+
+        if (opcode <= OP_BINARY) {
+            trackFragmentBuffer(length);
+        }
+    }
+
+    /**
+     * Adds a data frame's payload to the fragmented message being collected, or reports 0 once it
+     * was delivered or handed to the stream listener.
+     */
+    private void trackFragmentBuffer(int length) {
+        fragmentBytes = (mode == 0 || isStreaming) ? 0 : fragmentBytes + length;
+        metrics.onFragmentBuffer(fragmentBytes);
+    }
+
+    /**
+     * Streaming path for data frames: collects the message until it outgrows the threshold, then
+     * hands what it has and everything after it to the stream listener. Called once per frame, or
+     * once per read for frames too large for the read buffer.
+     */
+    private void emitFragment(byte[] payload, int offset, int length, boolean frameDone) throws IOException {
+        if (opCode == OP_TEXT) {
+            mode = MODE_TEXT;
+        } else if (opCode == OP_BINARY) {
+            mode = MODE_BINARY;
+        } else if (mode == 0) {
+            throw new ProtocolError("Mode was not set.");
+        }
+
+        boolean messageDone = frameDone && isFinal;
+
+        if (isCompressed) {
+            inflate(payload, offset, length, messageDone);
+
+            if (isStreaming || buffer.size() > chunkThreshold()) {
+                startStreaming();
+            }
+        } else if (isStreaming || buffer.size() + length > chunkThreshold()) {
+            startStreaming();
+            streamData(payload, offset, length);
+        } else {
+            buffer.write(payload, offset, length);
+        }
+
+        if (messageDone) {
+            if (isStreaming) {
+                if (!utf8Decoder.isComplete()) {
+                    failText();
+                }
+
+                if (isSpilling) {
+                    SpilledMessage message = finishSpill();
+                    reset();
+                    spillListener.onMessage(message);
+                } else {
+                    streamListener.onMessageEnd();
+                    reset();
+                }
+            } else {
+                emitBuffer();
+            }
+        }
+    }
+
+    private void startStreaming() throws IOException {
+        if (!isStreaming) {
+            isStreaming = true;
+
+            if (isSpilled()) {
+                startSpill();
+            } else {
+                streamListener.onMessageStart(mode == MODE_TEXT);
+            }
+        }
+
+        if (buffer.size() > 0) {
+            streamData(buffer.array(), 0, buffer.size());
+            buffer.reset();
+        }
+    }
+
+    private void streamData(byte[] data, int offset, int length) throws IOException {
+        if (mode == MODE_TEXT && !utf8Decoder.validate(data, offset, length)) {
+            failText();
+        }
+
+        if (isSpilling) {
+            ByteBuffer source = ByteBuffer.wrap(data, offset, length);
+
+            while (source.hasRemaining()) {
+                spillChannel.write(source);
+            }
+        } else {
+            streamListener.onMessageData(data, offset, length);
+        }
+    }
+
+    private void startSpill() throws IOException {
+        discardSpill();
+        spillFile = File.createTempFile("message", ".spill", spillDirectory);
+        spillChannel = new RandomAccessFile(spillFile, "rw").getChannel();
+        isSpilling = true;
+    }
+
+    private SpilledMessage finishSpill() throws IOException {
+        SpilledMessage message = new SpilledMessage(spillFile, spillChannel.size());
+        spillChannel.close();
+        spillChannel = null;
+        spillFile = null;
+
+        return message;
+    }
+
+    private void discardSpill() {
+        if (spillChannel == null) {
+            return;
+        }
+
+        try {
+            spillChannel.close();
+        } catch (IOException e) {
+            // Deleted below either way.
+        }
+
+        if (!spillFile.delete()) {
+            Log.d(TAG, "Could not delete " + spillFile);
+        }
+
+        spillChannel = null;
+        spillFile = null;
+    }
+
+    /**
+     * Inflates into the message buffer, stopping as soon as the message outgrows its limit.
+     */
+    private void inflate(byte[] payload, int offset, int length, boolean isLast) throws IOException {
+        int before = buffer.size();
+        long allowance = maxMessageBytes - messageBytes;
+
+        try {
+            deflate.inflate(payload, offset, length, buffer, (allowance > Long.MAX_VALUE - before) ? Long.MAX_VALUE : before + allowance);
+
+            if (isLast && buffer.size() - before <= allowance) {
+                deflate.finish(buffer);
+            }
+        } catch (DataFormatException e) {
+            throw new ProtocolError("Bad compressed data: " + e.getMessage());
+        }
+
+        messageBytes += buffer.size() - before;
+
+        if (messageBytes > maxMessageBytes) {
+            failTooBig("Message too large: over " + maxMessageBytes + " bytes inflated");
+        }
+    }
+
+    private void emitCompressed(byte[] payload, int offset, int length) throws IOException {
+        if (opCode == OP_TEXT) {
+            mode = MODE_TEXT;
+        } else if (opCode == OP_BINARY) {
+            mode = MODE_BINARY;
+        } else if (mode == 0) {
+            throw new ProtocolError("Mode was not set.");
+        }
+
+        inflate(payload, offset, length, isFinal);
+
+        if (mode == MODE_TEXT && !isRaw) {
+            // Decoded fragment by fragment, so the inflated bytes never pile up.
+            appendText(buffer.array(), 0, buffer.size());
+            buffer.reset();
+        }
+
+        if (isFinal) {
+            emitBuffer();
+        }
+    }
+
+    private void emitBuffer() throws ProtocolError {
+        if (isRaw) {
+            // Raw text is collected unchecked and validated once, as a whole.
+            if (mode == MODE_TEXT && (!utf8Decoder.validate(buffer.array(), 0, buffer.size()) || !utf8Decoder.isComplete())) {
+                failText();
+            }
+
+            // reset() only rewinds the buffer, so its bytes stay intact for the call.
+            boolean isText = mode == MODE_TEXT;
+            byte[] message = buffer.array();
+            int size = buffer.size();
+            reset();
+            emitRaw(message, 0, size, isText);
+        } else if (mode == MODE_TEXT) {
+            appendText(buffer.array(), 0, buffer.size());
+
+            if (!utf8Decoder.isComplete()) {
+                failText();
+            }
+
+            String message = utf8Decoder.toString();
+            reset();
+            connection.getListener().onMessage(message);
+        } else {
+            byte[] message = buffer.toByteArray();
+            reset();
+            connection.getListener().onMessage(message);
+        }
+    }
+
+    private void emitRaw(byte[] data, int offset, int length, boolean isText) {
+        ((BaseWebsocketClient.RawMessageListener) connection.getListener()).onRawMessage(data, offset, length, isText);
+    }
+
+    private void appendText(byte[] data, int offset, int length) throws ProtocolError {
+        if (!utf8Decoder.decode(data, offset, length)) {
+            failText();
+        }
+    }
+
+    /**
+     * Invalid UTF-8 in a text message fails the connection with 1007, as RFC 6455 requires.
+     */
+    private void failText() throws ProtocolError {
+        reset();
+        close(CLOSE_INVALID_DATA, "Invalid UTF-8");
+        throw new ProtocolError("Invalid UTF-8 in text message");
+    }
+
+    /**
+     * A frame or message over its limit fails the connection with 1009.
+     */
+    private void failTooBig(String detail) throws ProtocolError {
+        reset();
+        close(CLOSE_MESSAGE_TOO_BIG, "Message too big");
+        throw new ProtocolError(detail);
+    }
+
+    /**
+     * Drops what is left of a connection that ended: a message still being received, its spill
+     * file, unread bytes and a close already sent, so the next connection starts clean.
+     */
+    public void discard() {
+        reset();
+        stage = 0;
+        readPosition = 0;
+        readLimit = 0;
+        payload = EMPTY;
+        payloadPosition = 0;
+        isClosed = false;
+    }
+
+    private void reset() {
+        mode = 0;
+        isCompressed = false;
+        isStreaming = false;
+        isSpilling = false;
+        discardSpill();
+        buffer.reset();
+        utf8Decoder.reset();
+    }
+
+    private String encode(byte[] buffer) {
+        return encode(buffer, 0, buffer.length);
+    }
+
+    private String encode(byte[] buffer, int offset, int length) {
+        try {
+            return new String(buffer, offset, length, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private byte[] decode(String string) {
+        try {
+            return (string).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private int getInteger(byte[] bytes) throws ProtocolError {
+        return getInteger(bytes, 0, bytes.length);
+    }
+
+    private int getInteger(byte[] bytes, int offset, int length) throws ProtocolError {
+        long i = byteArrayToLong(bytes, offset, length);
+
+        if (i < 0 || i > Integer.MAX_VALUE) {
+            throw new ProtocolError("Bad integer: " + i);
+        }
+
+        return (int) i;
+    }
+
+    private static byte[] copyOfRange(byte[] original, int start, int end) {
+        if (start > end) {
+            throw new IllegalArgumentException();
+        }
+
+        int originalLength = original.length;
+
+        if (start < 0 || start > originalLength) {
+            throw new ArrayIndexOutOfBoundsException();
+        }
+
+        int resultLength = end - start;
+        int copyLength = Math.min(resultLength, originalLength - start);
+        byte[] result = new byte[resultLength];
+        System.arraycopy(original, start, result, 0, copyLength);
+
+        return result;
+    }
+
+    private byte[] slice(byte[] array, int start) {
+        return copyOfRange(array, start, array.length);
+    }
+
+    private static long byteArrayToLong(byte[] b, int offset, int length) {
+        if (b.length < offset + length) {
+            throw new IllegalArgumentException("length must be less than or equal to b.length");
+        }
+
+        long value = 0;
+
+        for (int i = 0; i < length; i++) {
+            int shift = (length - 1 - i) * 8;
+            value += (long) (b[i + offset] & 0x000000FF) << shift;
+        }
+
+        return value;
+    }
+
+    public static class HappyDataInputStream extends DataInputStream {
+        public HappyDataInputStream(InputStream in) {
+            super(in);
+        }
+
+        public byte[] readBytes(int length) throws IOException {
+            byte[] buffer = new byte[length];
+
+            int total = 0;
+
+            while (total < length) {
+                int count = read(buffer, total, length - total);
+
+                if (count == -1) {
+                    break;
+                }
+
+                total += count;
+            }
+
+            if (total != length) {
+                throw new IOException(String.format("Read wrong number of bytes. Got: %s, Expected: %s.", total, length));
+            }
+
+            return buffer;
+        }
+    }
+
+    private static class MessageBuffer extends ByteArrayOutputStream {
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    public static class ProtocolError extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ProtocolError(String detailMessage) {
+            super(detailMessage);
+        }
+    }
+}
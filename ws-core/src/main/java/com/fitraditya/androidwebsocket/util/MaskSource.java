@@ -0,0 +1,36 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.security.SecureRandom;
+
+/**
+ * Per-connection supply of masking keys. Draws from {@link SecureRandom} a block at a time so a
+ * frame costs four array reads instead of a call into the random generator.
+ */
+
+public class MaskSource {
+    private static final int POOL_SIZE = 256;
+
+    private final SecureRandom random;
+    private final byte[] pool = new byte[POOL_SIZE];
+    private int position = POOL_SIZE;
+
+    public MaskSource() {
+        this(new SecureRandom());
+    }
+
+    public MaskSource(SecureRandom random) {
+        this.random = random;
+    }
+
+    public synchronized int nextMask() {
+        if (position == POOL_SIZE) {
+            random.nextBytes(pool);
+            position = 0;
+        }
+
+        int key = Masker.key(pool, position);
+        position += 4;
+
+        return key;
+    }
+}
@@ -0,0 +1,89 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * XORs payloads with a 4 byte masking key eight bytes at a time. Keys are big-endian ints, so the
+ * first key byte on the wire is the top byte of the int. The phase is the key byte the first
+ * payload byte lines up with, which lets a payload be masked in several pieces.
+ */
+
+public final class Masker {
+    private static final int WORD_THRESHOLD = 16;
+
+    private Masker() {
+        //
+    }
+
+    public static int key(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    public static void putKey(byte[] data, int offset, int key) {
+        data[offset] = (byte) (key >>> 24);
+        data[offset + 1] = (byte) (key >>> 16);
+        data[offset + 2] = (byte) (key >>> 8);
+        data[offset + 3] = (byte) key;
+    }
+
+    /**
+     * Masks {@code data[offset, offset + length)} in place and returns the phase of the next
+     * byte.
+     */
+    public static int mask(byte[] data, int offset, int length, int key, int phase) {
+        if (length < WORD_THRESHOLD) {
+            return maskBytes(data, offset, length, key, phase);
+        }
+
+        return mask(ByteBuffer.wrap(data), offset, length, key, phase);
+    }
+
+    /**
+     * Masks {@code length} bytes from the absolute index {@code offset} in place, without moving
+     * the buffer's position. Heap buffers are aligned to the backing array before the word loop.
+     */
+    public static int mask(ByteBuffer data, int offset, int length, int key, int phase) {
+        int end = offset + length;
+        int position = offset;
+
+        if (data.hasArray()) {
+            // Line the word loop up with 8 byte boundaries of the backing array.
+            int head = Math.min(length, (8 - ((data.arrayOffset() + offset) & 7)) & 7);
+
+            for (; position < offset + head; position++) {
+                data.put(position, (byte) (data.get(position) ^ (key >>> (24 - (phase << 3)))));
+                phase = (phase + 1) & 3;
+            }
+        }
+
+        ByteOrder order = data.order();
+        data.order(ByteOrder.BIG_ENDIAN);
+
+        int rotated = Integer.rotateLeft(key, phase << 3);
+        long word = ((long) rotated << 32) | (rotated & 0xffffffffL);
+
+        for (; position + 8 <= end; position += 8) {
+            data.putLong(position, data.getLong(position) ^ word);
+        }
+
+        data.order(order);
+
+        for (; position < end; position++) {
+            data.put(position, (byte) (data.get(position) ^ (key >>> (24 - (phase << 3)))));
+            phase = (phase + 1) & 3;
+        }
+
+        return phase;
+    }
+
+    private static int maskBytes(byte[] data, int offset, int length, int key, int phase) {
+        for (int i = offset; i < offset + length; i++) {
+            data[i] = (byte) (data[i] ^ (key >>> (24 - (phase << 3))));
+            phase = (phase + 1) & 3;
+        }
+
+        return phase;
+    }
+}
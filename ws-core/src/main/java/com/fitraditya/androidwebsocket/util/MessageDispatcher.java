@@ -0,0 +1,258 @@
+package com.fitraditya.androidwebsocket.util;
+
+import com.fitraditya.androidwebsocket.BaseWebsocketClient;
+import com.fitraditya.androidwebsocket.WebsocketMetrics;
+import com.fitraditya.androidwebsocket.platform.WakeLock;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Hands a connection's callbacks to an executor instead of running them on the reader thread.
+ * Callbacks run one at a time and in the order they were received, however many threads the
+ * executor has, so one executor can serve many connections.
+ *
+ * At most {@code capacity} messages wait in the queue. When it is full, the reader blocks in
+ * onMessage until the listener catches up; it stops reading meanwhile, and TCP flow control holds
+ * back the server instead of messages piling up in memory. PONGs are not read while it waits
+ * either, so keep the queue large enough that a heartbeat does not time out on a busy listener.
+ * Connect, disconnect and error callbacks never block and do not count against the capacity.
+ */
+
+public class MessageDispatcher implements BaseWebsocketClient.WebsocketListener, BaseWebsocketClient.RawMessageListener {
+    private static final int EVENT_CONNECT = 0;
+    private static final int EVENT_TEXT = 1;
+    private static final int EVENT_BINARY = 2;
+    private static final int EVENT_DISCONNECT = 3;
+    private static final int EVENT_ERROR = 4;
+    private static final int EVENT_RAW_TEXT = 5;
+    private static final int EVENT_RAW_BINARY = 6;
+
+    private final Executor executor;
+    private final int capacity;
+    private final BaseWebsocketClient.WebsocketListener listener;
+    private final WakeLock wakeLock;
+    private final ArrayDeque<Event> queue = new ArrayDeque<>();
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private volatile WebsocketMetrics metrics = WebsocketMetrics.NONE;
+
+    private int messages;
+    private boolean isDraining;
+
+    private static class Event {
+        final int type;
+        final int code;
+        final Object value;
+        final long queuedAt;
+
+        Event(int type, int code, Object value) {
+            this.type = type;
+            this.code = code;
+            this.value = value;
+            this.queuedAt = System.nanoTime();
+        }
+    }
+
+    /**
+     * {@code wakeLock} may be null; otherwise it is held from the moment a callback is queued
+     * until it has run, so the device does not sleep on undelivered messages.
+     */
+    public MessageDispatcher(Executor executor, int capacity, BaseWebsocketClient.WebsocketListener listener, WakeLock wakeLock) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1.");
+        }
+
+        this.executor = executor;
+        this.capacity = capacity;
+        this.listener = listener;
+        this.wakeLock = wakeLock;
+    }
+
+    /**
+     * Reports how long each callback waited in the queue, the queue's depth, and how long the
+     * reader was held up by a full queue.
+     */
+    public void setMetrics(WebsocketMetrics metrics) {
+        this.metrics = (metrics != null) ? metrics : WebsocketMetrics.NONE;
+    }
+
+    public BaseWebsocketClient.WebsocketListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Messages waiting to be delivered.
+     */
+    public synchronized int getQueuedMessages() {
+        return messages;
+    }
+
+    @Override
+    public void onConnect() {
+        enqueue(new Event(EVENT_CONNECT, 0, null));
+    }
+
+    @Override
+    public void onMessage(String message) {
+        enqueue(new Event(EVENT_TEXT, 0, message));
+    }
+
+    @Override
+    public void onMessage(byte[] data) {
+        enqueue(new Event(EVENT_BINARY, 0, data));
+    }
+
+    /**
+     * Only called when the wrapped listener is a RawMessageListener. The bytes are copied, since
+     * the parser reuses them.
+     */
+    @Override
+    public void onRawMessage(byte[] data, int offset, int length, boolean isText) {
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+        enqueue(new Event(isText ? EVENT_RAW_TEXT : EVENT_RAW_BINARY, 0, copy));
+    }
+
+    @Override
+    public void onDisconnect(int code, String reason) {
+        enqueue(new Event(EVENT_DISCONNECT, code, reason));
+    }
+
+    @Override
+    public void onError(Exception error) {
+        enqueue(new Event(EVENT_ERROR, 0, error));
+    }
+
+    private void enqueue(Event event) {
+        boolean isMessage = isMessage(event);
+        boolean startDrain;
+        int depth;
+
+        if (wakeLock != null) {
+            wakeLock.acquire();
+        }
+
+        synchronized (this) {
+            if (isMessage && messages >= capacity) {
+                awaitSpace();
+            }
+
+            queue.offer(event);
+            depth = isMessage ? ++messages : messages;
+            startDrain = !isDraining;
+            isDraining = true;
+        }
+
+        metrics.onDispatchQueue(depth);
+
+        if (startDrain) {
+            try {
+                executor.execute(drainRunnable);
+            } catch (RejectedExecutionException e) {
+                // A shut down executor must not strand the queue; deliver on this thread instead.
+                drain();
+            }
+        }
+    }
+
+    /**
+     * Blocks the reader until the listener has taken a message off a full queue. Called with the
+     * monitor held.
+     */
+    private void awaitSpace() {
+        long start = System.nanoTime();
+        boolean isInterrupted = false;
+
+        while (messages >= capacity) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                isInterrupted = true;
+            }
+        }
+
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        metrics.onReadStalled(System.nanoTime() - start);
+    }
+
+    private void drain() {
+        while (true) {
+            Event event;
+            int depth;
+
+            synchronized (this) {
+                event = queue.poll();
+
+                if (event == null) {
+                    isDraining = false;
+                    return;
+                }
+
+                if (isMessage(event)) {
+                    if (messages-- == capacity) {
+                        notifyAll();
+                    }
+                }
+
+                depth = messages;
+            }
+
+            WebsocketMetrics metrics = this.metrics;
+            metrics.onDispatchQueue(depth);
+            metrics.onDispatch(System.nanoTime() - event.queuedAt);
+
+            try {
+                deliver(event);
+            } catch (RuntimeException e) {
+                // A throwing listener must not stop the queue; later callbacks still run.
+                if (event.type != EVENT_ERROR) {
+                    listener.onError(e);
+                }
+            } finally {
+                if (wakeLock != null) {
+                    wakeLock.release();
+                }
+            }
+        }
+    }
+
+    private static boolean isMessage(Event event) {
+        return event.type == EVENT_TEXT || event.type == EVENT_BINARY || event.type >= EVENT_RAW_TEXT;
+    }
+
+    private void deliver(Event event) {
+        switch (event.type) {
+            case EVENT_CONNECT:
+                listener.onConnect();
+                break;
+            case EVENT_TEXT:
+                listener.onMessage((String) event.value);
+                break;
+            case EVENT_BINARY:
+                listener.onMessage((byte[]) event.value);
+                break;
+            case EVENT_RAW_TEXT:
+            case EVENT_RAW_BINARY:
+                byte[] data = (byte[]) event.value;
+                ((BaseWebsocketClient.RawMessageListener) listener).onRawMessage(data, 0, data.length, event.type == EVENT_RAW_TEXT);
+                break;
+            case EVENT_DISCONNECT:
+                listener.onDisconnect(event.code, (String) event.value);
+                break;
+            default:
+                listener.onError((Exception) event.value);
+                break;
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package com.fitraditya.androidwebsocket.util;
+
+import com.fitraditya.androidwebsocket.platform.Log;
+import com.fitraditya.androidwebsocket.platform.Scheduler;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of outgoing messages in memory-mapped segment files, so messages sent while the
+ * connection is down, or written but not yet acknowledged, survive a reconnect and the process
+ * dying. Each message gets a sequence number; acknowledging one drops it and everything before,
+ * and a segment whose messages are all acknowledged is deleted. Segments roll over at a fixed
+ * size and the whole journal is bounded.
+ *
+ * Appends only copy into the mapping, which the kernel owns, so a crash of the process loses
+ * nothing. Syncing to the disk happens as a group commit at most once per commit interval, so a
+ * burst of messages costs one sync; power loss may take the last interval with it. Each record
+ * carries a CRC32 and a torn record ends the segment on recovery.
+ *
+ * Segment layout: magic, base sequence and acknowledged sequence, then records of a length,
+ * a type byte, the payload and the CRC. A zero length marks the end.
+ */
+
+public class OutboundJournal {
+    private static final String TAG = OutboundJournal.class.getSimpleName();
+
+    public static final int DEFAULT_SEGMENT_BYTES = 1024 * 1024;
+    public static final long DEFAULT_COMMIT_MILLIS = 100;
+
+    private static final String SUFFIX = ".journal";
+    private static final int MAGIC = 0x574A4E31;
+    private static final int HEADER_BYTES = 24;
+    private static final int BASE_OFFSET = 8;
+    private static final int ACKNOWLEDGED_OFFSET = 16;
+
+    // Length and CRC around the type byte and payload.
+    private static final int RECORD_OVERHEAD = 8;
+    private static final byte TYPE_TEXT = 1;
+    private static final byte TYPE_BINARY = 2;
+
+    private final File directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final Scheduler scheduler;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+
+    private final Runnable commitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            commit();
+        }
+    };
+
+    private long nextSequence;
+    private long acknowledged = -1;
+    private long sizeBytes;
+    private long commitMillis = DEFAULT_COMMIT_MILLIS;
+    private boolean isCommitScheduled;
+
+    public interface Replay {
+        public void onRecord(long sequence, byte[] data, boolean isText);
+    }
+
+    private static class Segment {
+        final File file;
+        final MappedByteBuffer buffer;
+        final long base;
+        int count;
+        int position = HEADER_BYTES;
+        boolean isDirty;
+
+        Segment(File file, MappedByteBuffer buffer, long base) {
+            this.file = file;
+            this.buffer = buffer;
+            this.base = base;
+        }
+
+        long last() {
+            return base + count - 1;
+        }
+    }
+
+    /**
+     * Opens the journal in {@code directory}, creating it if needed, and recovers the messages a
+     * previous process left unacknowledged. Segments are {@code segmentBytes} long, or longer for
+     * a message that would not fit one; all of them together stay within {@code maxBytes}.
+     * Commits are posted to {@code scheduler}.
+     */
+    public OutboundJournal(File directory, int segmentBytes, long maxBytes, Scheduler scheduler) throws IOException {
+        if (segmentBytes <= HEADER_BYTES || maxBytes < segmentBytes) {
+            throw new IllegalArgumentException("Journal must satisfy header < segment <= max.");
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.scheduler = scheduler;
+
+        recover();
+    }
+
+    /**
+     * Longest a written message waits for its sync to the disk, in milliseconds. 0 syncs on
+     * every append.
+     */
+    public synchronized void setCommitMillis(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Commit interval must not be negative.");
+        }
+
+        commitMillis = millis;
+    }
+
+    /**
+     * Records a message and returns its sequence number. Throws when the journal is full of
+     * unacknowledged messages.
+     */
+    public synchronized long append(byte[] data, boolean isText) throws IOException {
+        int length = RECORD_OVERHEAD + 1 + data.length;
+        Segment tail = segments.peekLast();
+
+        if (tail == null || tail.position + length > tail.buffer.capacity()) {
+            tail = roll(length);
+        }
+
+        ByteBuffer buffer = tail.buffer;
+        byte type = isText ? TYPE_TEXT : TYPE_BINARY;
+
+        crc.reset();
+        crc.update(type);
+        crc.update(data, 0, data.length);
+
+        buffer.position(tail.position + 4);
+        buffer.put(type);
+        buffer.put(data);
+        buffer.putInt((int) crc.getValue());
+
+        // The length goes in last: until it does, recovery sees the end of the segment here.
+        buffer.putInt(tail.position, 1 + data.length);
+
+        tail.position += length;
+        tail.count++;
+        tail.isDirty = true;
+        scheduleCommit();
+
+        return nextSequence++;
+    }
+
+    /**
+     * Drops every message up to and including {@code sequence}, deleting segments left empty.
+     */
+    public synchronized void acknowledge(long sequence) {
+        sequence = Math.min(sequence, nextSequence - 1);
+
+        if (sequence <= acknowledged) {
+            return;
+        }
+
+        acknowledged = sequence;
+
+        while (segments.size() > 1 && segments.peekFirst().last() <= acknowledged) {
+            delete(segments.pollFirst());
+        }
+
+        Segment head = segments.peekFirst();
+
+        if (head != null) {
+            head.buffer.putLong(ACKNOWLEDGED_OFFSET, acknowledged);
+            head.isDirty = true;
+            scheduleCommit();
+        }
+    }
+
+    /**
+     * Passes every unacknowledged message to {@code replay}, oldest first, and returns how many.
+     * The journal is not locked during the calls, so they may send, append and acknowledge.
+     */
+    public int replay(Replay replay) {
+        List<Segment> snapshot;
+        long from;
+        int[] ends;
+
+        synchronized (this) {
+            snapshot = new ArrayList<>(segments);
+            from = acknowledged + 1;
+            ends = new int[snapshot.size()];
+
+            for (int i = 0; i < ends.length; i++) {
+                ends[i] = snapshot.get(i).position;
+            }
+        }
+
+        int count = 0;
+
+        for (int i = 0; i < ends.length; i++) {
+            Segment segment = snapshot.get(i);
+            // Records below the snapshot's end never change; read them through a private view.
+            ByteBuffer buffer = segment.buffer.duplicate();
+            long sequence = segment.base;
+            int position = HEADER_BYTES;
+
+            while (position < ends[i]) {
+                int size = buffer.getInt(position);
+
+                if (sequence >= from) {
+                    byte[] data = new byte[size - 1];
+                    buffer.position(position + 5);
+                    buffer.get(data);
+                    replay.onRecord(sequence, data, buffer.get(position + 4) == TYPE_TEXT);
+                    count++;
+                }
+
+                position += RECORD_OVERHEAD + size;
+                sequence++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Messages appended and not yet acknowledged.
+     */
+    public synchronized long getPendingCount() {
+        return nextSequence - 1 - acknowledged;
+    }
+
+    /**
+     * Bytes the segment files take on disk.
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Syncs everything written so far to the disk.
+     */
+    public void commit() {
+        List<MappedByteBuffer> dirty = new ArrayList<>();
+
+        synchronized (this) {
+            isCommitScheduled = false;
+
+            for (Segment segment : segments) {
+                if (segment.isDirty) {
+                    segment.isDirty = false;
+                    dirty.add(segment.buffer);
+                }
+            }
+        }
+
+        // Outside the lock, so appends carry on during the sync.
+        for (MappedByteBuffer buffer : dirty) {
+            buffer.force();
+        }
+    }
+
+    private void scheduleCommit() {
+        if (commitMillis == 0) {
+            isCommitScheduled = true;
+            scheduler.post(commitRunnable);
+        } else if (!isCommitScheduled) {
+            isCommitScheduled = true;
+            scheduler.postDelayed(commitRunnable, commitMillis);
+        }
+    }
+
+    private Segment roll(int length) throws IOException {
+        Segment tail = segments.peekLast();
+
+        if (tail != null && tail.last() <= acknowledged) {
+            // Everything in it was acknowledged; it only stayed to take appends.
+            segments.pollLast();
+            delete(tail);
+        } else if (tail != null && tail.isDirty) {
+            tail.buffer.force();
+            tail.isDirty = false;
+        }
+
+        int capacity = Math.max(segmentBytes, HEADER_BYTES + length);
+
+        if (sizeBytes + capacity > maxBytes) {
+            throw new IOException("Outbound journal is full: " + getPendingCount() + " messages in " + sizeBytes + " bytes.");
+        }
+
+        File file = new File(directory, String.format("%020d%s", nextSequence, SUFFIX));
+        Segment segment = new Segment(file, map(file, capacity), nextSequence);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putLong(BASE_OFFSET, nextSequence);
+        segment.buffer.putLong(ACKNOWLEDGED_OFFSET, acknowledged);
+        segments.addLast(segment);
+        sizeBytes += capacity;
+
+        return segment;
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(SUFFIX);
+            }
+        });
+
+        if (files == null) {
+            throw new IOException("Cannot list journal directory " + directory);
+        }
+
+        // Zero-padded base sequences, so names sort in sequence order.
+        Arrays.sort(files);
+
+        for (File file : files) {
+            long length = file.length();
+
+            if (length < HEADER_BYTES || length > Integer.MAX_VALUE) {
+                delete(file);
+                continue;
+            }
+
+            MappedByteBuffer buffer = map(file, (int) length);
+
+            if (buffer.getInt(0) != MAGIC || buffer.getLong(BASE_OFFSET) < nextSequence) {
+                Log.d(TAG, "Dropping damaged journal segment " + file.getName());
+                delete(file);
+                continue;
+            }
+
+            Segment segment = new Segment(file, buffer, buffer.getLong(BASE_OFFSET));
+            scan(segment);
+
+            if (segments.isEmpty()) {
+                // Whatever came before the oldest segment was acknowledged and deleted.
+                acknowledged = segment.base - 1;
+            }
+
+            acknowledged = Math.max(acknowledged, buffer.getLong(ACKNOWLEDGED_OFFSET));
+            nextSequence = segment.base + segment.count;
+            segments.addLast(segment);
+            sizeBytes += length;
+        }
+
+        while (segments.size() > 1 && segments.peekFirst().last() <= acknowledged) {
+            delete(segments.pollFirst());
+        }
+
+        if (!segments.isEmpty()) {
+            Log.d(TAG, "Recovered " + getPendingCount() + " unacknowledged messages");
+        }
+    }
+
+    /**
+     * Counts the intact records in a recovered segment and leaves its position after the last.
+     */
+    private void scan(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int capacity = buffer.capacity();
+        int position = HEADER_BYTES;
+
+        while (position + RECORD_OVERHEAD + 1 <= capacity) {
+            int size = buffer.getInt(position);
+
+            if (size < 1 || size > capacity - position - RECORD_OVERHEAD) {
+                break;
+            }
+
+            crc.reset();
+
+            for (int i = position + 4; i < position + 4 + size; i++) {
+                crc.update(buffer.get(i));
+            }
+
+            if ((int) crc.getValue() != buffer.getInt(position + 4 + size)) {
+                Log.d(TAG, "Torn record at " + position + " in " + segment.file.getName());
+                break;
+            }
+
+            position += RECORD_OVERHEAD + size;
+            segment.count++;
+        }
+
+        segment.position = position;
+
+        if (position + 4 <= capacity) {
+            // A torn record's length may be set; clear it so an append here is not misread.
+            buffer.putInt(position, 0);
+        }
+    }
+
+    private void delete(Segment segment) {
+        sizeBytes -= segment.buffer.capacity();
+        delete(segment.file);
+    }
+
+    private static void delete(File file) {
+        if (!file.delete()) {
+            Log.d(TAG, "Cannot delete journal segment " + file.getName());
+        }
+    }
+
+    private static MappedByteBuffer map(File file, int capacity) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+
+        try {
+            // The mapping stays valid after the file is closed.
+            return access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } finally {
+            access.close();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-producer, single-consumer queue of encoded frames waiting for the socket. Tracks the
+ * queued byte count against a high and low watermark and reports when the connection stops or
+ * starts being writable, so senders can back off instead of queueing without bound.
+ *
+ * Pings and pongs skip ahead of queued data frames, so heartbeats are not held up behind a large
+ * message being sent in fragments. Close frames keep their place after the data sent before them.
+ */
+
+public class OutboundQueue {
+    public static final int DEFAULT_LOW_WATERMARK = 256 * 1024;
+    public static final int DEFAULT_HIGH_WATERMARK = 1024 * 1024;
+
+    private static final int OPCODE = 15;
+    private static final int OP_PING = 9;
+    private static final int OP_PONG = 10;
+
+    private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<byte[]> controlQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicBoolean writable = new AtomicBoolean(true);
+
+    private volatile int lowWatermark = DEFAULT_LOW_WATERMARK;
+    private volatile int highWatermark = DEFAULT_HIGH_WATERMARK;
+    private volatile WritabilityListener writabilityListener;
+
+    public interface WritabilityListener {
+        public void onWritabilityChanged(boolean writable);
+    }
+
+    public void setWatermarks(int low, int high) {
+        if (low < 0 || high < low) {
+            throw new IllegalArgumentException("Expected 0 <= low <= high.");
+        }
+
+        lowWatermark = low;
+        highWatermark = high;
+    }
+
+    public void setWritabilityListener(WritabilityListener listener) {
+        writabilityListener = listener;
+    }
+
+    public void offer(byte[] frame) {
+        int opcode = frame[0] & OPCODE;
+
+        if (opcode == OP_PING || opcode == OP_PONG) {
+            controlQueue.offer(frame);
+        } else {
+            queue.offer(frame);
+        }
+
+        if (pendingBytes.addAndGet(frame.length) > highWatermark && writable.get()) {
+            updateWritability();
+        }
+    }
+
+    public byte[] poll() {
+        byte[] frame = controlQueue.poll();
+
+        if (frame == null) {
+            frame = queue.poll();
+        }
+
+        if (frame != null && pendingBytes.addAndGet(-frame.length) <= lowWatermark && !writable.get()) {
+            updateWritability();
+        }
+
+        return frame;
+    }
+
+    public void clear() {
+        while (poll() != null) {
+            // Drop everything, letting the watermark logic see each frame leave.
+        }
+    }
+
+    public boolean isEmpty() {
+        return controlQueue.isEmpty() && queue.isEmpty();
+    }
+
+    /**
+     * Blocks until the queue is writable again or {@code timeoutMillis} passes. Returns whether
+     * it is writable.
+     */
+    public boolean awaitWritable(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+
+        synchronized (writable) {
+            while (!writable.get()) {
+                long remaining = deadline - System.currentTimeMillis();
+
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                writable.wait(remaining);
+            }
+        }
+
+        return true;
+    }
+
+    public boolean isWritable() {
+        return writable.get();
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * Flips writability when the count has crossed a watermark. The count is read again under the
+     * lock, after the caller's own update, so an offer and a poll racing past each other cannot
+     * leave an empty queue unwritable. The listener is called under the lock too, so it hears the
+     * flips in the order they happened.
+     */
+    private void updateWritability() {
+        synchronized (writable) {
+            long pending = pendingBytes.get();
+
+            if (writable.get() && pending > highWatermark) {
+                writable.set(false);
+                notifyWritability(false);
+            } else if (!writable.get() && pending <= lowWatermark) {
+                writable.set(true);
+                writable.notifyAll();
+                notifyWritability(true);
+            }
+        }
+    }
+
+    private void notifyWritability(boolean isWritable) {
+        WritabilityListener listener = writabilityListener;
+
+        if (listener != null) {
+            listener.onWritabilityChanged(isWritable);
+        }
+    }
+}
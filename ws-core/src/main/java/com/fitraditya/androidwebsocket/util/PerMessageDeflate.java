@@ -0,0 +1,365 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * permessage-deflate (RFC 7692) negotiation and codec state for one connection.
+ *
+ * {@link java.util.zip.Deflater} always compresses with a 15 bit window, so the client window is
+ * never offered for negotiation. The server window and both context takeover modes are
+ * configurable.
+ */
+
+public class PerMessageDeflate {
+    public static final String EXTENSION = "permessage-deflate";
+
+    private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+    private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+    private static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+    private static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+    private static final byte[] TAIL = { 0x00, 0x00, (byte) 0xff, (byte) 0xff };
+    private static final int CHUNK_SIZE = 8192;
+
+    private int serverMaxWindowBits = 15;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private boolean serverNoContextTakeover;
+    private boolean clientNoContextTakeover;
+    private boolean enabled = true;
+
+    private boolean resetInflater;
+    private boolean resetDeflater;
+    private boolean syncFlush = true;
+
+    private Deflater deflater;
+    private Inflater inflater;
+    private byte[] deflateChunk = new byte[CHUNK_SIZE];
+    private byte[] inflateChunk = new byte[CHUNK_SIZE];
+    private ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+
+    private long rawBytesOut;
+    private long compressedBytesOut;
+    private long rawBytesIn;
+    private long compressedBytesIn;
+    private long deflateNanos;
+    private long inflateNanos;
+
+    public PerMessageDeflate setServerMaxWindowBits(int bits) {
+        if (bits < 8 || bits > 15) {
+            throw new IllegalArgumentException("Window bits must be between 8 and 15.");
+        }
+
+        serverMaxWindowBits = bits;
+        return this;
+    }
+
+    public PerMessageDeflate setServerNoContextTakeover(boolean noContextTakeover) {
+        serverNoContextTakeover = noContextTakeover;
+        return this;
+    }
+
+    public PerMessageDeflate setClientNoContextTakeover(boolean noContextTakeover) {
+        clientNoContextTakeover = noContextTakeover;
+        return this;
+    }
+
+    public PerMessageDeflate setCompressionLevel(int level) {
+        compressionLevel = level;
+        return this;
+    }
+
+    /**
+     * Outbound compression toggle. Disabled connections still negotiate the extension and inflate
+     * what the server sends, but every outgoing message goes out as a plain frame.
+     */
+    public PerMessageDeflate setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String offer() {
+        StringBuilder offer = new StringBuilder(EXTENSION);
+
+        if (serverMaxWindowBits < 15) {
+            offer.append("; ").append(SERVER_MAX_WINDOW_BITS).append('=').append(serverMaxWindowBits);
+        }
+
+        if (serverNoContextTakeover) {
+            offer.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+        }
+
+        if (clientNoContextTakeover) {
+            offer.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+        }
+
+        return offer.toString();
+    }
+
+    /**
+     * Applies the server's Sec-WebSocket-Extensions response. Returns false when the server did
+     * not accept the extension.
+     */
+    public synchronized boolean accept(String header) throws HttpException {
+        if (header == null) {
+            return false;
+        }
+
+        boolean accepted = false;
+
+        for (String extension : header.split(",")) {
+            String[] params = extension.split(";");
+
+            if (!EXTENSION.equals(params[0].trim())) {
+                throw new HttpException("Unexpected extension: " + params[0].trim());
+            }
+
+            if (accepted) {
+                throw new HttpException("Extension accepted more than once.");
+            }
+
+            resetInflater = false;
+            resetDeflater = clientNoContextTakeover;
+
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                String value = null;
+                int equals = param.indexOf('=');
+
+                if (equals != -1) {
+                    value = param.substring(equals + 1).trim().replace("\"", "");
+                    param = param.substring(0, equals).trim();
+                }
+
+                if (SERVER_NO_CONTEXT_TAKEOVER.equals(param)) {
+                    resetInflater = true;
+                } else if (CLIENT_NO_CONTEXT_TAKEOVER.equals(param)) {
+                    resetDeflater = true;
+                } else if (SERVER_MAX_WINDOW_BITS.equals(param)) {
+                    int bits = parseWindowBits(value);
+
+                    if (bits > serverMaxWindowBits) {
+                        throw new HttpException("Server window larger than offered: " + bits);
+                    }
+                } else {
+                    // client_max_window_bits was never offered, so it may not be answered either.
+                    throw new HttpException("Unexpected extension parameter: " + param);
+                }
+            }
+
+            accepted = true;
+        }
+
+        if (accepted) {
+            reset();
+        }
+
+        return accepted;
+    }
+
+    private static int parseWindowBits(String value) throws HttpException {
+        try {
+            int bits = Integer.parseInt(value);
+
+            if (bits >= 8 && bits <= 15) {
+                return bits;
+            }
+        } catch (NumberFormatException e) {
+            // Fall through.
+        }
+
+        throw new HttpException("Bad window bits: " + value);
+    }
+
+    public synchronized void reset() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+    }
+
+    /**
+     * Compresses one whole message and strips the trailing empty block as the extension requires.
+     */
+    public byte[] deflate(byte[] data) {
+        return deflate(data, 0, data.length, true);
+    }
+
+    /**
+     * Compresses one piece of a message. Pieces have to be passed in order, the last one with
+     * {@code isFinal} set; only that one is trimmed and may reset the context.
+     */
+    public synchronized byte[] deflate(byte[] data, int offset, int length, boolean isFinal) {
+        long start = System.nanoTime();
+
+        if (deflater == null) {
+            deflater = new Deflater(compressionLevel, true);
+        }
+
+        deflated.reset();
+        deflater.setInput(data, offset, length);
+
+        if (syncFlush) {
+            try {
+                int count;
+
+                do {
+                    count = deflater.deflate(deflateChunk, 0, deflateChunk.length, Deflater.SYNC_FLUSH);
+                    deflated.write(deflateChunk, 0, count);
+                } while (count == deflateChunk.length);
+            } catch (NoSuchMethodError e) {
+                // Deflater has no SYNC_FLUSH before API 19; close each message with a final block.
+                syncFlush = false;
+            }
+        }
+
+        if (!syncFlush) {
+            if (isFinal) {
+                deflater.finish();
+            }
+
+            while (isFinal ? !deflater.finished() : !deflater.needsInput()) {
+                int count = deflater.deflate(deflateChunk);
+                deflated.write(deflateChunk, 0, count);
+            }
+        }
+
+        byte[] result = deflated.toByteArray();
+        int resultLength = result.length;
+
+        if (isFinal && endsWithTail(result, resultLength)) {
+            resultLength -= TAIL.length;
+        }
+
+        if (isFinal && (resetDeflater || !syncFlush)) {
+            deflater.reset();
+        }
+
+        rawBytesOut += length;
+        compressedBytesOut += resultLength;
+        deflateNanos += System.nanoTime() - start;
+
+        if (isFinal && resultLength == 0) {
+            // Nothing was pending, so the receiver's appended tail needs an empty block header.
+            return new byte[] { 0x00 };
+        }
+
+        return (resultLength == result.length) ? result : copyOf(result, resultLength);
+    }
+
+    /**
+     * Inflates one fragment of a compressed message into {@code out}. Fragments have to arrive in
+     * order; call {@link #finish(ByteArrayOutputStream)} after the final one.
+     */
+    public void inflate(byte[] data, int offset, int length, ByteArrayOutputStream out) throws DataFormatException {
+        inflate(data, offset, length, out, Long.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #inflate(byte[], int, int, ByteArrayOutputStream)}, but stops once {@code out}
+     * holds more than {@code limit} bytes, so a small frame cannot inflate into a huge message.
+     * The rest of the input is left unread; the connection has to be closed after that.
+     */
+    public synchronized void inflate(byte[] data, int offset, int length, ByteArrayOutputStream out, long limit) throws DataFormatException {
+        long start = System.nanoTime();
+
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+
+        compressedBytesIn += length;
+        inflater.setInput(data, offset, length);
+        drain(out, limit);
+        inflateNanos += System.nanoTime() - start;
+    }
+
+    public synchronized void finish(ByteArrayOutputStream out) throws DataFormatException {
+        long start = System.nanoTime();
+
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+
+        if (!inflater.finished()) {
+            inflater.setInput(TAIL);
+            drain(out, Long.MAX_VALUE);
+        }
+
+        if (resetInflater || inflater.finished()) {
+            inflater.reset();
+        }
+
+        inflateNanos += System.nanoTime() - start;
+    }
+
+    private void drain(ByteArrayOutputStream out, long limit) throws DataFormatException {
+        while (out.size() <= limit) {
+            int count = inflater.inflate(inflateChunk);
+
+            if (count > 0) {
+                out.write(inflateChunk, 0, count);
+                rawBytesIn += count;
+            } else if (inflater.needsDictionary()) {
+                throw new DataFormatException("Preset dictionaries are not supported.");
+            } else if (inflater.needsInput() || inflater.finished()) {
+                return;
+            }
+        }
+    }
+
+    private static boolean endsWithTail(byte[] data, int length) {
+        if (length < TAIL.length) {
+            return false;
+        }
+
+        for (int i = 0; i < TAIL.length; i++) {
+            if (data[length - TAIL.length + i] != TAIL[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static byte[] copyOf(byte[] data, int length) {
+        byte[] result = new byte[length];
+        System.arraycopy(data, 0, result, 0, length);
+
+        return result;
+    }
+
+    public synchronized long getRawBytesOut() {
+        return rawBytesOut;
+    }
+
+    public synchronized long getCompressedBytesOut() {
+        return compressedBytesOut;
+    }
+
+    public synchronized long getRawBytesIn() {
+        return rawBytesIn;
+    }
+
+    public synchronized long getCompressedBytesIn() {
+        return compressedBytesIn;
+    }
+
+    public synchronized long getDeflateNanos() {
+        return deflateNanos;
+    }
+
+    public synchronized long getInflateNanos() {
+        return inflateNanos;
+    }
+}
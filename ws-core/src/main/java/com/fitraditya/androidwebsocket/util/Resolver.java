@@ -0,0 +1,20 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Turns a host name into the addresses to connect to, in the order to try them. Plug in your own
+ * to use DNS-over-HTTPS, a pinned address list, or a stand-in during tests.
+ */
+
+public interface Resolver {
+    public static final Resolver SYSTEM = new Resolver() {
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            return InetAddress.getAllByName(host);
+        }
+    };
+
+    public InetAddress[] resolve(String host) throws UnknownHostException;
+}
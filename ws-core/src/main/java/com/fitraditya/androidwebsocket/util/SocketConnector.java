@@ -0,0 +1,187 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Opens a TCP connection to whichever of a host's addresses answers first, in the style of
+ * Happy Eyeballs (RFC 8305). Address families are interleaved and a new attempt starts every
+ * {@code attemptDelay} milliseconds, or as soon as the previous one fails, so an unreachable IPv6
+ * route costs a fraction of a second instead of the operating system's connect timeout. The
+ * attempts that lose are closed.
+ */
+
+public class SocketConnector {
+    public static final int DEFAULT_ATTEMPT_DELAY = 250;
+
+    private final int attemptDelay;
+
+    public SocketConnector(int attemptDelay) {
+        this.attemptDelay = attemptDelay;
+    }
+
+    /**
+     * Returns a connected socket, or throws the last attempt's error once every address failed,
+     * or SocketTimeoutException when none connected within {@code timeoutMillis} (0 waits as long
+     * as the attempts do).
+     */
+    public Socket connect(InetAddress[] addresses, int port, int timeoutMillis) throws IOException {
+        if (addresses.length == 0) {
+            throw new IOException("No addresses to connect to.");
+        }
+
+        List<InetAddress> ordered = interleave(addresses);
+        Race race = new Race(ordered.size());
+        long deadline = (timeoutMillis > 0) ? now() + timeoutMillis : Long.MAX_VALUE;
+        Socket result = null;
+
+        try {
+            synchronized (race) {
+                for (int i = 0; i < ordered.size() && race.winner == null; i++) {
+                    race.start(new InetSocketAddress(ordered.get(i), port), timeoutMillis);
+
+                    long next = Math.min(now() + attemptDelay, deadline);
+
+                    // Move on early when every attempt so far has already failed.
+                    while (race.winner == null && race.failed < race.started && now() < next) {
+                        race.wait(next - now());
+                    }
+
+                    if (now() >= deadline) {
+                        break;
+                    }
+                }
+
+                while (race.winner == null && race.failed < race.started && now() < deadline) {
+                    race.wait(deadline - now());
+                }
+
+                if (race.winner != null) {
+                    result = race.winner;
+                    return result;
+                }
+
+                if (race.failed == race.total) {
+                    throw race.error;
+                }
+
+                throw new SocketTimeoutException("Connect timed out after " + timeoutMillis + " ms.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while connecting.");
+        } finally {
+            race.finish(result);
+        }
+    }
+
+    /**
+     * Alternates families starting with the resolver's first choice, keeping each family's own
+     * order: v6, v4, v6, v4, ... The selector engine races addresses in this order too.
+     */
+    public static List<InetAddress> interleave(InetAddress[] addresses) {
+        List<InetAddress> first = new ArrayList<>();
+        List<InetAddress> second = new ArrayList<>();
+        boolean isFirstV6 = addresses[0] instanceof Inet6Address;
+
+        for (InetAddress address : addresses) {
+            ((address instanceof Inet6Address) == isFirstV6 ? first : second).add(address);
+        }
+
+        List<InetAddress> ordered = new ArrayList<>(addresses.length);
+
+        for (int i = 0; i < Math.max(first.size(), second.size()); i++) {
+            if (i < first.size()) {
+                ordered.add(first.get(i));
+            }
+
+            if (i < second.size()) {
+                ordered.add(second.get(i));
+            }
+        }
+
+        return ordered;
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Shared by the caller and the attempt threads; every field is guarded by the race itself.
+     */
+    private static class Race {
+        final int total;
+        final List<Socket> sockets = new ArrayList<>();
+
+        int started;
+        int failed;
+        boolean isFinished;
+        Socket winner;
+        IOException error;
+
+        Race(int total) {
+            this.total = total;
+        }
+
+        void start(final InetSocketAddress address, final int timeoutMillis) {
+            final Socket socket = new Socket();
+            sockets.add(socket);
+            started++;
+
+            Thread attempt = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    IOException failure = null;
+
+                    try {
+                        socket.connect(address, timeoutMillis);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+
+                    synchronized (Race.this) {
+                        if (failure == null && winner == null && !isFinished) {
+                            winner = socket;
+                        } else {
+                            closeQuietly(socket);
+
+                            if (failure != null) {
+                                failed++;
+                                error = failure;
+                            }
+                        }
+
+                        Race.this.notifyAll();
+                    }
+                }
+            }, "ws-connect-" + address.getAddress().getHostAddress());
+
+            attempt.setDaemon(true);
+            attempt.start();
+        }
+
+        synchronized void finish(Socket result) {
+            isFinished = true;
+
+            for (Socket socket : sockets) {
+                if (socket != result) {
+                    closeQuietly(socket);
+                }
+            }
+        }
+
+        private static void closeQuietly(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
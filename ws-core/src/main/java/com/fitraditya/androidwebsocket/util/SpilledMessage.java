@@ -0,0 +1,77 @@
+package com.fitraditya.androidwebsocket.util;
+
+import com.fitraditya.androidwebsocket.platform.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A binary message that was written to a temporary file as it arrived instead of being collected
+ * in memory. From delivery on the file belongs to the listener: read it, move it elsewhere, or
+ * close the message to delete it.
+ */
+
+public class SpilledMessage implements Closeable {
+    private static final String TAG = SpilledMessage.class.getSimpleName();
+
+    private final File file;
+    private final long length;
+    private MappedByteBuffer buffer;
+
+    SpilledMessage(File file, long length) {
+        this.file = file;
+        this.length = length;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * The whole message mapped read-only; reading it pages the file in without copying it to the
+     * heap. Each call returns a new view of one mapping. Messages of 2 GiB or more do not fit one
+     * buffer; read those with {@link #openStream()}.
+     */
+    public synchronized ByteBuffer getBuffer() throws IOException {
+        if (buffer == null) {
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Message too large to map: " + length + " bytes");
+            }
+
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+            try {
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } finally {
+                raf.close();
+            }
+        }
+
+        return buffer.duplicate();
+    }
+
+    public InputStream openStream() throws IOException {
+        return new FileInputStream(file);
+    }
+
+    /**
+     * Deletes the file. Buffers already mapped stay readable until they are collected.
+     */
+    @Override
+    public void close() {
+        if (!file.delete() && file.exists()) {
+            Log.d(TAG, "Could not delete " + file);
+        }
+    }
+}
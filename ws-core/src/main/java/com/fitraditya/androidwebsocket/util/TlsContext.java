@@ -0,0 +1,137 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.lang.reflect.Method;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * One initialized SSLContext per trust-manager configuration, shared by every connect that uses
+ * it. Sessions live in the context's client cache keyed by host and port, so a reconnect to the
+ * same server resumes its last session (by session ID under TLS 1.2, by ticket under TLS 1.3)
+ * instead of repeating the full handshake and certificate check.
+ */
+
+public class TlsContext {
+    private static final Map<List<TrustManager>, TlsContext> contexts = new HashMap<>();
+
+    private static Method setUseSessionTickets;
+    private static boolean isTicketMethodResolved;
+
+    private SSLContext sslContext;
+    private SSLSocketFactory socketFactory;
+
+    private TlsContext(TrustManager[] trustManagers) throws NoSuchAlgorithmException, KeyManagementException {
+        sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, trustManagers, null);
+        socketFactory = sslContext.getSocketFactory();
+    }
+
+    /**
+     * The shared context for {@code trustManagers}; null means the platform's default trust.
+     * Arrays holding the same trust managers share a context.
+     */
+    public static TlsContext forTrustManagers(TrustManager[] trustManagers) throws NoSuchAlgorithmException, KeyManagementException {
+        List<TrustManager> key = (trustManagers != null) ? Arrays.asList(trustManagers.clone()) : null;
+
+        synchronized (contexts) {
+            TlsContext context = contexts.get(key);
+
+            if (context == null) {
+                context = new TlsContext(trustManagers);
+                contexts.put(key, context);
+            }
+
+            return context;
+        }
+    }
+
+    public SSLContext getSSLContext() {
+        return sslContext;
+    }
+
+    public SSLSocketFactory getSocketFactory() {
+        return socketFactory;
+    }
+
+    /**
+     * Caps how many sessions are kept for resumption. 0 means no limit.
+     */
+    public void setSessionCacheSize(int size) {
+        sslContext.getClientSessionContext().setSessionCacheSize(size);
+    }
+
+    /**
+     * How long, in seconds, a session may be resumed after it was created. 0 means no limit.
+     */
+    public void setSessionTimeout(int seconds) {
+        sslContext.getClientSessionContext().setSessionTimeout(seconds);
+    }
+
+    /**
+     * Drops the cached sessions for one server, so the next connect does a full handshake. Use it
+     * when the server's certificate or key changed.
+     */
+    public void invalidate(String host, int port) {
+        SSLSessionContext sessions = sslContext.getClientSessionContext();
+        Enumeration<byte[]> ids = sessions.getIds();
+
+        while (ids.hasMoreElements()) {
+            SSLSession session = sessions.getSession(ids.nextElement());
+
+            if (session != null && port == session.getPeerPort() && host.equalsIgnoreCase(session.getPeerHost())) {
+                session.invalidate();
+            }
+        }
+    }
+
+    /**
+     * Asks for session tickets on top of session IDs. The JVM sends them by default; Android's
+     * sockets only do when told to, through a method that is not public API.
+     */
+    public static void enableSessionTickets(SSLSocket socket) {
+        Method method = resolveTicketMethod(socket.getClass());
+
+        if (method != null) {
+            try {
+                method.invoke(socket, true);
+            } catch (Exception ignored) {
+                // Tickets are an optimization; session IDs still resume.
+            }
+        }
+    }
+
+    /**
+     * Whether the handshake that produced {@code session} resumed an earlier one. A resumed session
+     * keeps the creation time of the handshake that first negotiated it, while a full handshake
+     * creates its session after {@code handshakeStartMillis}.
+     */
+    public static boolean isResumed(SSLSession session, long handshakeStartMillis) {
+        return session != null && session.isValid() && session.getCreationTime() < handshakeStartMillis;
+    }
+
+    private static synchronized Method resolveTicketMethod(Class<?> socketClass) {
+        if (!isTicketMethodResolved) {
+            isTicketMethodResolved = true;
+
+            try {
+                setUseSessionTickets = socketClass.getMethod("setUseSessionTickets", boolean.class);
+            } catch (NoSuchMethodException ignored) {
+                setUseSessionTickets = null;
+            }
+        }
+
+        return (setUseSessionTickets != null && setUseSessionTickets.getDeclaringClass().isAssignableFrom(socketClass)) ? setUseSessionTickets : null;
+    }
+}
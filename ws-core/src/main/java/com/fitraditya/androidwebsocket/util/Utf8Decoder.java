@@ -0,0 +1,161 @@
+package com.fitraditya.androidwebsocket.util;
+
+/**
+ * Incremental, validating UTF-8 decoder for text messages. Bytes are fed one fragment at a time
+ * straight from the frame payload and decoded into a reusable char buffer; a code point split
+ * across fragments is carried over to the next call. Invalid input (overlong forms, surrogates,
+ * code points above U+10FFFF, stray continuation bytes) is rejected at the first bad byte, as
+ * RFC 6455 requires for text frames.
+ */
+
+public class Utf8Decoder {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int RETAINED_CAPACITY = 65536;
+
+    private char[] chars = new char[INITIAL_CAPACITY];
+    private int size;
+
+    private int codePoint;
+    private int needed;
+    private int lower = 0x80;
+    private int upper = 0xBF;
+
+    /**
+     * Appends the characters in {@code data}. Returns false at the first invalid byte; the decoder
+     * then has to be reset before reuse.
+     */
+    public boolean decode(byte[] data, int offset, int length) {
+        ensureCapacity(size + length + 1);
+
+        return decode(data, offset, length, true);
+    }
+
+    /**
+     * Checks {@code data} without keeping the characters, for text that is handed on as bytes.
+     */
+    public boolean validate(byte[] data, int offset, int length) {
+        return decode(data, offset, length, false);
+    }
+
+    /**
+     * Whether the bytes so far end on a character boundary. A message is only valid if this holds
+     * after its last fragment.
+     */
+    public boolean isComplete() {
+        return needed == 0;
+    }
+
+    public int length() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, size);
+    }
+
+    /**
+     * Forgets the current message. Buffers grown for an unusually large one are dropped so a
+     * long-lived connection does not keep them.
+     */
+    public void reset() {
+        size = 0;
+        codePoint = 0;
+        needed = 0;
+        lower = 0x80;
+        upper = 0xBF;
+
+        if (chars.length > RETAINED_CAPACITY) {
+            chars = new char[INITIAL_CAPACITY];
+        }
+    }
+
+    private boolean decode(byte[] data, int offset, int length, boolean store) {
+        // State lives in locals for the loop and is written back once at the end.
+        char[] chars = this.chars;
+        int size = this.size;
+        int codePoint = this.codePoint;
+        int needed = this.needed;
+        int lower = this.lower;
+        int upper = this.upper;
+        boolean valid = true;
+
+        int end = offset + length;
+        int i = offset;
+
+        while (i < end) {
+            if (needed == 0) {
+                // ASCII runs are copied without going through the state machine.
+                if (store) {
+                    while (i < end && data[i] >= 0) {
+                        chars[size++] = (char) data[i++];
+                    }
+                } else {
+                    while (i < end && data[i] >= 0) {
+                        i++;
+                    }
+                }
+
+                if (i == end) {
+                    break;
+                }
+
+                int b = data[i++] & 0xFF;
+
+                if (b >= 0xC2 && b <= 0xDF) {
+                    needed = 1;
+                    codePoint = b & 0x1F;
+                } else if (b >= 0xE0 && b <= 0xEF) {
+                    needed = 2;
+                    codePoint = b & 0x0F;
+                    lower = (b == 0xE0) ? 0xA0 : 0x80;
+                    upper = (b == 0xED) ? 0x9F : 0xBF;
+                } else if (b >= 0xF0 && b <= 0xF4) {
+                    needed = 3;
+                    codePoint = b & 0x07;
+                    lower = (b == 0xF0) ? 0x90 : 0x80;
+                    upper = (b == 0xF4) ? 0x8F : 0xBF;
+                } else {
+                    valid = false;
+                    break;
+                }
+            } else {
+                int b = data[i++] & 0xFF;
+
+                if (b < lower || b > upper) {
+                    valid = false;
+                    break;
+                }
+
+                lower = 0x80;
+                upper = 0xBF;
+                codePoint = (codePoint << 6) | (b & 0x3F);
+
+                if (--needed == 0 && store) {
+                    if (codePoint < 0x10000) {
+                        chars[size++] = (char) codePoint;
+                    } else {
+                        chars[size++] = (char) ((codePoint >>> 10) + 0xD7C0);
+                        chars[size++] = (char) ((codePoint & 0x3FF) + 0xDC00);
+                    }
+                }
+            }
+        }
+
+        this.size = size;
+        this.codePoint = codePoint;
+        this.needed = needed;
+        this.lower = lower;
+        this.upper = upper;
+
+        return valid;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > chars.length) {
+            char[] grown = new char[Math.max(capacity, chars.length * 2)];
+            System.arraycopy(chars, 0, grown, 0, size);
+            chars = grown;
+        }
+    }
+}
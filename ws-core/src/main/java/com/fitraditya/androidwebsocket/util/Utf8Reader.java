@@ -0,0 +1,117 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.io.Reader;
+
+/**
+ * Reads characters straight out of UTF-8 bytes in an array, for parsers that take a Reader, so a
+ * message does not have to become a String first. Unlike an InputStreamReader it keeps no buffer
+ * of its own. Malformed sequences read as U+FFFD; text from the parser has been validated already.
+ */
+
+public class Utf8Reader extends Reader {
+    private static final char REPLACEMENT = '\uFFFD';
+
+    private final byte[] data;
+    private final int limit;
+    private int position;
+
+    // The second half of a surrogate pair that did not fit into the caller's last read.
+    private char pendingLow;
+
+    public Utf8Reader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+
+        int start = offset;
+        int end = offset + length;
+
+        if (pendingLow != 0) {
+            buffer[offset++] = pendingLow;
+            pendingLow = 0;
+        }
+
+        while (offset < end && position < limit) {
+            // ASCII runs copy in a loop with a single bound; JSON is mostly ASCII.
+            int count = Math.min(end - offset, limit - position);
+            int i = 0;
+
+            while (i < count && data[position + i] >= 0) {
+                buffer[offset + i] = (char) data[position + i];
+                i++;
+            }
+
+            offset += i;
+            position += i;
+
+            if (i == count) {
+                break;
+            }
+
+            int codePoint = readMultiByte();
+
+            if (codePoint < 0x10000) {
+                buffer[offset++] = (char) codePoint;
+            } else {
+                // Character.highSurrogate and lowSurrogate need API 19.
+                buffer[offset++] = (char) ((codePoint >>> 10) + (0xD800 - (0x10000 >>> 10)));
+                char low = (char) ((codePoint & 0x3FF) + 0xDC00);
+
+                if (offset < end) {
+                    buffer[offset++] = low;
+                } else {
+                    pendingLow = low;
+                }
+            }
+        }
+
+        return (offset == start) ? -1 : offset - start;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private int readMultiByte() {
+        int lead = data[position++] & 0xFF;
+        int count;
+        int codePoint;
+
+        if (lead >= 0xF5) {
+            return REPLACEMENT;
+        } else if (lead >= 0xF0) {
+            count = 3;
+            codePoint = lead & 0x07;
+        } else if (lead >= 0xE0) {
+            count = 2;
+            codePoint = lead & 0x0F;
+        } else if (lead >= 0xC2) {
+            count = 1;
+            codePoint = lead & 0x1F;
+        } else {
+            return REPLACEMENT;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (position == limit || (data[position] & 0xC0) != 0x80) {
+                return REPLACEMENT;
+            }
+
+            codePoint = (codePoint << 6) | (data[position++] & 0x3F);
+        }
+
+        if ((count == 2 && (codePoint < 0x800 || (codePoint >= 0xD800 && codePoint <= 0xDFFF)))
+                || (count == 3 && (codePoint < 0x10000 || codePoint > 0x10FFFF))) {
+            return REPLACEMENT;
+        }
+
+        return codePoint;
+    }
+}
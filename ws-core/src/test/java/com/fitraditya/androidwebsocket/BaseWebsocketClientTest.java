@@ -0,0 +1,401 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.platform.ThreadScheduler;
+import com.fitraditya.androidwebsocket.util.OutboundJournal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BaseWebsocketClientTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    private final CountDownLatch checked = new CountDownLatch(1);
+
+    private ThreadScheduler scheduler;
+    private UpgradeServer server;
+    private BaseWebsocketClient client;
+    private String connectMessage;
+    private Runnable beforeConnectMessage;
+
+    @Before
+    public void setUp() {
+        scheduler = new ThreadScheduler("client-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void closeFromServerEndsConnection() throws Exception {
+        final CountDownLatch socketClosed = new CountDownLatch(1);
+
+        server = new UpgradeServer(new UpgradeServer.Script() {
+            @Override
+            public void run(Socket socket) throws IOException {
+                await(checked);
+                UpgradeServer.writeFrame(socket.getOutputStream(), UpgradeServer.OP_CLOSE, new byte[] {0x03, (byte) 0xE8});
+                socket.shutdownOutput();
+
+                // Reads to the end only once the client has closed its socket.
+                InputStream in = socket.getInputStream();
+
+                while (in.read() != -1) {
+                }
+
+                socketClosed.countDown();
+            }
+        });
+
+        BaseWebsocketClient client = connect();
+
+        assertEquals("disconnect 1000", events.poll(5, TimeUnit.SECONDS));
+        assertEquals("disconnect 0", events.poll(5, TimeUnit.SECONDS));
+        assertTrue(socketClosed.await(5, TimeUnit.SECONDS));
+        assertFalse(awaitConnected(client, false));
+    }
+
+    @Test
+    public void droppedConnectionEndsConnection() throws Exception {
+        server = new UpgradeServer(new UpgradeServer.Script() {
+            @Override
+            public void run(Socket socket) throws IOException {
+                await(checked);
+            }
+        });
+
+        BaseWebsocketClient client = connect();
+
+        assertEquals("disconnect 0", events.poll(5, TimeUnit.SECONDS));
+        assertFalse(awaitConnected(client, false));
+    }
+
+    @Test
+    public void protocolErrorSendsCloseBeforeClosing() throws Exception {
+        final BlockingQueue<Integer> closeCodes = new LinkedBlockingQueue<>();
+
+        server = new UpgradeServer(new UpgradeServer.Script() {
+            @Override
+            public void run(Socket socket) throws IOException {
+                await(checked);
+                UpgradeServer.writeFrame(socket.getOutputStream(), UpgradeServer.OP_TEXT, new byte[] {(byte) 0xC3, 0x28});
+
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                int opcode = in.readUnsignedByte() & 0x0F;
+                int length = in.readUnsignedByte() & 0x7F;
+                byte[] mask = new byte[4];
+                byte[] payload = new byte[length];
+                in.readFully(mask);
+                in.readFully(payload);
+
+                if (opcode == UpgradeServer.OP_CLOSE && length >= 2) {
+                    closeCodes.add((((payload[0] ^ mask[0]) & 0xFF) << 8) | ((payload[1] ^ mask[1]) & 0xFF));
+                }
+
+                while (in.read() != -1) {
+                }
+            }
+        });
+
+        // Holds up ws-thread, so the close frame is still queued when the connection ends.
+        final CountDownLatch released = new CountDownLatch(1);
+
+        scheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    released.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        BaseWebsocketClient client = connect();
+
+        assertFalse(awaitConnected(client, false));
+        Thread.sleep(100);
+        released.countDown();
+
+        assertEquals(Integer.valueOf(1007), closeCodes.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void journalReplaysBehindWhatOnConnectSends() throws Exception {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        final CountDownLatch acknowledged = new CountDownLatch(1);
+
+        server = new UpgradeServer(new UpgradeServer.Script() {
+            @Override
+            public void run(Socket socket) throws IOException {
+                InputStream in = socket.getInputStream();
+
+                for (int i = 0; i < 3; i++) {
+                    received.add(new String(UpgradeServer.readPayload(in), "UTF-8"));
+                }
+
+                // Stays connected: acknowledgements stop once the connection ends.
+                await(acknowledged);
+            }
+        });
+
+        OutboundJournal journal = new OutboundJournal(folder.newFolder("journal"), 4096, 4096 * 4, scheduler);
+        connectMessage = "subscribe";
+        client = client();
+        client.setJournal(journal);
+
+        // Sent while disconnected, so they wait in the journal.
+        client.send("queued 1");
+        client.send("queued 2");
+        assertEquals(2, journal.getPendingCount());
+
+        connect();
+
+        assertEquals("subscribe", received.poll(5, TimeUnit.SECONDS));
+        assertEquals("queued 1", received.poll(5, TimeUnit.SECONDS));
+        assertEquals("queued 2", received.poll(5, TimeUnit.SECONDS));
+
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (journal.getPendingCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, journal.getPendingCount());
+        acknowledged.countDown();
+    }
+
+    @Test
+    public void journaledSendsFromOtherThreadsDuringOnConnectStayBehindTheBacklog() throws Exception {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+        server = new UpgradeServer(new UpgradeServer.Script() {
+            @Override
+            public void run(Socket socket) throws IOException {
+                InputStream in = socket.getInputStream();
+
+                for (int i = 0; i < 4; i++) {
+                    received.add(new String(UpgradeServer.readPayload(in), "UTF-8"));
+                }
+
+                await(checked);
+            }
+        });
+
+        OutboundJournal journal = new OutboundJournal(folder.newFolder("journal"), 4096, 4096 * 4, scheduler);
+        connectMessage = "subscribe";
+        client = client();
+        client.setJournal(journal);
+
+        // Another thread sends while onConnect runs, before the backlog is replayed.
+        beforeConnectMessage = new Runnable() {
+            @Override
+            public void run() {
+                Thread other = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        client.send("other thread");
+                    }
+                });
+
+                other.start();
+
+                try {
+                    other.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        client.send("queued 1");
+        client.send("queued 2");
+
+        connect();
+
+        assertEquals("subscribe", received.poll(5, TimeUnit.SECONDS));
+        assertEquals("queued 1", received.poll(5, TimeUnit.SECONDS));
+        assertEquals("queued 2", received.poll(5, TimeUnit.SECONDS));
+        assertEquals("other thread", received.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fragmentSizeCountsEncodedBytes() throws Exception {
+        final BlockingQueue<byte[]> frames = new LinkedBlockingQueue<>();
+
+        server = new UpgradeServer(new UpgradeServer.Script() {
+            @Override
+            public void run(Socket socket) throws IOException {
+                InputStream in = socket.getInputStream();
+
+                for (int i = 0; i < 2; i++) {
+                    frames.add(UpgradeServer.readFrame(in));
+                }
+
+                await(checked);
+            }
+        });
+
+        client = client();
+        client.setFragmentSize(16);
+        connect();
+
+        // Ten characters, but 30 bytes of UTF-8.
+        client.send("\u20AC\u20AC\u20AC\u20AC\u20AC\u20AC\u20AC\u20AC\u20AC\u20AC");
+
+        byte[] first = frames.poll(5, TimeUnit.SECONDS);
+        byte[] last = frames.poll(5, TimeUnit.SECONDS);
+
+        assertEquals(UpgradeServer.OP_TEXT, first[0]);
+        assertEquals(16, first.length - 1);
+        assertEquals((byte) 0x80, last[0]);
+        assertEquals(14, last.length - 1);
+    }
+
+    @Test
+    public void directSendsWhileDisconnectedReportAnError() throws Exception {
+        server = new UpgradeServer(new UpgradeServer.Script() {
+            @Override
+            public void run(Socket socket) {
+            }
+        });
+
+        client = client();
+        client.send(new StringBuilder("direct"));
+        client.send(ByteBuffer.wrap(new byte[8]), 0, 8);
+
+        assertEquals("error java.lang.IllegalStateException: Socket is not connected.", events.poll(5, TimeUnit.SECONDS));
+        assertEquals("error java.lang.IllegalStateException: Socket is not connected.", events.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void directSendsGoOutBehindQueuedFrames() throws Exception {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+        server = new UpgradeServer(new UpgradeServer.Script() {
+            @Override
+            public void run(Socket socket) throws IOException {
+                InputStream in = socket.getInputStream();
+
+                for (int i = 0; i < 3; i++) {
+                    byte[] frame = UpgradeServer.readFrame(in);
+                    received.add(frame[0] + " " + new String(frame, 1, frame.length - 1, "UTF-8"));
+                }
+
+                await(checked);
+            }
+        });
+
+        connect();
+        client.send("queued");
+        client.send(new StringBuilder("direct \u20AC"));
+        client.send(ByteBuffer.wrap("xbinaryx".getBytes("UTF-8")), 1, 6);
+
+        assertEquals("-127 queued", received.poll(5, TimeUnit.SECONDS));
+        assertEquals("-127 direct \u20AC", received.poll(5, TimeUnit.SECONDS));
+        assertEquals("-126 binary", received.poll(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Connects and waits until the client reports itself connected, then lets the server go on.
+     */
+    private BaseWebsocketClient connect() throws InterruptedException {
+        if (client == null) {
+            client = client();
+        }
+
+        client.connect();
+
+        assertEquals("connect", events.poll(5, TimeUnit.SECONDS));
+        assertTrue(awaitConnected(client, true));
+        checked.countDown();
+
+        return client;
+    }
+
+    private BaseWebsocketClient client() {
+        URI uri = URI.create("ws://localhost:" + server.getPort() + "/");
+
+        return new BaseWebsocketClient(uri, new BaseWebsocketClient.WebsocketListener() {
+            @Override
+            public void onConnect() {
+                if (beforeConnectMessage != null) {
+                    beforeConnectMessage.run();
+                }
+
+                if (connectMessage != null) {
+                    client.send(connectMessage);
+                }
+
+                events.add("connect");
+            }
+
+            @Override
+            public void onMessage(String message) {
+                events.add("message " + message);
+            }
+
+            @Override
+            public void onMessage(byte[] data) {
+                events.add("binary " + data.length);
+            }
+
+            @Override
+            public void onDisconnect(int code, String reason) {
+                events.add("disconnect " + code);
+            }
+
+            @Override
+            public void onError(Exception error) {
+                events.add("error " + error);
+            }
+        }, null, scheduler, null);
+    }
+
+    /**
+     * Waits up to five seconds for isConnected() to become {@code expected}, and returns its last
+     * value.
+     */
+    private static boolean awaitConnected(BaseWebsocketClient client, boolean expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (client.isConnected() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        return client.isConnected();
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.platform.FakeScheduler;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CheckpointsTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private FakeScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "checkpoints");
+        scheduler = new FakeScheduler();
+    }
+
+    @Test
+    public void tokenRoundTripsThroughTheHeader() throws Exception {
+        Checkpoints checkpoints = new Checkpoints(file, scheduler);
+        checkpoints.advance("chat", 42);
+        checkpoints.advance("room 1,a=b", 7);
+
+        Map<String, String> headers = checkpoints.addTo(Collections.singletonMap("Origin", "test"));
+
+        assertEquals("test", headers.get("Origin"));
+        assertEquals(checkpoints.getToken(), headers.get(Checkpoints.HEADER));
+
+        Map<String, Long> parsed = parse(headers.get(Checkpoints.HEADER));
+        assertEquals(2, parsed.size());
+        assertEquals(Long.valueOf(42), parsed.get("chat"));
+        assertEquals(Long.valueOf(7), parsed.get("room 1,a=b"));
+    }
+
+    @Test
+    public void noTokenLeavesTheHeadersAlone() {
+        Checkpoints checkpoints = new Checkpoints(file, scheduler);
+        Map<String, String> headers = Collections.singletonMap("Origin", "test");
+
+        assertNull(checkpoints.getToken());
+        assertSame(headers, checkpoints.addTo(headers));
+        assertNull(checkpoints.addTo(null));
+    }
+
+    @Test
+    public void positionsOnlyMoveForward() {
+        Checkpoints checkpoints = new Checkpoints(file, scheduler);
+
+        assertEquals(-1, checkpoints.get("chat"));
+
+        checkpoints.advance("chat", 10);
+        checkpoints.advance("chat", 5);
+        checkpoints.advance("chat", 10);
+
+        assertEquals(10, checkpoints.get("chat"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negativePositionIsRejected() {
+        new Checkpoints(file, scheduler).advance("chat", -1);
+    }
+
+    @Test
+    public void positionsSurviveANewInstance() throws IOException {
+        Checkpoints checkpoints = new Checkpoints(file, scheduler);
+        checkpoints.advance("chat", 42);
+        checkpoints.advance("feed", 3);
+        checkpoints.save();
+
+        Checkpoints reloaded = new Checkpoints(file, new FakeScheduler());
+
+        assertEquals(42, reloaded.get("chat"));
+        assertEquals(3, reloaded.get("feed"));
+        assertEquals(checkpoints.getToken(), reloaded.getToken());
+    }
+
+    @Test
+    public void advancingSchedulesOneSave() {
+        Checkpoints checkpoints = new Checkpoints(file, scheduler);
+        checkpoints.setSaveMillis(500);
+
+        checkpoints.advance("chat", 1);
+        checkpoints.advance("chat", 2);
+        checkpoints.advance("feed", 1);
+
+        assertEquals(1, scheduler.pending());
+        assertEquals(500, scheduler.nextDelay());
+        assertFalse(file.exists());
+
+        scheduler.advance(500);
+
+        assertTrue(file.exists());
+        assertEquals(2, new Checkpoints(file, scheduler).get("chat"));
+    }
+
+    @Test
+    public void clearForgetsEveryStream() throws IOException {
+        Checkpoints checkpoints = new Checkpoints(file, scheduler);
+        checkpoints.advance("chat", 42);
+        checkpoints.save();
+
+        checkpoints.clear();
+        checkpoints.save();
+
+        assertNull(checkpoints.getToken());
+        assertEquals(-1, new Checkpoints(file, scheduler).get("chat"));
+    }
+
+    @Test
+    public void damagedFileStartsFromScratch() throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+
+        Checkpoints checkpoints = new Checkpoints(file, scheduler);
+
+        assertNull(checkpoints.getToken());
+        assertEquals(-1, checkpoints.get("chat"));
+    }
+
+    /**
+     * Reads a token the way a server would.
+     */
+    private static Map<String, Long> parse(String token) throws IOException {
+        Map<String, Long> positions = new HashMap<>();
+
+        for (String pair : token.split(", ")) {
+            int equals = pair.lastIndexOf('=');
+            positions.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), Long.parseLong(pair.substring(equals + 1)));
+        }
+
+        return positions;
+    }
+}
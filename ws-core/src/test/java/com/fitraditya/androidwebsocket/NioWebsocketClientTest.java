@@ -0,0 +1,165 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.util.Blackhole;
+import com.fitraditya.androidwebsocket.util.Resolver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class NioWebsocketClientTest {
+    private static final InetAddress REFUSING = Blackhole.address(127, 0, 0, 3);
+
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+
+    private WebsocketEngine engine;
+    private Blackhole blackhole;
+
+    @Before
+    public void setUp() throws IOException {
+        engine = new WebsocketEngine(1);
+        blackhole = new Blackhole();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        engine.shutdown();
+        blackhole.close();
+    }
+
+    @Test
+    public void secondAddressWinsWhenTheFirstIsBlackholed() throws Exception {
+        UpgradeServer server = new UpgradeServer(Blackhole.LOOPBACK, blackhole.getPort(), new UpgradeServer.Script() {
+            @Override
+            public void run(Socket socket) throws IOException {
+                socket.getInputStream().read();
+            }
+        });
+
+        try {
+            NioWebsocketClient client = client(Blackhole.ADDRESS, Blackhole.LOOPBACK);
+            long start = System.nanoTime();
+            client.connect();
+
+            assertEquals("connect", events.poll(5, TimeUnit.SECONDS));
+            long elapsed = (System.nanoTime() - start) / 1000000;
+            assertTrue("took " + elapsed + " ms", elapsed < 1000);
+            // onConnect runs just before the flag is set, on the loop thread.
+            assertTrue(awaitConnected(client));
+
+            client.disconnect();
+            assertEquals("disconnect 0 Closed", events.poll(5, TimeUnit.SECONDS));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void refusedAddressesFailTheConnect() throws Exception {
+        client(REFUSING, Blackhole.address(127, 0, 0, 4)).connect();
+
+        String event = events.poll(5, TimeUnit.SECONDS);
+        assertTrue(event, event.startsWith("error java.net.ConnectException"));
+    }
+
+    @Test
+    public void connectTimesOut() throws Exception {
+        NioWebsocketClient client = client(Blackhole.ADDRESS);
+        client.setConnectTimeout(300);
+        client.connect();
+
+        assertEquals("disconnect 0 Connect timed out after 300 ms.", events.poll(5, TimeUnit.SECONDS));
+        assertFalse(client.isConnected());
+        assertEquals(null, events.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void upgradeTimesOut() throws Exception {
+        // Accepts the connection and never answers the upgrade request.
+        ServerSocket silent = new ServerSocket();
+        silent.bind(new InetSocketAddress(Blackhole.LOOPBACK, blackhole.getPort()));
+
+        try {
+            NioWebsocketClient client = client(Blackhole.LOOPBACK);
+            client.setHandshakeTimeout(300);
+            client.connect();
+
+            Socket accepted = silent.accept();
+            accepted.setSoTimeout(5000);
+            assertEquals("disconnect 0 Handshake timed out after 300 ms.", events.poll(5, TimeUnit.SECONDS));
+
+            // The request, then the end of the stream once the client has closed its channel.
+            InputStream in = accepted.getInputStream();
+
+            while (in.read() != -1) {
+            }
+
+            accepted.close();
+        } finally {
+            silent.close();
+        }
+    }
+
+    private static boolean awaitConnected(NioWebsocketClient client) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (!client.isConnected() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        return client.isConnected();
+    }
+
+    private NioWebsocketClient client(final InetAddress... addresses) {
+        engine.setResolver(new Resolver() {
+            @Override
+            public InetAddress[] resolve(String host) {
+                return addresses;
+            }
+        });
+
+        URI uri = URI.create("ws://push.test:" + blackhole.getPort() + "/");
+
+        return engine.newClient(uri, new BaseWebsocketClient.WebsocketListener() {
+            @Override
+            public void onConnect() {
+                events.add("connect");
+            }
+
+            @Override
+            public void onMessage(String message) {
+                events.add("message " + message);
+            }
+
+            @Override
+            public void onMessage(byte[] data) {
+                events.add("binary " + data.length);
+            }
+
+            @Override
+            public void onDisconnect(int code, String reason) {
+                events.add("disconnect " + code + " " + reason);
+            }
+
+            @Override
+            public void onError(Exception error) {
+                events.add("error " + error);
+            }
+        }, null);
+    }
+}
@@ -0,0 +1,196 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.platform.FakeScheduler;
+import com.fitraditya.androidwebsocket.util.HttpResponseException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectManagerTest {
+    private static final long BASE = 1000;
+    private static final long CAP = 30000;
+
+    private FakeScheduler scheduler;
+    private FakeConnection connection;
+    private ReconnectManager.Clock clock;
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        connection = new FakeConnection();
+        clock = new ReconnectManager.Clock() {
+            @Override
+            public long now() {
+                return scheduler.now();
+            }
+        };
+    }
+
+    @Test
+    public void fullJitterStaysUnderTheDoublingCeiling() {
+        for (int seed = 0; seed < 20; seed++) {
+            ReconnectManager manager = connected(new Random(seed), ReconnectManager.JITTER_FULL);
+
+            for (int attempt = 0; attempt < 10; attempt++) {
+                long ceiling = Math.min(CAP, BASE << attempt);
+                long delay = fail(manager);
+
+                assertTrue("attempt " + attempt + " waited " + delay, delay >= 0 && delay < ceiling);
+            }
+        }
+    }
+
+    @Test
+    public void decorrelatedJitterStaysWithinThreeTimesThePreviousWait() {
+        for (int seed = 0; seed < 20; seed++) {
+            ReconnectManager manager = connected(new Random(seed), ReconnectManager.JITTER_DECORRELATED);
+            long previous = BASE;
+
+            for (int attempt = 0; attempt < 10; attempt++) {
+                long delay = fail(manager);
+
+                assertTrue("attempt " + attempt + " waited " + delay, delay >= BASE && delay <= Math.min(CAP, previous * 3));
+                previous = delay;
+            }
+        }
+    }
+
+    @Test
+    public void capHoldsAtTheTopOfTheRange() {
+        ReconnectManager full = connected(fixed(0.999999), ReconnectManager.JITTER_FULL);
+        ReconnectManager decorrelated = connected(fixed(1), ReconnectManager.JITTER_DECORRELATED);
+        long longest = 0;
+
+        // Far enough for base << attempts to overflow were it not capped.
+        for (int attempt = 0; attempt < 80; attempt++) {
+            long delay = fail(full);
+
+            assertTrue("full jitter attempt " + attempt + " waited " + delay, delay < CAP);
+            longest = Math.max(longest, delay);
+        }
+
+        assertTrue(longest >= CAP - 1);
+
+        for (int attempt = 0; attempt < 10; attempt++) {
+            assertTrue(fail(decorrelated) <= CAP);
+        }
+
+        assertEquals(CAP, fail(decorrelated));
+    }
+
+    @Test
+    public void retryAfterOverridesTheBackoff() {
+        ReconnectManager manager = connected(fixed(0.5), ReconnectManager.JITTER_FULL);
+
+        manager.onError(new HttpResponseException(503, "Busy", 120000));
+        assertEquals(120000, scheduler.nextDelay());
+
+        // A network trigger cannot cut the server's pause short, only the backoff around it.
+        scheduler.advance(20000);
+        manager.start();
+        assertEquals(100000, scheduler.nextDelay());
+
+        scheduler.advance(100000);
+        assertEquals(2, connection.connects);
+
+        // A Retry-After shorter than the backoff leaves the backoff in charge.
+        manager.onError(new HttpResponseException(429, "Slow down", 0));
+        assertEquals(BASE, scheduler.nextDelay());
+    }
+
+    @Test
+    public void triggersCoalesceWhileAnAttemptIsPending() {
+        ReconnectManager manager = connected(new Random(1), ReconnectManager.JITTER_FULL);
+
+        manager.onError(new IOException("refused"));
+        manager.onError(new IOException("refused"));
+        manager.onDisconnect();
+
+        assertEquals(1, scheduler.pending());
+        assertEquals(1, manager.getAttempts());
+
+        manager.stop();
+        assertEquals(0, scheduler.pending());
+    }
+
+    /**
+     * A started manager that has made its first, immediate attempt.
+     */
+    private ReconnectManager connected(Random random, int jitter) {
+        ReconnectManager manager = new ReconnectManager(connection, scheduler, clock, random);
+        manager.setBackoff(BASE, CAP, jitter);
+        manager.start();
+        scheduler.advance(0);
+
+        return manager;
+    }
+
+    /**
+     * Fails the attempt in flight and returns how long the manager waits before the next one,
+     * which it then makes.
+     */
+    private long fail(ReconnectManager manager) {
+        manager.onError(new IOException("refused"));
+        long delay = scheduler.nextDelay();
+        scheduler.advance(delay);
+
+        return delay;
+    }
+
+    private static Random fixed(final double value) {
+        return new Random() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public double nextDouble() {
+                return value;
+            }
+        };
+    }
+
+    private static class FakeConnection implements WebsocketConnection {
+        int connects;
+
+        @Override
+        public void connect() {
+            connects++;
+        }
+
+        @Override
+        public void disconnect() {
+        }
+
+        @Override
+        public void send(String data) {
+        }
+
+        @Override
+        public void send(byte[] data) {
+        }
+
+        @Override
+        public void sendFrame(byte[] frame) {
+        }
+
+        @Override
+        public boolean awaitWritable() {
+            return true;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return false;
+        }
+
+        @Override
+        public BaseWebsocketClient.WebsocketListener getListener() {
+            return null;
+        }
+    }
+}
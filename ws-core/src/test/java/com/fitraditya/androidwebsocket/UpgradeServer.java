@@ -0,0 +1,178 @@
+package com.fitraditya.androidwebsocket;
+
+import com.fitraditya.androidwebsocket.util.Base64;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Accepts connections on a local port one at a time, answers each upgrade request and then hands
+ * the socket to a {@link Script}, which decides what the server does next. The socket is closed
+ * once the script returns. No extensions and no TLS.
+ */
+
+class UpgradeServer {
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    static final int OP_TEXT = 1;
+    static final int OP_CLOSE = 8;
+
+    private final ServerSocket serverSocket;
+    private final Script script;
+
+    interface Script {
+        void run(Socket socket) throws IOException;
+    }
+
+    UpgradeServer(Script script) throws IOException {
+        this(new ServerSocket(0), script);
+    }
+
+    /**
+     * Listens on {@code address} and {@code port} only.
+     */
+    UpgradeServer(InetAddress address, int port, Script script) throws IOException {
+        this(new ServerSocket(port, 50, address), script);
+    }
+
+    private UpgradeServer(ServerSocket serverSocket, Script script) {
+        this.serverSocket = serverSocket;
+        this.script = script;
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "upgrade-server");
+
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (true) {
+            Socket socket;
+
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+
+            try {
+                socket.setSoTimeout(5000);
+                upgrade(socket.getInputStream(), socket.getOutputStream());
+                script.run(socket);
+            } catch (IOException e) {
+                // The client went away first.
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already gone.
+                }
+            }
+        }
+    }
+
+    private static void upgrade(InputStream in, OutputStream out) throws IOException {
+        String key = null;
+        StringBuilder line = new StringBuilder();
+
+        while (true) {
+            int c = in.read();
+
+            if (c == -1) {
+                throw new IOException("Request ended early");
+            } else if (c != '\n') {
+                line.append((char) c);
+                continue;
+            }
+
+            String header = line.toString().trim();
+            line.setLength(0);
+
+            if (header.isEmpty()) {
+                break;
+            } else if (header.toLowerCase(Locale.US).startsWith("sec-websocket-key:")) {
+                key = header.substring(header.indexOf(':') + 1).trim();
+            }
+        }
+
+        String response = "HTTP/1.1 101 Switching Protocols\r\n"
+            + "Upgrade: websocket\r\n"
+            + "Connection: Upgrade\r\n"
+            + "Sec-WebSocket-Accept: " + accept(key) + "\r\n\r\n";
+
+        out.write(response.getBytes("UTF-8"));
+        out.flush();
+    }
+
+    private static String accept(String key) throws IOException {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+
+            return Base64.encode(sha1.digest((key + GUID).getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Writes an unmasked frame with a payload under 126 bytes.
+     */
+    static void writeFrame(OutputStream out, int opcode, byte[] payload) throws IOException {
+        out.write(0x80 | opcode);
+        out.write(payload.length);
+        out.write(payload);
+        out.flush();
+    }
+
+    /**
+     * Like {@link #readFrame(InputStream)}, but returns only the payload.
+     */
+    static byte[] readPayload(InputStream in) throws IOException {
+        byte[] frame = readFrame(in);
+
+        return Arrays.copyOfRange(frame, 1, frame.length);
+    }
+
+    /**
+     * Reads one masked client frame of up to 125 bytes and returns its first byte followed by the
+     * unmasked payload.
+     */
+    static byte[] readFrame(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int first = data.readUnsignedByte();
+        int length = data.readUnsignedByte() & 0x7F;
+        byte[] mask = new byte[4];
+        byte[] frame = new byte[length + 1];
+        data.readFully(mask);
+        data.readFully(frame, 1, length);
+        frame[0] = (byte) first;
+
+        for (int i = 0; i < length; i++) {
+            frame[i + 1] ^= mask[i % 4];
+        }
+
+        return frame;
+    }
+}
@@ -0,0 +1,102 @@
+package com.fitraditya.androidwebsocket.platform;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs tasks only when a test advances its clock, so delays can be read off instead of waited
+ * out. It counts as its own thread.
+ */
+
+public class FakeScheduler implements Scheduler {
+    private final List<Task> tasks = new ArrayList<>();
+
+    private long now;
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        tasks.add(new Task(task, now + delayMillis));
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        for (Iterator<Task> i = tasks.iterator(); i.hasNext(); ) {
+            if (i.next().runnable == task) {
+                i.remove();
+            }
+        }
+    }
+
+    @Override
+    public boolean inThread() {
+        return true;
+    }
+
+    public long now() {
+        return now;
+    }
+
+    public int pending() {
+        return tasks.size();
+    }
+
+    /**
+     * How far ahead the earliest pending task is due, or -1 when nothing is pending.
+     */
+    public long nextDelay() {
+        if (tasks.isEmpty()) {
+            return -1;
+        }
+
+        long next = Long.MAX_VALUE;
+
+        for (Task task : tasks) {
+            next = Math.min(next, task.due);
+        }
+
+        return next - now;
+    }
+
+    /**
+     * Moves the clock on by {@code millis} and runs every task that has come due, in order.
+     */
+    public void advance(long millis) {
+        long until = now + millis;
+
+        while (true) {
+            Task first = null;
+
+            for (Task task : tasks) {
+                if (task.due <= until && (first == null || task.due < first.due)) {
+                    first = task;
+                }
+            }
+
+            if (first == null) {
+                break;
+            }
+
+            tasks.remove(first);
+            now = first.due;
+            first.runnable.run();
+        }
+
+        now = until;
+    }
+
+    private static class Task {
+        final Runnable runnable;
+        final long due;
+
+        Task(Runnable runnable, long due) {
+            this.runnable = runnable;
+            this.due = due;
+        }
+    }
+}
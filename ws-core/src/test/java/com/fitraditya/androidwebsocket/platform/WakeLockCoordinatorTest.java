@@ -0,0 +1,211 @@
+package com.fitraditya.androidwebsocket.platform;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The coordinator measures the grace period on the real clock, so tests that let it expire sleep
+ * past a short one before advancing the fake scheduler.
+ */
+public class WakeLockCoordinatorTest {
+    private static final long SHORT_GRACE = 20;
+    private static final long LONG_GRACE = 30000;
+
+    private PlatformLock lock;
+    private FakeScheduler scheduler;
+    private WakeLockCoordinator coordinator;
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        lock = new PlatformLock(scheduler);
+        coordinator = new WakeLockCoordinator(lock, scheduler);
+    }
+
+    @Test
+    public void burstTakesThePlatformLockOnce() {
+        coordinator.setGracePeriod(LONG_GRACE);
+
+        for (int i = 0; i < 100; i++) {
+            coordinator.acquire();
+            coordinator.acquire(5000);
+            coordinator.release();
+            coordinator.release();
+        }
+
+        assertEquals(1, lock.held);
+        assertEquals(1, lock.acquires);
+        assertEquals(WakeLockCoordinator.DEFAULT_TIMEOUT_MILLIS, lock.lastTimeout);
+        assertEquals(1, coordinator.getHoldCount());
+    }
+
+    @Test
+    public void messageReleasesOnceTheGracePeriodExpires() throws InterruptedException {
+        coordinator.setGracePeriod(SHORT_GRACE);
+
+        coordinator.acquire();
+        coordinator.release();
+        assertEquals(1, lock.held);
+
+        Thread.sleep(SHORT_GRACE * 2);
+        scheduler.advance(SHORT_GRACE);
+
+        assertEquals(0, lock.held);
+        assertFalse(coordinator.isHeld());
+        assertEquals(0, scheduler.pending());
+        assertEquals(0, lock.strayReleases);
+    }
+
+    @Test
+    public void lockOutlivesTheMessageWithinTheGracePeriod() {
+        coordinator.setGracePeriod(LONG_GRACE);
+
+        coordinator.acquire();
+        coordinator.release();
+        scheduler.advance(LONG_GRACE);
+
+        assertEquals(1, lock.held);
+        assertTrue(coordinator.isHeld());
+    }
+
+    @Test
+    public void errorMidFrameIsClearedByReleaseAll() {
+        coordinator.setGracePeriod(LONG_GRACE);
+
+        // The read that failed never reached its release; the connection ending drops it.
+        coordinator.acquire();
+        coordinator.acquire();
+        coordinator.release();
+        coordinator.releaseAll();
+
+        assertEquals(0, lock.held);
+        assertFalse(coordinator.isHeld());
+        assertEquals(0, scheduler.pending());
+        assertEquals(0, lock.strayReleases);
+    }
+
+    @Test
+    public void disconnectReleasesWithoutWaitingForTheGracePeriod() {
+        coordinator.setGracePeriod(LONG_GRACE);
+
+        coordinator.acquire();
+        coordinator.release();
+        coordinator.releaseAll();
+        assertEquals(0, lock.held);
+
+        // Neither a second releaseAll nor late releases touch the platform lock again.
+        coordinator.releaseAll();
+        coordinator.release();
+        scheduler.advance(LONG_GRACE);
+
+        assertEquals(0, lock.held);
+        assertEquals(0, lock.strayReleases);
+    }
+
+    @Test
+    public void activityAfterTheGracePeriodTakesTheLockAgain() throws InterruptedException {
+        coordinator.setGracePeriod(SHORT_GRACE);
+
+        coordinator.acquire();
+        coordinator.release();
+        Thread.sleep(SHORT_GRACE * 2);
+        scheduler.advance(SHORT_GRACE);
+        assertEquals(0, lock.held);
+
+        coordinator.acquire();
+        assertEquals(1, lock.held);
+        assertEquals(2, coordinator.getHoldCount());
+
+        coordinator.releaseAll();
+        assertEquals(0, lock.held);
+    }
+
+    @Test
+    public void refreshingHoldsTheLockPastTheFirstTimeout() throws InterruptedException {
+        long timeout = SHORT_GRACE * 2;
+        coordinator.setGracePeriod(SHORT_GRACE);
+        coordinator.setTimeout(timeout);
+
+        coordinator.acquire();
+
+        // Each check comes at least half the timeout after the last refresh, so it refreshes.
+        for (long elapsed = SHORT_GRACE; elapsed <= timeout * 3; elapsed += SHORT_GRACE) {
+            Thread.sleep(SHORT_GRACE + 5);
+            scheduler.advance(SHORT_GRACE);
+            assertEquals("platform lock after " + elapsed + " ms", 1, lock.held);
+        }
+
+        assertTrue(lock.acquires > 1);
+        assertEquals(0, lock.timeouts);
+
+        coordinator.release();
+        Thread.sleep(SHORT_GRACE * 2);
+        scheduler.advance(SHORT_GRACE);
+
+        assertEquals(0, lock.held);
+        assertEquals(0, lock.strayReleases);
+    }
+
+    /**
+     * A reference-counted lock that behaves like PowerManager.WakeLock: every timed acquire
+     * schedules a release of its own, and only the count reaching zero cancels them.
+     */
+    private static class PlatformLock implements WakeLock {
+        private final Scheduler scheduler;
+
+        private final Runnable timeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                timeouts++;
+                release();
+            }
+        };
+
+        int held;
+        int acquires;
+        int timeouts;
+        int strayReleases;
+        long lastTimeout = -1;
+
+        PlatformLock(Scheduler scheduler) {
+            this.scheduler = scheduler;
+        }
+
+        @Override
+        public void acquire() {
+            held++;
+            acquires++;
+        }
+
+        @Override
+        public void acquire(long timeoutMillis) {
+            acquire();
+            lastTimeout = timeoutMillis;
+            scheduler.postDelayed(timeoutRunnable, timeoutMillis);
+        }
+
+        @Override
+        public void release() {
+            if (held == 0) {
+                strayReleases++;
+                return;
+            }
+
+            held--;
+
+            if (held == 0) {
+                scheduler.cancel(timeoutRunnable);
+            }
+        }
+
+        @Override
+        public void releaseAll() {
+            held = 0;
+            scheduler.cancel(timeoutRunnable);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.fitraditya.androidwebsocket.util;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assume.assumeNoException;
+
+/**
+ * A loopback address whose listen queue is full and never drained, so further connects to it
+ * neither succeed nor fail: the kernel drops their SYNs, as a black-holed route would. Binds
+ * 127.0.0.2, which Linux routes to loopback; tests using it are skipped where that is not so.
+ */
+
+public class Blackhole {
+    public static final InetAddress ADDRESS = address(127, 0, 0, 2);
+    public static final InetAddress LOOPBACK = address(127, 0, 0, 1);
+
+    private final ServerSocket serverSocket;
+    private final List<Socket> queued = new ArrayList<>();
+
+    public Blackhole() throws IOException {
+        serverSocket = new ServerSocket();
+
+        try {
+            serverSocket.bind(new InetSocketAddress(ADDRESS, 0), 1);
+        } catch (IOException e) {
+            serverSocket.close();
+            assumeNoException(e);
+        }
+
+        // Fill the queue; the connect that times out is the first one dropped.
+        while (true) {
+            Socket socket = new Socket();
+
+            try {
+                socket.connect(serverSocket.getLocalSocketAddress(), 200);
+                queued.add(socket);
+            } catch (SocketTimeoutException e) {
+                socket.close();
+                break;
+            }
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void close() throws IOException {
+        for (Socket socket : queued) {
+            socket.close();
+        }
+
+        serverSocket.close();
+    }
+
+    public static InetAddress address(int a, int b, int c, int d) {
+        try {
+            return InetAddress.getByAddress(new byte[] {(byte) a, (byte) b, (byte) c, (byte) d});
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
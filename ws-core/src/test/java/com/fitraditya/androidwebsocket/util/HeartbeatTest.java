@@ -0,0 +1,291 @@
+package com.fitraditya.androidwebsocket.util;
+
+import com.fitraditya.androidwebsocket.platform.FakeScheduler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeartbeatTest {
+    private FakeScheduler scheduler;
+    private Heartbeat heartbeat;
+
+    private final List<byte[]> pings = new ArrayList<>();
+    private final List<String> timeouts = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        heartbeat = new Heartbeat(scheduler, new Heartbeat.Listener() {
+            @Override
+            public void sendPing(byte[] payload) {
+                pings.add(payload);
+            }
+
+            @Override
+            public void onTimeout(String reason) {
+                timeouts.add(reason);
+            }
+        }, new Heartbeat.Clock() {
+            @Override
+            public long nanoTime() {
+                return scheduler.now() * 1000000;
+            }
+        });
+    }
+
+    @Test
+    public void doesNothingUntilConfigured() {
+        heartbeat.start();
+
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void pingsOncePerInterval() {
+        heartbeat.setInterval(1000, 1000);
+        heartbeat.start();
+
+        scheduler.advance(1000);
+        assertEquals(0, pings.size());
+
+        scheduler.advance(1);
+        assertEquals(1, pings.size());
+
+        // Each timer fires a millisecond after its deadline, so the next PING is due at 2002 ms.
+        pong(0);
+        scheduler.advance(1000);
+        assertEquals(1, pings.size());
+
+        scheduler.advance(1);
+        assertEquals(2, pings.size());
+    }
+
+    @Test
+    public void measuresRoundTripTimes() {
+        heartbeat.setInterval(1000, 1000);
+        heartbeat.start();
+
+        answerNextPing(40);
+
+        assertEquals(40, heartbeat.getLastRttMillis());
+        assertEquals(40, heartbeat.getSmoothedRttMillis());
+        assertEquals(40, heartbeat.getMaxRttMillis());
+
+        answerNextPing(120);
+
+        // The average moves an eighth of the way towards each new sample.
+        assertEquals(120, heartbeat.getLastRttMillis());
+        assertEquals(50, heartbeat.getSmoothedRttMillis());
+        assertEquals(120, heartbeat.getMaxRttMillis());
+
+        answerNextPing(10);
+
+        assertEquals(10, heartbeat.getLastRttMillis());
+        assertEquals(45, heartbeat.getSmoothedRttMillis());
+        assertEquals(120, heartbeat.getMaxRttMillis());
+    }
+
+    @Test
+    public void ignoresPongsThatDoNotEchoTheOutstandingPing() {
+        heartbeat.setInterval(1000, 1000);
+        heartbeat.start();
+        scheduler.advance(scheduler.nextDelay());
+        scheduler.advance(30);
+
+        byte[] ping = last(pings);
+        byte[] other = ping.clone();
+        other[7]++;
+
+        heartbeat.onPong(other, 0, 8);
+        heartbeat.onPong(ping, 0, 7);
+        heartbeat.onPong(new byte[] {'a', 'p', 'p'}, 0, 3);
+        assertEquals(0, heartbeat.getLastRttMillis());
+
+        // The echo can sit anywhere in the reader's buffer.
+        byte[] buffer = new byte[12];
+        System.arraycopy(ping, 0, buffer, 4, 8);
+        heartbeat.onPong(buffer, 4, 8);
+        assertEquals(30, heartbeat.getLastRttMillis());
+
+        // A second copy of the same PONG is not measured again.
+        scheduler.advance(50);
+        heartbeat.onPong(ping, 0, 8);
+        assertEquals(30, heartbeat.getLastRttMillis());
+    }
+
+    @Test
+    public void declaresTheConnectionDeadAfterMissedPongs() {
+        heartbeat.setInterval(1000, 1000);
+        heartbeat.start();
+
+        scheduler.advance(1001);
+        scheduler.advance(1001);
+
+        // The second PING went out with the first unanswered; that is one missed PONG.
+        assertEquals(2, pings.size());
+        assertTrue(timeouts.isEmpty());
+
+        scheduler.advance(1001);
+
+        assertEquals(2, pings.size());
+        assertEquals("[2 pongs missed.]", timeouts.toString());
+        assertEquals(0, scheduler.pending());
+    }
+
+    @Test
+    public void aLatePongStillResetsTheMissedCount() {
+        heartbeat.setInterval(1000, 1000);
+        heartbeat.setMaxMissedPongs(3);
+        heartbeat.start();
+
+        scheduler.advance(1001);
+        scheduler.advance(1001);
+        scheduler.advance(1001);
+        pong(0);
+
+        // The answered PING frees the next one; only then do misses start counting again.
+        scheduler.advance(1001);
+        scheduler.advance(1001);
+        scheduler.advance(1001);
+        assertEquals(6, pings.size());
+        assertTrue(timeouts.isEmpty());
+
+        scheduler.advance(1001);
+        assertEquals("[3 pongs missed.]", timeouts.toString());
+    }
+
+    @Test
+    public void declaresTheConnectionDeadWhenNothingIsRead() {
+        heartbeat.setReadIdleTimeout(500);
+        heartbeat.start();
+
+        scheduler.advance(300);
+        heartbeat.onFrame();
+
+        // Reads are sampled when the timer fires, so the frame at 300 ms counts from 501 ms.
+        scheduler.advance(700);
+        assertTrue(timeouts.isEmpty());
+
+        scheduler.advance(2);
+        assertEquals("[Nothing read for 500 ms.]", timeouts.toString());
+        assertTrue(pings.isEmpty());
+    }
+
+    @Test
+    public void readIdleTimeoutFiresBetweenPings() {
+        heartbeat.setInterval(10000, 10000);
+        heartbeat.setReadIdleTimeout(3000);
+        heartbeat.start();
+
+        scheduler.advance(3001);
+
+        assertEquals("[Nothing read for 3000 ms.]", timeouts.toString());
+        assertTrue(pings.isEmpty());
+    }
+
+    @Test
+    public void intervalGrowsAfterAnsweredPingsUpToTheMaximum() {
+        heartbeat.setInterval(1000, 4000);
+        heartbeat.start();
+
+        long[] expected = {1000, 1000, 1500, 1500, 1500, 2250, 2250, 2250, 3375, 3375, 3375, 4000, 4000, 4000, 4000};
+
+        for (long interval : expected) {
+            answerNextPing(20);
+            assertEquals(interval, heartbeat.getIntervalMillis());
+        }
+
+        // The stretched interval is the gap between PINGs.
+        long sent = scheduler.now() - 20;
+        answerNextPing(20);
+        assertEquals(4001, scheduler.now() - 20 - sent);
+    }
+
+    @Test
+    public void aDropWhileProbingCapsTheIntervalAtTheLastOneThatHeld() {
+        heartbeat.setInterval(1000, 10000);
+        heartbeat.start();
+
+        for (int i = 0; i < 6; i++) {
+            answerNextPing(20);
+        }
+
+        // 1000 and 1500 ms each held for three PINGs; 2250 ms is being probed.
+        assertEquals(2250, heartbeat.getIntervalMillis());
+
+        heartbeat.onConnectionLost();
+        assertEquals(1500, heartbeat.getIntervalMillis());
+        assertEquals(0, scheduler.pending());
+
+        heartbeat.start();
+
+        for (int i = 0; i < 9; i++) {
+            answerNextPing(20);
+            assertEquals(1500, heartbeat.getIntervalMillis());
+        }
+    }
+
+    @Test
+    public void missedPongsWhileProbingShrinkTheIntervalToo() {
+        heartbeat.setInterval(1000, 10000);
+        heartbeat.start();
+
+        for (int i = 0; i < 3; i++) {
+            answerNextPing(20);
+        }
+
+        assertEquals(1500, heartbeat.getIntervalMillis());
+
+        scheduler.advance(scheduler.nextDelay());
+        scheduler.advance(scheduler.nextDelay());
+        scheduler.advance(scheduler.nextDelay());
+
+        assertEquals(1, timeouts.size());
+        assertEquals(1000, heartbeat.getIntervalMillis());
+    }
+
+    @Test
+    public void stopCancelsTheTimerWithoutShrinking() {
+        heartbeat.setInterval(1000, 10000);
+        heartbeat.start();
+
+        for (int i = 0; i < 3; i++) {
+            answerNextPing(20);
+        }
+
+        heartbeat.stop();
+        scheduler.advance(60000);
+
+        assertEquals(3, pings.size());
+        assertTrue(timeouts.isEmpty());
+        assertEquals(1500, heartbeat.getIntervalMillis());
+
+        // Nothing is outstanding once stopped, so a late PONG is ignored.
+        heartbeat.onPong(last(pings), 0, 8);
+        assertEquals(20, heartbeat.getLastRttMillis());
+    }
+
+    private void answerNextPing(long rttMillis) {
+        int sent = pings.size();
+        scheduler.advance(scheduler.nextDelay());
+
+        assertEquals("a PING went out", sent + 1, pings.size());
+
+        pong(rttMillis);
+    }
+
+    private void pong(long afterMillis) {
+        scheduler.advance(afterMillis);
+        heartbeat.onPong(last(pings), 0, 8);
+    }
+
+    private static byte[] last(List<byte[]> list) {
+        return list.get(list.size() - 1);
+    }
+}
@@ -0,0 +1,266 @@
+package com.fitraditya.androidwebsocket.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpResponseParserTest {
+    private static final String UPGRADE = "HTTP/1.1 101 Switching Protocols\r\n"
+        + "Upgrade: websocket\r\n"
+        + "Connection: Upgrade\r\n"
+        + "Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n\r\n";
+
+    // A text frame "hi" that came in the same read as the end of the headers.
+    private static final byte[] FRAME = {(byte) 0x81, 0x02, 'h', 'i'};
+
+    @Test
+    public void parsesAResponseInOneRead() throws Exception {
+        HttpResponseParser parser = new HttpResponseParser();
+        ByteBuffer data = ByteBuffer.wrap(bytes(UPGRADE));
+
+        assertTrue(parser.parse(data));
+        assertTrue(parser.isComplete());
+        assertFalse(data.hasRemaining());
+        assertEquals(101, parser.getCode());
+        assertEquals("Switching Protocols", parser.getMessage());
+        assertEquals("websocket", parser.getHeader("Upgrade"));
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", parser.getHeader("Sec-WebSocket-Accept"));
+        assertNull(parser.getHeader("Sec-WebSocket-Protocol"));
+    }
+
+    @Test
+    public void responseSplitAcrossReadsParsesTheSame() throws Exception {
+        byte[] response = concat(bytes(UPGRADE), FRAME);
+
+        for (int split = 1; split < response.length; split++) {
+            HttpResponseParser parser = new HttpResponseParser();
+            ByteBuffer first = ByteBuffer.wrap(response, 0, split);
+            ByteBuffer second = ByteBuffer.wrap(response, split, response.length - split);
+
+            boolean isDone = parser.parse(first);
+
+            if (!isDone) {
+                assertFalse(first.hasRemaining());
+                assertTrue("split at " + split, parser.parse(second));
+            }
+
+            ByteBuffer rest = isDone ? concatRemaining(first, second) : second;
+
+            assertEquals("split at " + split, 101, parser.getCode());
+            assertEquals("split at " + split, "Upgrade", parser.getHeader("Connection"));
+            assertArrayEquals("split at " + split, FRAME, remaining(rest));
+        }
+    }
+
+    @Test
+    public void bytesAfterTheHeadersAreLeftForTheFrameParser() throws Exception {
+        HttpResponseParser parser = new HttpResponseParser();
+        ByteBuffer data = ByteBuffer.wrap(concat(bytes(UPGRADE), FRAME));
+
+        assertTrue(parser.parse(data));
+        assertArrayEquals(FRAME, remaining(data));
+
+        // Parsing stops at the blank line, so a second call leaves the frames alone too.
+        assertTrue(parser.parse(data));
+        assertEquals(FRAME.length, data.remaining());
+    }
+
+    @Test
+    public void readReturnsWhatFollowsTheHeaders() throws Exception {
+        HttpResponseParser parser = new HttpResponseParser();
+        InputStream trickle = new TrickleInputStream(concat(bytes(UPGRADE), FRAME), 3);
+
+        ByteBuffer rest = parser.read(trickle);
+
+        assertEquals(101, parser.getCode());
+        assertArrayEquals(Arrays.copyOfRange(FRAME, 0, rest.remaining()), remaining(rest));
+    }
+
+    @Test
+    public void readReportsAConnectionClosedEarly() {
+        assertEquals("HTTP exception: Received no reply from server.", readRejection(new byte[0]));
+        assertEquals("HTTP exception: Connection closed during the upgrade response.", readRejection(bytes("HTTP/1.1 101 Switching Protocols\r\nUpg")));
+    }
+
+    @Test
+    public void headersUpToTheCapAreAccepted() throws Exception {
+        String response = padded(HttpResponseParser.MAX_HEADER_SIZE);
+        HttpResponseParser parser = new HttpResponseParser();
+
+        assertEquals(HttpResponseParser.MAX_HEADER_SIZE, response.length());
+        assertTrue(parser.parse(ByteBuffer.wrap(bytes(response))));
+    }
+
+    @Test
+    public void headersPastTheCapAreRejected() {
+        assertEquals("HTTP exception: Response headers too large.", rejection(padded(HttpResponseParser.MAX_HEADER_SIZE + 1)));
+
+        // The cap holds when no line ever ends, too.
+        char[] endless = new char[HttpResponseParser.MAX_HEADER_SIZE * 2];
+        Arrays.fill(endless, 'a');
+        assertEquals("HTTP exception: Response headers too large.", rejection("HTTP/1.1 101 OK\r\nX: " + new String(endless)));
+    }
+
+    @Test
+    public void headerNamesIgnoreCase() throws Exception {
+        HttpResponseParser parser = parse("HTTP/1.1 101 Switching Protocols\r\n"
+            + "UPGRADE: websocket\r\n"
+            + "sec-websocket-ACCEPT:   key=  \r\n\r\n");
+
+        assertEquals("websocket", parser.getHeader("Upgrade"));
+        assertEquals("key=", parser.getHeader("Sec-WebSocket-Accept"));
+    }
+
+    @Test
+    public void repeatedHeadersKeepEveryValue() throws Exception {
+        HttpResponseParser parser = parse("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Sec-WebSocket-Extensions: permessage-deflate\r\n"
+            + "sec-websocket-extensions: x-other; a=1\r\n\r\n");
+
+        assertEquals(Arrays.asList("permessage-deflate", "x-other; a=1"), parser.getHeaders("Sec-WebSocket-Extensions"));
+        assertEquals("permessage-deflate, x-other; a=1", parser.getJoinedHeader("Sec-WebSocket-Extensions"));
+        assertTrue(parser.getHeaders("Missing").isEmpty());
+        assertNull(parser.getJoinedHeader("Missing"));
+    }
+
+    @Test
+    public void foldedHeadersContinueThePreviousValue() throws Exception {
+        HttpResponseParser parser = parse("HTTP/1.1 101 Switching Protocols\r\n"
+            + "X-Long: first\r\n"
+            + "   second\r\n"
+            + "\tthird\r\n"
+            + "Upgrade: websocket\r\n\r\n");
+
+        assertEquals("first second third", parser.getHeader("X-Long"));
+        assertEquals("websocket", parser.getHeader("Upgrade"));
+        assertEquals("HTTP exception: Unexpected header continuation.", rejection("HTTP/1.1 101 OK\r\n folded\r\n\r\n"));
+    }
+
+    @Test
+    public void bareLineFeedsAndALeadingBlankLineAreTolerated() throws Exception {
+        HttpResponseParser parser = parse("\r\nHTTP/1.1 101 Switching Protocols\nUpgrade: websocket\n\n");
+
+        assertEquals(101, parser.getCode());
+        assertEquals("websocket", parser.getHeader("Upgrade"));
+    }
+
+    @Test
+    public void statusWithoutAReasonHasAnEmptyMessage() throws Exception {
+        HttpResponseParser parser = parse("HTTP/1.0 503\r\n\r\n");
+
+        assertEquals(503, parser.getCode());
+        assertEquals("", parser.getMessage());
+    }
+
+    @Test
+    public void badStatusLinesAreRejected() {
+        for (String status : new String[] {"HTTP/2 101 Switching", "HTTP/1.1 1O1 Switching", "HTTP/1.1 101Switching", "HTTP/1.1 10", "ICY 200 OK", "garbage"}) {
+            assertEquals("HTTP exception: Unexpected status line: " + status, rejection(status + "\r\n\r\n"));
+        }
+    }
+
+    @Test
+    public void headersWithoutAColonAreRejected() {
+        assertEquals("HTTP exception: Malformed header: Upgrade websocket", rejection("HTTP/1.1 101 OK\r\nUpgrade websocket\r\n\r\n"));
+        assertEquals("HTTP exception: Malformed header: : empty", rejection("HTTP/1.1 101 OK\r\n: empty\r\n\r\n"));
+    }
+
+    private static HttpResponseParser parse(String response) throws Exception {
+        HttpResponseParser parser = new HttpResponseParser();
+        assertTrue(parser.parse(ByteBuffer.wrap(bytes(response))));
+
+        return parser;
+    }
+
+    /**
+     * The message the parser fails with. HttpException's constructors throw a RuntimeException
+     * in place of themselves, so that is what arrives.
+     */
+    private static String rejection(String response) {
+        try {
+            new HttpResponseParser().parse(ByteBuffer.wrap(bytes(response)));
+        } catch (HttpException | RuntimeException e) {
+            return e.getMessage();
+        }
+
+        fail("accepted " + response);
+        return null;
+    }
+
+    private static String readRejection(byte[] response) {
+        try {
+            new HttpResponseParser().read(new ByteArrayInputStream(response));
+        } catch (HttpException | IOException | RuntimeException e) {
+            return e.getMessage();
+        }
+
+        fail("accepted");
+        return null;
+    }
+
+    /**
+     * A complete response exactly {@code size} bytes long.
+     */
+    private static String padded(int size) {
+        String head = "HTTP/1.1 101 Switching Protocols\r\nX-Padding: ";
+        String tail = "\r\n\r\n";
+        char[] padding = new char[size - head.length() - tail.length()];
+        Arrays.fill(padding, 'p');
+
+        return head + new String(padding) + tail;
+    }
+
+    private static byte[] remaining(ByteBuffer buffer) {
+        byte[] rest = new byte[buffer.remaining()];
+        buffer.duplicate().get(rest);
+
+        return rest;
+    }
+
+    private static ByteBuffer concatRemaining(ByteBuffer first, ByteBuffer second) {
+        return ByteBuffer.wrap(concat(remaining(first), remaining(second)));
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] joined = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+
+        return joined;
+    }
+
+    private static byte[] bytes(String text) {
+        try {
+            return text.getBytes("ISO-8859-1");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Hands out at most {@code chunk} bytes per read, like a slow socket.
+     */
+    private static class TrickleInputStream extends ByteArrayInputStream {
+        private final int chunk;
+
+        TrickleInputStream(byte[] data, int chunk) {
+            super(data);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int length) {
+            return super.read(buffer, offset, Math.min(length, chunk));
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.fitraditya.androidwebsocket.util;
+
+import com.fitraditya.androidwebsocket.BaseWebsocketClient;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HybiParserTest {
+    private static final int FIN = 0x80;
+    private static final int CLOSE_INVALID_DATA = 1007;
+    private static final int CLOSE_MESSAGE_TOO_BIG = 1009;
+    private static final int SPILL_THRESHOLD = 16;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RecordingConnection connection;
+    private HybiParser parser;
+    private final List<SpilledMessage> spilled = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        connection = new RecordingConnection();
+        parser = new HybiParser(connection);
+        parser.setBuffered(true);
+    }
+
+    @Test
+    public void validTextIsDelivered() throws IOException {
+        consume(RecordingConnection.frame(FIN | RecordingConnection.OP_TEXT, utf8("caf\u00E9")));
+
+        assertEquals("text caf\u00E9", connection.events.get(0));
+        assertEquals(-1, connection.closeCode());
+    }
+
+    @Test
+    public void invalidTextClosesWith1007() {
+        assertFails(RecordingConnection.frame(FIN | RecordingConnection.OP_TEXT, new byte[] {0x61, (byte) 0xED, (byte) 0xA0, (byte) 0x80}));
+
+        assertEquals(CLOSE_INVALID_DATA, connection.closeCode());
+        assertTrue(connection.events.isEmpty());
+    }
+
+    @Test
+    public void textEndingMidCharacterClosesWith1007() {
+        assertFails(RecordingConnection.frame(FIN | RecordingConnection.OP_TEXT, new byte[] {0x61, (byte) 0xE2, (byte) 0x82}));
+
+        assertEquals(CLOSE_INVALID_DATA, connection.closeCode());
+    }
+
+    @Test
+    public void characterSplitAcrossFragmentsIsDecoded() throws IOException {
+        byte[] euro = utf8("\u20AC");
+
+        consume(RecordingConnection.concat(
+            RecordingConnection.frame(RecordingConnection.OP_TEXT, new byte[] {0x61, euro[0]}),
+            RecordingConnection.frame(RecordingConnection.OP_CONTINUATION, new byte[] {euro[1]}),
+            RecordingConnection.frame(FIN | RecordingConnection.OP_CONTINUATION, new byte[] {euro[2], 0x62})));
+
+        assertEquals("text a\u20ACb", connection.events.get(0));
+    }
+
+    @Test
+    public void fragmentedMessageEndingMidCharacterClosesWith1007() {
+        assertFails(RecordingConnection.concat(
+            RecordingConnection.frame(RecordingConnection.OP_TEXT, new byte[] {0x61}),
+            RecordingConnection.frame(FIN | RecordingConnection.OP_CONTINUATION, new byte[] {(byte) 0xF0, (byte) 0x9F})));
+
+        assertEquals(CLOSE_INVALID_DATA, connection.closeCode());
+        assertTrue(connection.events.isEmpty());
+    }
+
+    @Test
+    public void frameAtTheLimitIsDelivered() throws IOException {
+        parser.setLimits(100, 1000);
+        consume(RecordingConnection.frame(FIN | RecordingConnection.OP_BINARY, new byte[100]));
+
+        assertEquals("binary 100", connection.events.get(0));
+        assertEquals(-1, connection.closeCode());
+    }
+
+    @Test
+    public void oversizedFrameClosesWith1009() {
+        parser.setLimits(100, 1000);
+        assertFails(RecordingConnection.frame(FIN | RecordingConnection.OP_BINARY, new byte[101]));
+
+        assertEquals(CLOSE_MESSAGE_TOO_BIG, connection.closeCode());
+        assertTrue(connection.events.isEmpty());
+    }
+
+    @Test
+    public void oversizedFrameFailsOnItsHeaderAlone() {
+        byte[] frame = RecordingConnection.frame(FIN | RecordingConnection.OP_TEXT, new byte[60000]);
+
+        // Only the header arrives; the limit is checked before anything is buffered for it.
+        parser.setLimits(50000, 1 << 20);
+        assertFails(Arrays.copyOf(frame, 4));
+
+        assertEquals(CLOSE_MESSAGE_TOO_BIG, connection.closeCode());
+    }
+
+    @Test
+    public void oversizedFragmentedMessageClosesWith1009() {
+        parser.setLimits(100, 250);
+        assertFails(RecordingConnection.concat(
+            RecordingConnection.frame(RecordingConnection.OP_TEXT, new byte[100]),
+            RecordingConnection.frame(RecordingConnection.OP_CONTINUATION, new byte[100]),
+            RecordingConnection.frame(FIN | RecordingConnection.OP_CONTINUATION, new byte[100])));
+
+        assertEquals(CLOSE_MESSAGE_TOO_BIG, connection.closeCode());
+        assertTrue(connection.events.isEmpty());
+    }
+
+    @Test
+    public void messageLimitStartsOverForEachMessage() throws IOException {
+        parser.setLimits(100, 250);
+        consume(RecordingConnection.concat(
+            RecordingConnection.frame(RecordingConnection.OP_BINARY, new byte[100]),
+            RecordingConnection.frame(FIN | RecordingConnection.OP_CONTINUATION, new byte[100]),
+            RecordingConnection.frame(RecordingConnection.OP_BINARY, new byte[100]),
+            RecordingConnection.frame(FIN | RecordingConnection.OP_CONTINUATION, new byte[100])));
+
+        assertEquals(Arrays.asList("binary 200", "binary 200"), connection.events);
+    }
+
+    @Test
+    public void smallBinaryMessagesStayInMemory() throws IOException {
+        spillTo(folder.getRoot());
+        consume(RecordingConnection.frame(FIN | RecordingConnection.OP_BINARY, new byte[SPILL_THRESHOLD]));
+
+        assertEquals("binary " + SPILL_THRESHOLD, connection.events.get(0));
+        assertTrue(spilled.isEmpty());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void largeBinaryMessageIsSpilledToDisk() throws IOException {
+        byte[] message = new byte[600];
+        new Random(25).nextBytes(message);
+
+        // Spilled frames are never held whole, so they may exceed the frame limit.
+        parser.setLimits(64, 1 << 20);
+        spillTo(folder.getRoot());
+
+        byte[] frames = RecordingConnection.concat(
+            RecordingConnection.frame(RecordingConnection.OP_BINARY, Arrays.copyOfRange(message, 0, 10)),
+            RecordingConnection.frame(RecordingConnection.OP_CONTINUATION, Arrays.copyOfRange(message, 10, 300)),
+            RecordingConnection.frame(FIN | RecordingConnection.OP_CONTINUATION, Arrays.copyOfRange(message, 300, 600)));
+
+        for (int offset = 0; offset < frames.length; offset += 7) {
+            parser.consume(ByteBuffer.wrap(frames, offset, Math.min(7, frames.length - offset)));
+        }
+
+        assertTrue(connection.events.isEmpty());
+        assertEquals(1, spilled.size());
+
+        SpilledMessage spill = spilled.get(0);
+
+        assertEquals(folder.getRoot(), spill.getFile().getParentFile());
+        assertTrue(spill.getFile().getName().endsWith(".spill"));
+        assertEquals(message.length, spill.getLength());
+        assertArrayEquals(message, read(spill));
+
+        byte[] mapped = new byte[message.length];
+        spill.getBuffer().get(mapped);
+        assertArrayEquals(message, mapped);
+
+        spill.close();
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void oversizedSpilledMessageClosesWith1009AndDeletesTheFile() {
+        parser.setLimits(64, 300);
+        spillTo(folder.getRoot());
+
+        assertFails(RecordingConnection.concat(
+            RecordingConnection.frame(RecordingConnection.OP_BINARY, new byte[200]),
+            RecordingConnection.frame(FIN | RecordingConnection.OP_CONTINUATION, new byte[200])));
+
+        assertEquals(CLOSE_MESSAGE_TOO_BIG, connection.closeCode());
+        assertTrue(spilled.isEmpty());
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void discardDeletesAPartlySpilledMessage() throws IOException {
+        spillTo(folder.getRoot());
+        consume(RecordingConnection.frame(RecordingConnection.OP_BINARY, new byte[200]));
+
+        assertEquals(1, folder.getRoot().list().length);
+
+        parser.discard();
+
+        assertEquals(0, folder.getRoot().list().length);
+        assertTrue(spilled.isEmpty());
+
+        // The next connection starts on a fresh message.
+        consume(RecordingConnection.frame(FIN | RecordingConnection.OP_TEXT, utf8("next")));
+        assertEquals("text next", connection.events.get(0));
+    }
+
+    @Test
+    public void textFramesCarryTheStringsUtf8() {
+        char[] long1 = new char[126];
+        char[] long2 = new char[70000];
+        Arrays.fill(long1, 'x');
+        Arrays.fill(long2, '\u00E9');
+
+        // Unpaired surrogates become '?', as String.getBytes does.
+        for (String text : new String[] {"", "caf\u00E9 \u20AC \uD83D\uDE00", "lone \uD83D and \uDE00", new String(long1), new String(long2)}) {
+            byte[] frame = parser.frame(text);
+
+            assertEquals(FIN | RecordingConnection.OP_TEXT, frame[0] & 0xFF);
+            assertArrayEquals(utf8(text), unmask(frame));
+        }
+    }
+
+    @Test
+    public void noTextFramesAfterTheCloseFrame() {
+        parser.close(1000, "bye");
+
+        assertNull(parser.frame("late"));
+    }
+
+    private void spillTo(File directory) {
+        parser.setSpillListener(new BaseWebsocketClient.SpillListener() {
+            @Override
+            public void onMessage(SpilledMessage message) {
+                spilled.add(message);
+            }
+        }, directory, SPILL_THRESHOLD);
+    }
+
+    /**
+     * The payload of a masked client frame of any length.
+     */
+    private static byte[] unmask(byte[] frame) {
+        int length = frame[1] & 0x7F;
+        int offset = 2;
+
+        if (length == 126) {
+            length = ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+            offset = 4;
+        } else if (length == 127) {
+            length = ByteBuffer.wrap(frame, 2, 8).getInt(6);
+            offset = 10;
+        }
+
+        assertEquals(frame.length, offset + 4 + length);
+
+        byte[] payload = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (frame[offset + 4 + i] ^ frame[offset + i % 4]);
+        }
+
+        return payload;
+    }
+
+    private static byte[] read(SpilledMessage message) throws IOException {
+        InputStream in = message.openStream();
+
+        try {
+            byte[] data = new byte[(int) message.getLength()];
+            int read = 0;
+
+            while (read < data.length) {
+                int count = in.read(data, read, data.length - read);
+
+                if (count < 0) {
+                    break;
+                }
+
+                read += count;
+            }
+
+            assertEquals(-1, in.read());
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void consume(byte[] data) throws IOException {
+        parser.consume(ByteBuffer.wrap(data));
+    }
+
+    private void assertFails(byte[] data) {
+        try {
+            consume(data);
+            fail("no protocol error");
+        } catch (HybiParser.ProtocolError expected) {
+            // The connection is failed.
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static byte[] utf8(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
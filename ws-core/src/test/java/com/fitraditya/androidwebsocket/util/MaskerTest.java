@@ -0,0 +1,137 @@
+package com.fitraditya.androidwebsocket.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MaskerTest {
+    private static final int KEY = 0xA1B2C3D4;
+    private static final int MAX_LENGTH = 64;
+    private static final int MAX_OFFSET = 7;
+
+    private final Random random = new Random(1);
+
+    @Test
+    public void arrayMatchesByteAtATime() {
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            for (int offset = 0; offset <= MAX_OFFSET; offset++) {
+                for (int phase = 0; phase < 4; phase++) {
+                    byte[] data = randomBytes(offset + length + 8);
+                    byte[] expected = data.clone();
+                    int expectedPhase = reference(expected, offset, length, KEY, phase);
+
+                    int nextPhase = Masker.mask(data, offset, length, KEY, phase);
+
+                    String where = describe(length, offset, phase);
+                    assertArrayEquals(where, expected, data);
+                    assertEquals(where, expectedPhase, nextPhase);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void heapBufferMatchesByteAtATime() {
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            for (int offset = 0; offset <= MAX_OFFSET; offset++) {
+                for (int phase = 0; phase < 4; phase++) {
+                    // A slice has a non-zero array offset, which the alignment has to account for.
+                    byte[] backing = randomBytes(3 + offset + length + 8);
+                    byte[] expected = backing.clone();
+                    int expectedPhase = reference(expected, 3 + offset, length, KEY, phase);
+
+                    ByteBuffer buffer = ByteBuffer.wrap(backing, 3, backing.length - 3).slice();
+                    int nextPhase = Masker.mask(buffer, offset, length, KEY, phase);
+
+                    String where = describe(length, offset, phase);
+                    assertArrayEquals(where, expected, backing);
+                    assertEquals(where, expectedPhase, nextPhase);
+                    assertEquals(where, 0, buffer.position());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void directBufferMatchesByteAtATime() {
+        for (int length = 0; length <= MAX_LENGTH; length++) {
+            for (int offset = 0; offset <= MAX_OFFSET; offset++) {
+                for (int phase = 0; phase < 4; phase++) {
+                    byte[] data = randomBytes(offset + length + 8);
+                    byte[] expected = data.clone();
+                    int expectedPhase = reference(expected, offset, length, KEY, phase);
+
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(data.length).order(ByteOrder.LITTLE_ENDIAN);
+                    buffer.put(data).clear();
+                    int nextPhase = Masker.mask(buffer, offset, length, KEY, phase);
+
+                    byte[] masked = new byte[data.length];
+                    buffer.get(masked);
+
+                    String where = describe(length, offset, phase);
+                    assertArrayEquals(where, expected, masked);
+                    assertEquals(where, expectedPhase, nextPhase);
+                    assertEquals(where, ByteOrder.LITTLE_ENDIAN, buffer.order());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void maskingInPiecesMatchesMaskingWhole() {
+        byte[] whole = randomBytes(200);
+        byte[] pieces = whole.clone();
+
+        Masker.mask(whole, 0, whole.length, KEY, 0);
+
+        int phase = 0;
+        int position = 0;
+
+        for (int size : new int[] {1, 7, 16, 3, 33, 64, 5, 71}) {
+            phase = Masker.mask(pieces, position, size, KEY, phase);
+            position += size;
+        }
+
+        assertEquals(whole.length, position);
+        assertArrayEquals(whole, pieces);
+    }
+
+    @Test
+    public void keyRoundTrips() {
+        byte[] data = new byte[6];
+        Masker.putKey(data, 2, KEY);
+
+        assertArrayEquals(new byte[] {0, 0, (byte) 0xA1, (byte) 0xB2, (byte) 0xC3, (byte) 0xD4}, data);
+        assertEquals(KEY, Masker.key(data, 2));
+    }
+
+    /**
+     * The RFC 6455 definition: byte i of the payload is XORed with key byte i modulo 4.
+     */
+    private static int reference(byte[] data, int offset, int length, int key, int phase) {
+        byte[] keyBytes = new byte[4];
+        Masker.putKey(keyBytes, 0, key);
+
+        for (int i = 0; i < length; i++) {
+            data[offset + i] ^= keyBytes[(phase + i) % 4];
+        }
+
+        return (phase + length) % 4;
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+
+        return data;
+    }
+
+    private static String describe(int length, int offset, int phase) {
+        return "length " + length + ", offset " + offset + ", phase " + phase;
+    }
+}
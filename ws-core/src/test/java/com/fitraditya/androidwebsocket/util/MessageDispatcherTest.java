@@ -0,0 +1,253 @@
+package com.fitraditya.androidwebsocket.util;
+
+import com.fitraditya.androidwebsocket.platform.WakeLock;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessageDispatcherTest {
+    private static final int CAPACITY = 2;
+
+    private ExecutorService executor;
+    private RecordingConnection listener;
+    private CountDownLatch gate;
+    private CountDownLatch delivering;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        gate = new CountDownLatch(1);
+        delivering = new CountDownLatch(1);
+
+        // Holds the first message until the test opens the gate, like a slow listener.
+        listener = new RecordingConnection() {
+            @Override
+            public void onMessage(String message) {
+                if (message.equals("m0")) {
+                    delivering.countDown();
+                    await(gate);
+                }
+
+                super.onMessage(message);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        gate.countDown();
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustAllowOneMessage() {
+        new MessageDispatcher(executor, 0, listener, null);
+    }
+
+    @Test
+    public void deliversInOrderOffTheCallingThread() throws Exception {
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        RecordingConnection recording = new RecordingConnection() {
+            @Override
+            public void onMessage(byte[] data) {
+                threads.add(Thread.currentThread());
+                super.onMessage(data);
+            }
+        };
+        MessageDispatcher dispatcher = new MessageDispatcher(executor, CAPACITY, recording, null);
+
+        dispatcher.onConnect();
+        dispatcher.onMessage("a");
+        dispatcher.onMessage(new byte[3]);
+        dispatcher.onDisconnect(1000, "bye");
+        awaitIdle();
+
+        assertEquals(Arrays.asList("connect", "text a", "binary 3", "disconnect 1000"), recording.events);
+        assertFalse(threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void readerBlocksOnAFullQueueUntilTheListenerCatchesUp() throws Exception {
+        final MessageDispatcher dispatcher = new MessageDispatcher(executor, CAPACITY, listener, null);
+        final CountDownLatch read = new CountDownLatch(1);
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 5; i++) {
+                    dispatcher.onMessage("m" + i);
+                }
+
+                read.countDown();
+            }
+        });
+
+        reader.start();
+        assertTrue(delivering.await(5, TimeUnit.SECONDS));
+
+        // m0 is with the listener and m1, m2 fill the queue, so the reader is stuck on m3.
+        awaitState(reader, Thread.State.WAITING);
+        assertEquals(CAPACITY, dispatcher.getQueuedMessages());
+        assertFalse(read.await(100, TimeUnit.MILLISECONDS));
+        assertTrue(listener.events.isEmpty());
+
+        gate.countDown();
+
+        assertTrue(read.await(5, TimeUnit.SECONDS));
+        awaitIdle();
+        assertEquals(Arrays.asList("text m0", "text m1", "text m2", "text m3", "text m4"), listener.events);
+        assertEquals(0, dispatcher.getQueuedMessages());
+    }
+
+    @Test
+    public void disconnectAndErrorNeverBlockOnAFullQueue() throws Exception {
+        MessageDispatcher dispatcher = new MessageDispatcher(executor, CAPACITY, listener, null);
+
+        dispatcher.onMessage("m0");
+        assertTrue(delivering.await(5, TimeUnit.SECONDS));
+        dispatcher.onMessage("m1");
+        dispatcher.onMessage("m2");
+
+        // These return with the queue full; they wait their turn behind the messages.
+        dispatcher.onError(new Exception("lost"));
+        dispatcher.onDisconnect(1006, "gone");
+        assertEquals(CAPACITY, dispatcher.getQueuedMessages());
+
+        gate.countDown();
+        awaitIdle();
+
+        assertEquals(Arrays.asList("text m0", "text m1", "text m2", "error lost", "disconnect 1006"), listener.events);
+    }
+
+    @Test
+    public void aShutDownExecutorDeliversOnTheCallingThread() {
+        final List<Thread> threads = new ArrayList<>();
+        RecordingConnection recording = new RecordingConnection() {
+            @Override
+            public void onDisconnect(int code, String reason) {
+                threads.add(Thread.currentThread());
+                super.onDisconnect(code, reason);
+            }
+        };
+        MessageDispatcher dispatcher = new MessageDispatcher(executor, CAPACITY, recording, null);
+
+        executor.shutdown();
+        dispatcher.onMessage("late");
+        dispatcher.onDisconnect(1000, "bye");
+
+        assertEquals(Arrays.asList("text late", "disconnect 1000"), recording.events);
+        assertEquals(Arrays.asList(Thread.currentThread()), threads);
+        assertEquals(0, dispatcher.getQueuedMessages());
+    }
+
+    @Test
+    public void aThrowingListenerDoesNotStopTheQueue() throws Exception {
+        RecordingConnection recording = new RecordingConnection() {
+            @Override
+            public void onMessage(String message) {
+                if (message.equals("bad")) {
+                    throw new IllegalStateException("listener failed");
+                }
+
+                super.onMessage(message);
+            }
+        };
+        MessageDispatcher dispatcher = new MessageDispatcher(executor, CAPACITY, recording, null);
+
+        dispatcher.onMessage("bad");
+        dispatcher.onMessage("good");
+        awaitIdle();
+
+        assertEquals(Arrays.asList("error listener failed", "text good"), recording.events);
+    }
+
+    @Test
+    public void wakeLockIsHeldUntilEachCallbackHasRun() throws Exception {
+        CountingWakeLock wakeLock = new CountingWakeLock();
+        MessageDispatcher dispatcher = new MessageDispatcher(executor, CAPACITY, listener, wakeLock);
+
+        dispatcher.onMessage("m0");
+        assertTrue(delivering.await(5, TimeUnit.SECONDS));
+        dispatcher.onMessage("m1");
+        dispatcher.onDisconnect(1000, "bye");
+
+        assertEquals(3, wakeLock.held());
+
+        gate.countDown();
+        awaitIdle();
+
+        assertEquals(0, wakeLock.held());
+    }
+
+    /**
+     * Waits until everything queued on the executor so far has run.
+     */
+    private void awaitIdle() throws Exception {
+        executor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    private static void awaitState(Thread thread, Thread.State state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (thread.getState() != state && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        assertEquals(state, thread.getState());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class CountingWakeLock implements WakeLock {
+        private int held;
+
+        @Override
+        public synchronized void acquire() {
+            held++;
+        }
+
+        @Override
+        public synchronized void acquire(long timeoutMillis) {
+            held++;
+        }
+
+        @Override
+        public synchronized void release() {
+            held--;
+        }
+
+        @Override
+        public synchronized void releaseAll() {
+            held = 0;
+        }
+
+        synchronized int held() {
+            return held;
+        }
+    }
+}
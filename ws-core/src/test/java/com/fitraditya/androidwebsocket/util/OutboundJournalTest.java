@@ -0,0 +1,288 @@
+package com.fitraditya.androidwebsocket.util;
+
+import com.fitraditya.androidwebsocket.platform.FakeScheduler;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class OutboundJournalTest {
+    private static final int SEGMENT_BYTES = 128;
+    private static final int LARGE_SEGMENT_BYTES = 64 * 1024;
+    private static final int HEADER_BYTES = 24;
+
+    // Length, type and CRC around each payload.
+    private static final int RECORD_OVERHEAD = 9;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private FakeScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), "journal");
+        scheduler = new FakeScheduler();
+    }
+
+    @Test
+    public void replaysAppendsInOrder() throws IOException {
+        OutboundJournal journal = open(LARGE_SEGMENT_BYTES, LARGE_SEGMENT_BYTES * 4);
+
+        assertEquals(0, journal.append(bytes("first"), true));
+        assertEquals(1, journal.append(new byte[] {1, 2, 3}, false));
+        assertEquals(2, journal.append(new byte[0], false));
+
+        List<Record> records = replay(journal);
+
+        assertEquals(3, records.size());
+        assertEquals(3, journal.getPendingCount());
+        assertRecord(records.get(0), 0, bytes("first"), true);
+        assertRecord(records.get(1), 1, new byte[] {1, 2, 3}, false);
+        assertRecord(records.get(2), 2, new byte[0], false);
+    }
+
+    @Test
+    public void appendsRollIntoNewSegments() throws IOException {
+        OutboundJournal journal = open(SEGMENT_BYTES, SEGMENT_BYTES * 8);
+
+        // Each record takes 49 bytes, so two fit a 128-byte segment after its header.
+        for (int i = 0; i < 5; i++) {
+            journal.append(payload(i, 40), false);
+        }
+
+        assertEquals(3, segments().length);
+        assertEquals(3 * SEGMENT_BYTES, journal.getSizeBytes());
+
+        // A message larger than a segment gets one of its own, sized to fit.
+        journal.append(payload(5, SEGMENT_BYTES * 2), false);
+
+        assertEquals(4, segments().length);
+        assertEquals(6, replay(journal).size());
+    }
+
+    @Test
+    public void acknowledgeDeletesSegmentsLeftEmpty() throws IOException {
+        OutboundJournal journal = open(SEGMENT_BYTES, SEGMENT_BYTES * 8);
+
+        for (int i = 0; i < 6; i++) {
+            journal.append(payload(i, 40), false);
+        }
+
+        assertEquals(3, segments().length);
+
+        // Sequences 0 and 1 fill the first segment; 2 is half of the second.
+        journal.acknowledge(2);
+
+        assertEquals(2, segments().length);
+        assertEquals(2 * SEGMENT_BYTES, journal.getSizeBytes());
+        assertEquals(3, journal.getPendingCount());
+        assertEquals(3, replay(journal).get(0).sequence);
+
+        // Acknowledging backwards, or past the end, changes nothing it should not.
+        journal.acknowledge(1);
+        assertEquals(3, journal.getPendingCount());
+
+        journal.acknowledge(100);
+        assertEquals(0, journal.getPendingCount());
+        assertEquals(1, segments().length);
+        assertTrue(replay(journal).isEmpty());
+        assertEquals(6, journal.append(payload(6, 40), false));
+    }
+
+    @Test
+    public void fullJournalRefusesAppendsUntilAcknowledged() throws IOException {
+        OutboundJournal journal = open(SEGMENT_BYTES, SEGMENT_BYTES * 2);
+
+        for (int i = 0; i < 4; i++) {
+            journal.append(payload(i, 40), false);
+        }
+
+        try {
+            journal.append(payload(4, 40), false);
+            fail("appended past the limit");
+        } catch (IOException expected) {
+            // Full.
+        }
+
+        journal.acknowledge(1);
+
+        assertEquals(4, journal.append(payload(4, 40), false));
+        assertEquals(3, journal.getPendingCount());
+    }
+
+    @Test
+    public void reopeningRecoversUnacknowledgedMessages() throws IOException {
+        OutboundJournal journal = open(SEGMENT_BYTES, SEGMENT_BYTES * 8);
+
+        for (int i = 0; i < 5; i++) {
+            journal.append(payload(i, 40), i % 2 == 0);
+        }
+
+        journal.acknowledge(2);
+        journal.commit();
+
+        OutboundJournal reopened = open(SEGMENT_BYTES, SEGMENT_BYTES * 8);
+        List<Record> records = replay(reopened);
+
+        assertEquals(2, reopened.getPendingCount());
+        assertEquals(2, records.size());
+        assertRecord(records.get(0), 3, payload(3, 40), false);
+        assertRecord(records.get(1), 4, payload(4, 40), true);
+
+        // Sequence numbers carry on from where the last process stopped.
+        assertEquals(5, reopened.append(payload(5, 40), false));
+    }
+
+    @Test
+    public void recoveryStopsAtARecordThatFailsItsCrc() throws IOException {
+        OutboundJournal journal = open(LARGE_SEGMENT_BYTES, LARGE_SEGMENT_BYTES * 4);
+
+        journal.append(payload(0, 40), false);
+        journal.append(payload(1, 40), false);
+        journal.append(payload(2, 40), false);
+        journal.commit();
+
+        // Flip a payload byte of the second record, as a write torn by power loss might.
+        File segment = segments()[0];
+        long offset = HEADER_BYTES + (RECORD_OVERHEAD + 40) + 5;
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+
+        try {
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 0xFF);
+        } finally {
+            file.close();
+        }
+
+        OutboundJournal reopened = open(LARGE_SEGMENT_BYTES, LARGE_SEGMENT_BYTES * 4);
+        List<Record> records = replay(reopened);
+
+        assertEquals(1, records.size());
+        assertRecord(records.get(0), 0, payload(0, 40), false);
+
+        // The next append overwrites the torn record instead of being hidden behind it.
+        assertEquals(1, reopened.append(bytes("after"), true));
+
+        records = replay(open(LARGE_SEGMENT_BYTES, LARGE_SEGMENT_BYTES * 4));
+        assertEquals(2, records.size());
+        assertRecord(records.get(1), 1, bytes("after"), true);
+    }
+
+    @Test
+    public void damagedSegmentIsDropped() throws IOException {
+        OutboundJournal journal = open(LARGE_SEGMENT_BYTES, LARGE_SEGMENT_BYTES * 4);
+        journal.append(payload(0, 40), false);
+
+        RandomAccessFile file = new RandomAccessFile(segments()[0], "rw");
+
+        try {
+            file.writeInt(0);
+        } finally {
+            file.close();
+        }
+
+        OutboundJournal reopened = open(LARGE_SEGMENT_BYTES, LARGE_SEGMENT_BYTES * 4);
+
+        assertEquals(0, reopened.getPendingCount());
+        assertEquals(0, segments().length);
+    }
+
+    @Test
+    public void appendsAreCommittedOncePerInterval() throws IOException {
+        OutboundJournal journal = open(LARGE_SEGMENT_BYTES, LARGE_SEGMENT_BYTES * 4);
+        journal.setCommitMillis(50);
+
+        journal.append(payload(0, 10), false);
+        journal.append(payload(1, 10), false);
+
+        assertEquals(1, scheduler.pending());
+        assertEquals(50, scheduler.nextDelay());
+
+        scheduler.advance(50);
+        assertEquals(0, scheduler.pending());
+
+        journal.append(payload(2, 10), false);
+        assertEquals(1, scheduler.pending());
+    }
+
+    private OutboundJournal open(int segmentBytes, long maxBytes) throws IOException {
+        return new OutboundJournal(directory, segmentBytes, maxBytes, scheduler);
+    }
+
+    private File[] segments() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".journal");
+            }
+        });
+
+        return (files != null) ? files : new File[0];
+    }
+
+    private static List<Record> replay(OutboundJournal journal) {
+        final List<Record> records = new ArrayList<>();
+
+        journal.replay(new OutboundJournal.Replay() {
+            @Override
+            public void onRecord(long sequence, byte[] data, boolean isText) {
+                records.add(new Record(sequence, data, isText));
+            }
+        });
+
+        return records;
+    }
+
+    private static void assertRecord(Record record, long sequence, byte[] data, boolean isText) {
+        assertEquals(sequence, record.sequence);
+        assertArrayEquals(data, record.data);
+        assertEquals(isText, record.isText);
+    }
+
+    private static byte[] payload(int seed, int length) {
+        byte[] data = new byte[length];
+
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed * 31 + i);
+        }
+
+        return data;
+    }
+
+    private static byte[] bytes(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static class Record {
+        final long sequence;
+        final byte[] data;
+        final boolean isText;
+
+        Record(long sequence, byte[] data, boolean isText) {
+            this.sequence = sequence;
+            this.data = data;
+            this.isText = isText;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.fitraditya.androidwebsocket.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OutboundQueueTest {
+    private static final byte[] DATA = frame(0x82, 100);
+    private static final byte[] PING = frame(0x89, 10);
+
+    @Test
+    public void flipsAtWatermarks() throws InterruptedException {
+        final List<Boolean> flips = new ArrayList<>();
+        OutboundQueue queue = new OutboundQueue();
+        queue.setWatermarks(100, 300);
+        queue.setWritabilityListener(new OutboundQueue.WritabilityListener() {
+            @Override
+            public void onWritabilityChanged(boolean writable) {
+                flips.add(writable);
+            }
+        });
+
+        for (int i = 0; i < 3; i++) {
+            queue.offer(DATA);
+        }
+
+        assertTrue(queue.isWritable());
+
+        queue.offer(DATA);
+        assertFalse(queue.isWritable());
+        assertFalse(queue.awaitWritable(10));
+
+        queue.poll();
+        queue.poll();
+        assertFalse(queue.isWritable());
+
+        queue.poll();
+        assertTrue(queue.isWritable());
+        assertTrue(queue.awaitWritable(0));
+        assertEquals(100, queue.getPendingBytes());
+
+        assertEquals(2, flips.size());
+        assertFalse(flips.get(0));
+        assertTrue(flips.get(1));
+    }
+
+    @Test
+    public void pingsSkipAheadOfData() {
+        OutboundQueue queue = new OutboundQueue();
+        queue.offer(DATA);
+        queue.offer(PING);
+
+        assertArrayEquals(PING, queue.poll());
+        assertArrayEquals(DATA, queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Producers send the way the fragmenting sender does, waiting for the queue to be writable
+     * after each frame, while a consumer drains it. Every frame crosses the high watermark and
+     * every drain the low one, so offers and polls keep racing over the flag. A queue left empty
+     * but unwritable would strand the producers.
+     */
+    @Test
+    public void drainedQueueIsWritableUnderContention() throws Exception {
+        final OutboundQueue queue = new OutboundQueue();
+        final AtomicBoolean isStuck = new AtomicBoolean();
+        final AtomicBoolean isDone = new AtomicBoolean();
+        final int producers = 4;
+        final int frames = 20000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch produced = new CountDownLatch(producers);
+
+        queue.setWatermarks(0, 0);
+
+        for (int i = 0; i < producers; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+
+                        for (int j = 0; j < frames && !isStuck.get(); j++) {
+                            queue.offer(DATA);
+
+                            if (!queue.awaitWritable(2000)) {
+                                isStuck.set(true);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        isStuck.set(true);
+                    } finally {
+                        produced.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!isDone.get()) {
+                    queue.poll();
+                }
+            }
+        });
+
+        consumer.start();
+        start.countDown();
+        produced.await();
+        isDone.set(true);
+        consumer.join();
+
+        assertFalse("queue left unwritable with nothing to drain", isStuck.get());
+        assertNull(queue.poll());
+        assertEquals(0, queue.getPendingBytes());
+        assertTrue(queue.isWritable());
+    }
+
+    private static byte[] frame(int firstByte, int length) {
+        byte[] frame = new byte[length];
+        frame[0] = (byte) firstByte;
+
+        return frame;
+    }
+}
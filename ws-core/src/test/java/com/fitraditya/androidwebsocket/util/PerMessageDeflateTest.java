@@ -0,0 +1,250 @@
+package com.fitraditya.androidwebsocket.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PerMessageDeflateTest {
+    private static final int FIN = 0x80;
+    private static final int RSV1 = 0x40;
+
+    private static final byte[] MESSAGE = HybiParserTest.utf8("{\"topic\":\"prices\",\"symbol\":\"ACME\",\"bid\":101.25,\"ask\":101.50}");
+
+    @Test
+    public void offerListsOnlyWhatDiffersFromTheDefaults() {
+        assertEquals("permessage-deflate", new PerMessageDeflate().offer());
+        assertEquals("permessage-deflate; server_max_window_bits=10; server_no_context_takeover; client_no_context_takeover", new PerMessageDeflate()
+            .setServerMaxWindowBits(10)
+            .setServerNoContextTakeover(true)
+            .setClientNoContextTakeover(true)
+            .offer());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void offeredWindowBitsAreBounded() {
+        new PerMessageDeflate().setServerMaxWindowBits(16);
+    }
+
+    @Test
+    public void acceptsTheServersAnswer() throws Exception {
+        assertFalse(new PerMessageDeflate().accept(null));
+        assertTrue(new PerMessageDeflate().accept("permessage-deflate"));
+        assertTrue(new PerMessageDeflate().accept(" permessage-deflate ; server_no_context_takeover; client_no_context_takeover"));
+        assertTrue(new PerMessageDeflate().setServerMaxWindowBits(10).accept("permessage-deflate; server_max_window_bits=\"9\""));
+    }
+
+    @Test
+    public void rejectsUnknownExtensionsAndParameters() {
+        assertEquals("HTTP exception: Unexpected extension: x-webkit-deflate-frame", rejection(new PerMessageDeflate(), "x-webkit-deflate-frame"));
+        assertEquals("HTTP exception: Unexpected extension parameter: mystery", rejection(new PerMessageDeflate(), "permessage-deflate; mystery=1"));
+
+        // The client window is never offered, so the server may not answer it.
+        assertEquals("HTTP exception: Unexpected extension parameter: client_max_window_bits", rejection(new PerMessageDeflate(), "permessage-deflate; client_max_window_bits=15"));
+    }
+
+    @Test
+    public void rejectsADuplicateAcceptance() {
+        assertEquals("HTTP exception: Extension accepted more than once.", rejection(new PerMessageDeflate(), "permessage-deflate, permessage-deflate; server_no_context_takeover"));
+    }
+
+    @Test
+    public void rejectsBadOrOversizedWindowBits() {
+        assertEquals("HTTP exception: Server window larger than offered: 11", rejection(new PerMessageDeflate().setServerMaxWindowBits(10), "permessage-deflate; server_max_window_bits=11"));
+        assertEquals("HTTP exception: Bad window bits: 16", rejection(new PerMessageDeflate(), "permessage-deflate; server_max_window_bits=16"));
+        assertEquals("HTTP exception: Bad window bits: 7", rejection(new PerMessageDeflate(), "permessage-deflate; server_max_window_bits=7"));
+        assertEquals("HTTP exception: Bad window bits: wide", rejection(new PerMessageDeflate(), "permessage-deflate; server_max_window_bits=wide"));
+        assertEquals("HTTP exception: Bad window bits: null", rejection(new PerMessageDeflate(), "permessage-deflate; server_max_window_bits"));
+    }
+
+    @Test
+    public void roundTripsWholeMessages() throws Exception {
+        PerMessageDeflate sender = new PerMessageDeflate();
+        PerMessageDeflate receiver = new PerMessageDeflate();
+        byte[] random = new byte[20000];
+        new Random(7).nextBytes(random);
+
+        for (byte[] message : new byte[][] {MESSAGE, new byte[0], new byte[100000], random, MESSAGE}) {
+            byte[] compressed = sender.deflate(message);
+
+            assertFalse(endsWithEmptyBlock(compressed));
+            assertArrayEquals(message, inflate(receiver, compressed));
+        }
+
+        assertEquals(MESSAGE.length * 2 + 100000 + 20000, sender.getRawBytesOut());
+        assertEquals(sender.getRawBytesOut(), receiver.getRawBytesIn());
+    }
+
+    @Test
+    public void roundTripsMessagesCompressedInPieces() throws Exception {
+        PerMessageDeflate sender = new PerMessageDeflate();
+        PerMessageDeflate receiver = new PerMessageDeflate();
+        byte[] message = new byte[30000];
+
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (byte) ("abcdefgh".charAt(i % 8) + i / 1000);
+        }
+
+        for (int piece : new int[] {1, 7, 4096, message.length}) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+            for (int offset = 0; offset < message.length; offset += piece) {
+                int length = Math.min(piece, message.length - offset);
+                byte[] part = sender.deflate(message, offset, length, offset + length == message.length);
+                compressed.write(part, 0, part.length);
+            }
+
+            assertArrayEquals("pieces of " + piece, message, inflate(receiver, compressed.toByteArray()));
+        }
+    }
+
+    @Test
+    public void inflatesACompressedMessageSplitAcrossFragments() throws Exception {
+        byte[] compressed = new PerMessageDeflate().deflate(MESSAGE);
+        PerMessageDeflate receiver = new PerMessageDeflate();
+
+        for (int split = 0; split <= compressed.length; split++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            receiver.inflate(compressed, 0, split, out);
+            receiver.inflate(compressed, split, compressed.length - split, out);
+            receiver.finish(out);
+
+            assertArrayEquals("split at " + split, MESSAGE, out.toByteArray());
+        }
+    }
+
+    @Test
+    public void parserInflatesFragmentedCompressedText() throws Exception {
+        RecordingConnection connection = new RecordingConnection();
+        HybiParser parser = new HybiParser(connection);
+        parser.setBuffered(true);
+        parser.setDeflate(new PerMessageDeflate());
+
+        PerMessageDeflate server = new PerMessageDeflate();
+        byte[] first = server.deflate(MESSAGE, 0, 20, false);
+        byte[] last = server.deflate(MESSAGE, 20, MESSAGE.length - 20, true);
+
+        // Only the first frame of a compressed message carries RSV1.
+        parser.consume(ByteBuffer.wrap(RecordingConnection.concat(
+            RecordingConnection.frame(RSV1 | RecordingConnection.OP_TEXT, first),
+            RecordingConnection.frame(FIN | RecordingConnection.OP_CONTINUATION, last),
+            RecordingConnection.frame(FIN | RSV1 | RecordingConnection.OP_TEXT, server.deflate(MESSAGE)))));
+
+        assertEquals(Arrays.asList("text " + new String(MESSAGE, "UTF-8"), "text " + new String(MESSAGE, "UTF-8")), connection.events);
+        assertEquals(-1, connection.closeCode());
+    }
+
+    @Test
+    public void inflateStopsPastTheLimit() throws Exception {
+        // A megabyte of zeros compresses to about a kilobyte.
+        byte[] bomb = new PerMessageDeflate().deflate(new byte[1 << 20]);
+        PerMessageDeflate receiver = new PerMessageDeflate();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        receiver.inflate(bomb, 0, bomb.length, out, 4096);
+
+        assertTrue("inflated " + out.size(), out.size() > 4096);
+        assertTrue("inflated " + out.size(), out.size() <= 4096 + 8192);
+        assertTrue(bomb.length < 2048);
+    }
+
+    @Test
+    public void keepsTheContextBetweenMessagesByDefault() throws Exception {
+        PerMessageDeflate sender = new PerMessageDeflate();
+        sender.accept("permessage-deflate");
+
+        byte[] first = sender.deflate(MESSAGE);
+        byte[] second = sender.deflate(MESSAGE);
+
+        // The repeat is a back reference into the previous message.
+        assertTrue(second.length + " vs " + first.length, second.length < first.length);
+
+        PerMessageDeflate receiver = new PerMessageDeflate();
+        receiver.accept("permessage-deflate");
+
+        assertArrayEquals(MESSAGE, inflate(receiver, first));
+        assertArrayEquals(MESSAGE, inflate(receiver, second));
+    }
+
+    @Test
+    public void clientNoContextTakeoverResetsTheDeflater() throws Exception {
+        PerMessageDeflate sender = new PerMessageDeflate();
+        sender.accept("permessage-deflate; client_no_context_takeover");
+
+        byte[] first = sender.deflate(MESSAGE);
+
+        assertArrayEquals(first, sender.deflate(MESSAGE));
+        assertArrayEquals(MESSAGE, inflate(new PerMessageDeflate(), sender.deflate(MESSAGE)));
+    }
+
+    @Test
+    public void serverNoContextTakeoverResetsTheInflater() throws Exception {
+        PerMessageDeflate server = new PerMessageDeflate();
+        byte[] first = server.deflate(MESSAGE);
+        byte[] second = server.deflate(MESSAGE);
+
+        // A receiver that promised the server a fresh context drops the first message's
+        // window, so a back reference into it cannot be resolved.
+        PerMessageDeflate receiver = new PerMessageDeflate();
+        receiver.accept("permessage-deflate; server_no_context_takeover");
+
+        assertArrayEquals(MESSAGE, inflate(receiver, first));
+
+        try {
+            inflate(receiver, second);
+            fail("resolved a reference into a discarded window");
+        } catch (DataFormatException expected) {
+            // The window was reset after the first message.
+        }
+    }
+
+    @Test
+    public void acceptingAgainStartsFreshContexts() throws Exception {
+        PerMessageDeflate sender = new PerMessageDeflate();
+        byte[] first = sender.deflate(MESSAGE);
+
+        sender.accept("permessage-deflate");
+
+        assertArrayEquals(first, sender.deflate(MESSAGE));
+    }
+
+    private static byte[] inflate(PerMessageDeflate receiver, byte[] compressed) throws DataFormatException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        receiver.inflate(compressed, 0, compressed.length, out);
+        receiver.finish(out);
+
+        return out.toByteArray();
+    }
+
+    private static boolean endsWithEmptyBlock(byte[] data) {
+        int length = data.length;
+
+        return length >= 4 && data[length - 4] == 0 && data[length - 3] == 0 && data[length - 2] == (byte) 0xff && data[length - 1] == (byte) 0xff;
+    }
+
+    /**
+     * The message accept() fails with. HttpException's constructors throw a RuntimeException in
+     * place of themselves, so that is what arrives.
+     */
+    private static String rejection(PerMessageDeflate deflate, String header) {
+        try {
+            deflate.accept(header);
+        } catch (HttpException | RuntimeException e) {
+            return e.getMessage();
+        }
+
+        fail("accepted " + header);
+        return null;
+    }
+}
@@ -0,0 +1,137 @@
+package com.fitraditya.androidwebsocket.util;
+
+import com.fitraditya.androidwebsocket.BaseWebsocketClient;
+import com.fitraditya.androidwebsocket.WebsocketConnection;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A connection with no socket behind it, for driving a {@link HybiParser} directly: frames the
+ * parser sends are kept, and what it delivers is recorded as short event strings.
+ */
+
+class RecordingConnection implements WebsocketConnection, BaseWebsocketClient.WebsocketListener {
+    static final int OP_CONTINUATION = 0;
+    static final int OP_TEXT = 1;
+    static final int OP_BINARY = 2;
+    static final int OP_CLOSE = 8;
+
+    final List<String> events = new ArrayList<>();
+    final List<byte[]> sent = new ArrayList<>();
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public void send(String data) {
+    }
+
+    @Override
+    public void send(byte[] data) {
+    }
+
+    @Override
+    public void sendFrame(byte[] frame) {
+        sent.add(frame);
+    }
+
+    @Override
+    public boolean awaitWritable() {
+        return true;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public BaseWebsocketClient.WebsocketListener getListener() {
+        return this;
+    }
+
+    @Override
+    public void onConnect() {
+        events.add("connect");
+    }
+
+    @Override
+    public void onMessage(String message) {
+        events.add("text " + message);
+    }
+
+    @Override
+    public void onMessage(byte[] data) {
+        events.add("binary " + data.length);
+    }
+
+    @Override
+    public void onDisconnect(int code, String reason) {
+        events.add("disconnect " + code);
+    }
+
+    @Override
+    public void onError(Exception error) {
+        events.add("error " + error.getMessage());
+    }
+
+    /**
+     * The status code of the close frame the parser sent, or -1 when it sent none.
+     */
+    int closeCode() {
+        for (byte[] frame : sent) {
+            if ((frame[0] & 0x0F) == OP_CLOSE) {
+                // A client frame: a length under 126, the mask, then the masked payload.
+                int code0 = (frame[6] ^ frame[2]) & 0xFF;
+                int code1 = (frame[7] ^ frame[3]) & 0xFF;
+
+                return (code0 << 8) | code1;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * An unmasked server frame: {@code firstByte} carries FIN and the opcode.
+     */
+    static byte[] frame(int firstByte, byte[] payload) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(firstByte);
+
+        if (payload.length < 126) {
+            out.write(payload.length);
+        } else if (payload.length <= 0xFFFF) {
+            out.write(126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+        } else {
+            out.write(127);
+
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) ((long) payload.length >>> shift));
+            }
+        }
+
+        out.write(payload, 0, payload.length);
+
+        return out.toByteArray();
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,114 @@
+package com.fitraditya.androidwebsocket.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SocketConnectorTest {
+    private static final InetAddress REFUSING = Blackhole.address(127, 0, 0, 3);
+
+    private Blackhole blackhole;
+    private ServerSocket server;
+
+    @Before
+    public void setUp() throws IOException {
+        blackhole = new Blackhole();
+
+        // Same port as the black hole, on another loopback address.
+        server = new ServerSocket();
+        server.bind(new InetSocketAddress(Blackhole.LOOPBACK, blackhole.getPort()));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        blackhole.close();
+    }
+
+    @Test
+    public void secondAddressWinsAfterTheStaggerDelay() throws IOException {
+        long start = System.nanoTime();
+        Socket socket = new SocketConnector(250).connect(new InetAddress[] {Blackhole.ADDRESS, Blackhole.LOOPBACK}, blackhole.getPort(), 5000);
+        long elapsed = millisSince(start);
+
+        try {
+            assertEquals(Blackhole.LOOPBACK, socket.getInetAddress());
+            assertTrue("took " + elapsed + " ms", elapsed >= 200 && elapsed < 1000);
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void refusedAddressMovesOnWithoutWaiting() throws IOException {
+        long start = System.nanoTime();
+        Socket socket = new SocketConnector(5000).connect(new InetAddress[] {REFUSING, Blackhole.LOOPBACK}, blackhole.getPort(), 5000);
+        long elapsed = millisSince(start);
+
+        try {
+            assertEquals(Blackhole.LOOPBACK, socket.getInetAddress());
+            assertTrue("took " + elapsed + " ms", elapsed < 1000);
+        } finally {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void blackholeAloneTimesOut() throws IOException {
+        long start = System.nanoTime();
+
+        try {
+            new SocketConnector(250).connect(new InetAddress[] {Blackhole.ADDRESS}, blackhole.getPort(), 300).close();
+            fail("Connected to a black hole.");
+        } catch (SocketTimeoutException expected) {
+            long elapsed = millisSince(start);
+            assertTrue("took " + elapsed + " ms", elapsed >= 250 && elapsed < 1000);
+        }
+    }
+
+    @Test(expected = ConnectException.class)
+    public void everyAddressRefusedThrowsTheLastError() throws IOException {
+        new SocketConnector(250).connect(new InetAddress[] {REFUSING, Blackhole.address(127, 0, 0, 4)}, blackhole.getPort(), 5000).close();
+    }
+
+    @Test
+    public void interleavesFamiliesStartingWithTheFirst() throws UnknownHostException {
+        InetAddress v6a = v6(1);
+        InetAddress v6b = v6(2);
+        InetAddress v6c = v6(3);
+        InetAddress v4a = Blackhole.address(10, 0, 0, 1);
+        InetAddress v4b = Blackhole.address(10, 0, 0, 2);
+
+        assertTrue(v6a instanceof Inet6Address);
+        assertEquals(Arrays.asList(v6a, v4a, v6b, v4b, v6c), SocketConnector.interleave(new InetAddress[] {v6a, v6b, v6c, v4a, v4b}));
+        assertEquals(Arrays.asList(v4a, v6a, v4b, v6b), SocketConnector.interleave(new InetAddress[] {v4a, v4b, v6a, v6b}));
+    }
+
+    private static InetAddress v6(int last) throws UnknownHostException {
+        byte[] address = new byte[16];
+        address[0] = 0x20;
+        address[1] = 0x01;
+        address[15] = (byte) last;
+
+        return InetAddress.getByAddress(address);
+    }
+
+    private static long millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+}
@@ -0,0 +1,97 @@
+package com.fitraditya.androidwebsocket.util;
+
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.security.cert.X509Certificate;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TlsContextTest {
+    @Test
+    public void defaultTrustIsShared() throws Exception {
+        TlsContext context = TlsContext.forTrustManagers(null);
+
+        assertSame(context, TlsContext.forTrustManagers(null));
+        assertSame(context.getSocketFactory(), TlsContext.forTrustManagers(null).getSocketFactory());
+    }
+
+    @Test
+    public void sameTrustManagersHitTheCache() throws Exception {
+        TrustManager[] trustManagers = {new AcceptingTrustManager()};
+        TlsContext context = TlsContext.forTrustManagers(trustManagers);
+
+        assertSame(context, TlsContext.forTrustManagers(trustManagers));
+        assertSame(context, TlsContext.forTrustManagers(trustManagers.clone()));
+        assertNotSame(context, TlsContext.forTrustManagers(null));
+    }
+
+    @Test
+    public void otherTrustManagersMissTheCache() throws Exception {
+        TrustManager first = new AcceptingTrustManager();
+        TrustManager second = new AcceptingTrustManager();
+        TlsContext context = TlsContext.forTrustManagers(new TrustManager[] {first});
+
+        assertNotSame(context, TlsContext.forTrustManagers(new TrustManager[] {second}));
+        assertNotSame(context, TlsContext.forTrustManagers(new TrustManager[] {first, second}));
+    }
+
+    @Test
+    public void laterChangesToTheArrayDoNotAffectTheCache() throws Exception {
+        TrustManager[] trustManagers = {new AcceptingTrustManager()};
+        TlsContext context = TlsContext.forTrustManagers(trustManagers);
+
+        trustManagers[0] = new AcceptingTrustManager();
+
+        assertNotSame(context, TlsContext.forTrustManagers(trustManagers));
+    }
+
+    @Test
+    public void resumedSessionPredatesTheHandshake() {
+        long start = 1000000;
+
+        assertTrue(TlsContext.isResumed(session(start - 5000, true), start));
+        assertFalse(TlsContext.isResumed(session(start + 20, true), start));
+        assertFalse(TlsContext.isResumed(session(start - 5000, false), start));
+        assertFalse(TlsContext.isResumed(null, start));
+    }
+
+    private static SSLSession session(final long creationTime, final boolean isValid) {
+        return (SSLSession) Proxy.newProxyInstance(SSLSession.class.getClassLoader(), new Class<?>[] {SSLSession.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getCreationTime")) {
+                    return creationTime;
+                } else if (method.getName().equals("isValid")) {
+                    return isValid;
+                }
+
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static class AcceptingTrustManager implements X509TrustManager {
+        @Override
+        public void checkClientTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] chain, String authType) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.fitraditya.androidwebsocket.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Utf8DecoderTest {
+    // "a", U+00E9, U+20AC, U+1F600 and U+10FFFF: one to four bytes each.
+    private static final String MIXED = "a\u00E9\u20AC\uD83D\uDE00\uDBFF\uDFFF";
+
+    @Test
+    public void decodesEveryEncodedLength() throws Exception {
+        Utf8Decoder decoder = new Utf8Decoder();
+
+        assertTrue(decoder.decode(utf8(MIXED), 0, utf8(MIXED).length));
+        assertTrue(decoder.isComplete());
+        assertEquals(MIXED, decoder.toString());
+    }
+
+    @Test
+    public void rejectsOverlongForms() {
+        assertInvalid(0xC0, 0x80);
+        assertInvalid(0xC1, 0xBF);
+        assertInvalid(0xE0, 0x80, 0x80);
+        assertInvalid(0xE0, 0x9F, 0xBF);
+        assertInvalid(0xF0, 0x80, 0x80, 0x80);
+        assertInvalid(0xF0, 0x8F, 0xBF, 0xBF);
+
+        // The shortest forms of the same boundaries are fine.
+        assertValid(0xC2, 0x80);
+        assertValid(0xE0, 0xA0, 0x80);
+        assertValid(0xF0, 0x90, 0x80, 0x80);
+    }
+
+    @Test
+    public void rejectsSurrogateCodePoints() {
+        assertInvalid(0xED, 0xA0, 0x80);
+        assertInvalid(0xED, 0xAF, 0xBF);
+        assertInvalid(0xED, 0xB0, 0x80);
+        assertInvalid(0xED, 0xBF, 0xBF);
+
+        // U+D7FF and U+E000 sit either side of the surrogate range.
+        assertValid(0xED, 0x9F, 0xBF);
+        assertValid(0xEE, 0x80, 0x80);
+    }
+
+    @Test
+    public void rejectsCodePointsAboveU10FFFF() {
+        assertInvalid(0xF4, 0x90, 0x80, 0x80);
+        assertInvalid(0xF5, 0x80, 0x80, 0x80);
+        assertInvalid(0xF8, 0x88, 0x80, 0x80, 0x80);
+        assertInvalid(0xFF);
+
+        assertValid(0xF4, 0x8F, 0xBF, 0xBF);
+    }
+
+    @Test
+    public void rejectsStrayAndMissingContinuationBytes() {
+        assertInvalid(0x80);
+        assertInvalid(0x41, 0xBF);
+        assertInvalid(0xE2, 0x41);
+        assertInvalid(0xF0, 0x9F, 0x98, 0xC3);
+    }
+
+    @Test
+    public void truncatedAtTheEndOfAMessageIsIncomplete() {
+        Utf8Decoder decoder = new Utf8Decoder();
+        byte[] data = bytes(0x61, 0xE2, 0x82);
+
+        assertTrue(decoder.decode(data, 0, data.length));
+        assertFalse(decoder.isComplete());
+
+        decoder.reset();
+        assertTrue(decoder.isComplete());
+        assertEquals("", decoder.toString());
+    }
+
+    @Test
+    public void truncatedAtAFragmentBoundaryFailsOnTheNextFragment() {
+        Utf8Decoder decoder = new Utf8Decoder();
+        byte[] first = bytes(0x61, 0xF0, 0x9F);
+        byte[] second = bytes(0x41);
+
+        assertTrue(decoder.validate(first, 0, first.length));
+        assertFalse(decoder.isComplete());
+        assertFalse(decoder.validate(second, 0, second.length));
+    }
+
+    @Test
+    public void sequencesSplitAcrossChunksDecodeWhole() throws Exception {
+        byte[] data = utf8(MIXED);
+
+        for (int split = 0; split <= data.length; split++) {
+            Utf8Decoder decoder = new Utf8Decoder();
+
+            assertTrue(decoder.decode(data, 0, split));
+            assertTrue(decoder.decode(data, split, data.length - split));
+            assertTrue(decoder.isComplete());
+            assertEquals("split at " + split, MIXED, decoder.toString());
+        }
+
+        // One byte per chunk, through the validating path too.
+        Utf8Decoder decoder = new Utf8Decoder();
+
+        for (int i = 0; i < data.length; i++) {
+            assertTrue(decoder.validate(data, i, 1));
+        }
+
+        assertTrue(decoder.isComplete());
+    }
+
+    @Test
+    public void offsetsAreHonoured() throws Exception {
+        byte[] data = utf8("xx\u20ACyy");
+        Utf8Decoder decoder = new Utf8Decoder();
+
+        assertTrue(decoder.decode(data, 2, 3));
+        assertEquals("\u20AC", decoder.toString());
+        assertEquals(1, decoder.length());
+    }
+
+    private static void assertValid(int... values) {
+        byte[] data = bytes(values);
+        Utf8Decoder decoder = new Utf8Decoder();
+
+        assertTrue(describe(values), decoder.decode(data, 0, data.length) && decoder.isComplete());
+        assertTrue(describe(values), new Utf8Decoder().validate(data, 0, data.length));
+    }
+
+    private static void assertInvalid(int... values) {
+        byte[] data = bytes(values);
+
+        assertFalse(describe(values), new Utf8Decoder().decode(data, 0, data.length));
+        assertFalse(describe(values), new Utf8Decoder().validate(data, 0, data.length));
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+
+        return data;
+    }
+
+    private static byte[] utf8(String text) throws Exception {
+        return text.getBytes("UTF-8");
+    }
+
+    private static String describe(int... values) {
+        StringBuilder description = new StringBuilder();
+
+        for (int value : values) {
+            description.append(String.format("%02X ", value));
+        }
+
+        return description.toString().trim();
+    }
+}
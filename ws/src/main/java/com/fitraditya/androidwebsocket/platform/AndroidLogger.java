@@ -0,0 +1,21 @@
+package com.fitraditya.androidwebsocket.platform;
+
+/**
+ * Sends the core's log lines to logcat.
+ */
+
+public class AndroidLogger implements Logger {
+    @Override
+    public boolean isLoggable(String tag, int level) {
+        return android.util.Log.isLoggable(tag, level);
+    }
+
+    @Override
+    public void log(int level, String tag, String message, Throwable error) {
+        if (level >= Log.ERROR) {
+            android.util.Log.e(tag, message, error);
+        } else {
+            android.util.Log.d(tag, message, error);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.fitraditya.androidwebsocket.platform;
+
+import android.os.PowerManager;
+
+/**
+ * Adapts a PowerManager wake lock, serializing on it as the client always has.
+ */
+
+public class AndroidWakeLock implements WakeLock {
+    private PowerManager.WakeLock wakeLock;
+
+    public AndroidWakeLock(PowerManager.WakeLock wakeLock) {
+        this.wakeLock = wakeLock;
+    }
+
+    @Override
+    public void acquire() {
+        synchronized (wakeLock) {
+            wakeLock.acquire();
+        }
+    }
+
+    @Override
+    public void acquire(long timeoutMillis) {
+        synchronized (wakeLock) {
+            wakeLock.acquire(timeoutMillis);
+        }
+    }
+
+    @Override
+    public void release() {
+        synchronized (wakeLock) {
+            if (wakeLock.isHeld()) {
+                wakeLock.release();
+            }
+        }
+    }
+
+    @Override
+    public void releaseAll() {
+        synchronized (wakeLock) {
+            if (wakeLock.isHeld()) {
+                wakeLock.setReferenceCounted(false);
+                wakeLock.release();
+                wakeLock.setReferenceCounted(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.fitraditya.androidwebsocket.platform;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * Runs the client's writes and timers on its own HandlerThread.
+ */
+
+public class HandlerScheduler implements Scheduler {
+    private HandlerThread handlerThread;
+    private Handler handler;
+
+    public HandlerScheduler(String name) {
+        handlerThread = new HandlerThread(name);
+        handlerThread.start();
+        handler = new Handler(handlerThread.getLooper());
+    }
+
+    @Override
+    public void post(Runnable task) {
+        handler.post(task);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        handler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void cancel(Runnable task) {
+        handler.removeCallbacks(task);
+    }
+
+    @Override
+    public boolean inThread() {
+        return Thread.currentThread() == handlerThread;
+    }
+
+    /**
+     * Stops the thread once the task running now, if any, returns. Pending tasks are dropped.
+     */
+    public void shutdown() {
+        handlerThread.quit();
+    }
+}